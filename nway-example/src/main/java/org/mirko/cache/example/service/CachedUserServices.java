@@ -7,8 +7,10 @@ import com.google.common.io.Resources;
 import org.mirko.cache.example.dao.NotFoundException;
 import org.mirko.cache.example.dao.UserDao;
 import org.mirko.cache.example.model.User;
-import org.mirko.cache.nway.Cache;
 import org.mirko.cache.nway.CacheLoaderException;
+import org.mirko.cache.nway.CacheWriter;
+import org.mirko.cache.nway.CacheWriterException;
+import org.mirko.cache.nway.LongCache;
 import org.mirko.cache.nway.NWayCacheBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -29,29 +31,46 @@ public class CachedUserServices implements UserServices {
 	private static final Logger LOG = LoggerFactory.getLogger(CachedUserServices.class);
 	private static final String NOT_FOUND_MSG = "User not found for id ";
 	private static final String NAME_LIST = "names.txt";
-	private Cache<Long, User> cache;
+	private LongCache<User> cache;
 
 	@Autowired
 	private UserDao userDao;
 
 	/**
-	 * Instanciate a new DataServiceChaced and the cache object
+	 * Instanciate a new DataServiceChaced and the cache object. The puts and the removes of the cache are written
+	 * in the database
 	 */
 	@PostConstruct
 	public void init() {
-		cache = new NWayCacheBuilder<Long, User>().build(id -> {
-			User p = userDao.findOne(id);
-			if (p == null) {
-				throw new NotFoundException(NOT_FOUND_MSG + id);
-			}
-			return p;
-		});
+		cache = new NWayCacheBuilder<Long, User>()
+			.writeThrough(new CacheWriter<Long, User>() {
+				@Override
+				public void write(Long id, User user) {
+					userDao.save(user);
+				}
+
+				@Override
+				public void delete(Long id) {
+					userDao.delete(id);
+				}
+			})
+			.buildLong(id -> {
+				User p = userDao.findOne(id);
+				if (p == null) {
+					throw new NotFoundException(NOT_FOUND_MSG + id);
+				}
+				return p;
+			});
 	}
 
 	@Override
 	public void save(User user) {
-		userDao.save(user);
-		cache.put(user.getId(), user);
+		if (user.getId() == 0) {
+			// new user: the id is generated by the database, the user is cached by the first read
+			userDao.save(user);
+		} else {
+			cache.put(user.getId(), user);
+		}
 		LOG.info("Saved {}", user);
 	}
 
@@ -76,11 +95,13 @@ public class CachedUserServices implements UserServices {
 
 	@Override
 	public void delete(long id) throws NotFoundException {
-		cache.remove(id);
 		try {
-			userDao.delete(id);
-		} catch (EmptyResultDataAccessException e) {
-			throw new NotFoundException(NOT_FOUND_MSG + id);
+			cache.remove(id);
+		} catch (CacheWriterException e) {
+			if (e.getCause() instanceof EmptyResultDataAccessException) {
+				throw new NotFoundException(NOT_FOUND_MSG + id);
+			}
+			throw e;
 		}
 		LOG.info("Deleted user by id {}", id);
 	}
@@ -4,11 +4,12 @@ import com.google.common.base.Preconditions;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Package accessible abstract Cache class for creating a generic implementation of {@link Cache}.<br/>
- * Provides the public controls method implementation for the listeners (removal, miss, cached) and the package getter and setter for
- * {@link CacheLoader} and {@link CacheEviction}
+ * Provides the public controls method implementation for the listeners (removal, miss, cached), the statistics and the package getter and setter for
+ * {@link CacheLoader}, {@link CacheEviction} and {@link EvictionPolicy}
  *
  * <br/><br/>Created by Mirko Bernardoni on 30/05/15.
  * @author Mirko Bernardoni
@@ -16,11 +17,17 @@ import java.util.List;
  * @version 1.0
  */
 /*package*/ abstract class AbstractCache<Key, Value> implements Cache<Key, Value> {
-    /*package*/ final List<RemovalListener<Key, Value>> removalListeners = new ArrayList<>();
-    /*package*/ final List<MissListener<Key>> missListeners = new ArrayList<>();
-    /*package*/ final List<CachedListener<Key, Value>> cachedListeners = new ArrayList<>();
+    // copy on write: the listeners can be added and removed while the notifications are delivered
+    /*package*/ final List<RemovalListener<Key, Value>> removalListeners = new CopyOnWriteArrayList<>();
+    /*package*/ final List<MissListener<Key>> missListeners = new CopyOnWriteArrayList<>();
+    /*package*/ final List<CachedListener<Key, Value>> cachedListeners = new CopyOnWriteArrayList<>();
+    /*package*/ final StatsCounter statsCounter = new StatsCounter();
+    private NotificationDispatcher notificationDispatcher;
+    // notifications generated by the current thread while it owns the lock of a block (used only with a dispatcher)
+    private final ThreadLocal<HeldNotifications> heldNotifications = ThreadLocal.withInitial(HeldNotifications::new);
     private CacheLoader<Key, Value> cacheLoader;
     private CacheEviction<Key, Value> eviction;
+    private EvictionPolicy<Key, Value> evictionPolicy;
 
     @Override
     public void addRemovalListener(RemovalListener<Key, Value> removalListener) {
@@ -64,6 +71,11 @@ import java.util.List;
         }
     }
 
+    @Override
+    public CacheStats stats() {
+        return statsCounter.snapshot();
+    }
+
     /**
      * Retrieve the current cacheLoader
      *
@@ -92,12 +104,107 @@ import java.util.List;
     }
 
     /**
-     * Set the eviction algorithm
+     * Set the eviction algorithm. The eviction policy is set as well, through an adapter if the algorithm is not
+     * an {@link EvictionPolicy}
      *
      * @param eviction eviction algorithm
      */
     /*package*/ void setEviction(CacheEviction<Key, Value> eviction) {
         this.eviction = eviction;
+        this.evictionPolicy = CacheEvictionAdapter.adapt(eviction);
+    }
+
+    /**
+     * Retrieve the eviction policy used by the cache
+     *
+     * @return eviction policy
+     */
+    /*package*/ EvictionPolicy<Key, Value> getEvictionPolicy() {
+        return evictionPolicy;
+    }
+
+    /**
+     * Set the eviction policy. The eviction algorithm is set as well if the policy is also a {@link CacheEviction}
+     *
+     * @param evictionPolicy eviction policy
+     */
+    @SuppressWarnings("unchecked")
+    /*package*/ void setEvictionPolicy(EvictionPolicy<Key, Value> evictionPolicy) {
+        this.evictionPolicy = evictionPolicy;
+        this.eviction = evictionPolicy instanceof CacheEviction ? (CacheEviction<Key, Value>) evictionPolicy : null;
+    }
+
+    /**
+     * Retrieve the dispatcher of the listener notifications
+     *
+     * @return the dispatcher or null if the listeners are called by the thread that generates the notification
+     */
+    /*package*/ NotificationDispatcher getNotificationDispatcher() {
+        return notificationDispatcher;
+    }
+
+    /**
+     * Set the dispatcher for delivering the listener notifications asynchronously
+     *
+     * @param notificationDispatcher the dispatcher or null for calling the listeners synchronously
+     */
+    /*package*/ void setNotificationDispatcher(NotificationDispatcher notificationDispatcher) {
+        this.notificationDispatcher = notificationDispatcher;
+    }
+
+    /**
+     * Deliver a notification synchronously or through the dispatcher (if any)
+     *
+     * @param notification task that calls the listeners
+     */
+    private void dispatch(Runnable notification) {
+        NotificationDispatcher dispatcher = notificationDispatcher;
+        if (dispatcher == null) {
+            notification.run();
+            return;
+        }
+        HeldNotifications held = heldNotifications.get();
+        if (held.depth > 0) {
+            held.pending.add(notification);
+        } else {
+            dispatcher.dispatch(notification);
+        }
+    }
+
+    /**
+     * Hold the notifications generated by the current thread until {@link #releaseNotifications()}. Called before
+     * owning the lock of a block: a dispatcher with {@link NotificationOverflow#BLOCK} could wait for a listener
+     * that needs the same lock. The calls can be nested, the notifications are dispatched by the last release
+     */
+    /*package*/ void holdNotifications() {
+        if (notificationDispatcher != null) {
+            heldNotifications.get().depth++;
+        }
+    }
+
+    /**
+     * Dispatch the notifications held since {@link #holdNotifications()}. Called after the lock of the block has
+     * been released
+     */
+    /*package*/ void releaseNotifications() {
+        NotificationDispatcher dispatcher = notificationDispatcher;
+        if (dispatcher == null) {
+            return;
+        }
+        HeldNotifications held = heldNotifications.get();
+        if (--held.depth == 0 && !held.pending.isEmpty()) {
+            List<Runnable> pending = new ArrayList<>(held.pending);
+            held.pending.clear();
+            pending.forEach(dispatcher::dispatch);
+        }
+    }
+
+    /**
+     * Notifications held by a thread
+     */
+    private static class HeldNotifications {
+        private final List<Runnable> pending = new ArrayList<>();
+        private int depth;
     }
 
     /**
@@ -109,9 +216,28 @@ import java.util.List;
     protected void fireRemovalListener(CacheEntry<Key, Value> entry, RemovalCause cause) {
         Preconditions.checkNotNull(entry, "Null entry not allowed");
         Preconditions.checkNotNull(cause, "Null Removal cause not allowed");
+        if (cause == RemovalCause.EVICTION) {
+            statsCounter.recordEviction();
+        }
         if (!removalListeners.isEmpty()) {
             RemovalNotification<Key, Value> removalNotification = new RemovalNotification<>(entry, cause);
-            removalListeners.forEach(r -> r.onRemoval(removalNotification));
+            dispatch(() -> removalListeners.forEach(r -> r.onRemoval(removalNotification)));
+        }
+    }
+
+    /**
+     * Fire all the removal listeners with a notification created by another cache (for example the second level of
+     * this cache)
+     *
+     * @param removalNotification notification to deliver
+     */
+    /*package*/ void fireRemovalListener(RemovalNotification<Key, Value> removalNotification) {
+        Preconditions.checkNotNull(removalNotification, "Null notification not allowed");
+        if (removalNotification.getCause() == RemovalCause.EVICTION) {
+            statsCounter.recordEviction();
+        }
+        if (!removalListeners.isEmpty()) {
+            dispatch(() -> removalListeners.forEach(r -> r.onRemoval(removalNotification)));
         }
     }
 
@@ -124,7 +250,7 @@ import java.util.List;
         Preconditions.checkNotNull(entry, "Null entry not allowed");
         if (!cachedListeners.isEmpty()) {
             CacheNotification<Key, Value> cachedNotification = new CacheNotification<>(entry);
-            cachedListeners.forEach(c -> c.onCache(cachedNotification));
+            dispatch(() -> cachedListeners.forEach(c -> c.onCache(cachedNotification)));
         }
     }
 
@@ -136,7 +262,7 @@ import java.util.List;
     protected void fireMissListener(Key key) {
         Preconditions.checkNotNull(key, "Null key not allowed");
         if (!missListeners.isEmpty()) {
-            missListeners.forEach(m -> m.onMiss(key));
+            dispatch(() -> missListeners.forEach(m -> m.onMiss(key)));
         }
     }
 }
@@ -1,5 +1,8 @@
 package org.mirko.cache.nway;
 
+import java.io.IOException;
+import java.nio.file.Path;
+
 /**
  * <p>A  mapping from keys to values. Cache entries are manually added using
  * {@link #get(Object)} or {@link #put(Object, Object)}, and are stored in the cache until
@@ -24,6 +27,8 @@ public interface Cache<Key, Value> {
      *
      * @param key   the key
      * @param value value to put in the cache if there is a cache miss
+     * @throws org.mirko.cache.nway.CacheWriterException if the {@link CacheWriter} cannot write the entry in the
+     *                                                   backing store, the cache is not modified
      */
     void put(Key key, Value value);
 
@@ -43,6 +48,8 @@ public interface Cache<Key, Value> {
      * Discards any cached value for key {@code key}.
      *
      * @param key the key to remove
+     * @throws org.mirko.cache.nway.CacheWriterException if the {@link CacheWriter} cannot delete the entry from the
+     *                                                   backing store, the cache is not modified
      */
     void remove(Key key);
 
@@ -88,4 +95,74 @@ public interface Cache<Key, Value> {
      */
     void removeCachedListener(CachedListener<Key, Value> cachedListener);
 
+    /**
+     * <p>Change the number of blocks (sets) of the cache while it is running. The entries already in the cache are
+     * kept.</p>
+     * <p>The default implementation does not support resizing</p>
+     *
+     * @param blocks new number of blocks
+     * @throws java.lang.UnsupportedOperationException if the cache cannot be resized
+     */
+    default void resize(int blocks) {
+        throw new UnsupportedOperationException("Resize not supported");
+    }
+
+    /**
+     * <p>Retrieve a snapshot of the statistics of the cache.</p>
+     * <p>The default implementation does not collect statistics</p>
+     *
+     * @return the current statistics
+     * @throws java.lang.UnsupportedOperationException if the cache does not collect statistics
+     */
+    default CacheStats stats() {
+        throw new UnsupportedOperationException("Statistics not supported");
+    }
+
+    /**
+     * <p>Write all the active entries (key, value, creation and access time) in a binary file, for restoring them
+     * with {@link #restore(Path, Serializer, Serializer)} in a new cache. An existing file is replaced.</p>
+     * <p>The default implementation does not support snapshots</p>
+     *
+     * @param file            path of the file
+     * @param keySerializer   serializer of the keys
+     * @param valueSerializer serializer of the values
+     * @param parallel        true for serializing the entries with more threads
+     * @return number of entries written
+     * @throws java.io.IOException                     if the file cannot be written
+     * @throws java.lang.UnsupportedOperationException if the cache does not support snapshots
+     */
+    default int snapshot(Path file, Serializer<Key> keySerializer, Serializer<Value> valueSerializer,
+                         boolean parallel) throws IOException {
+        throw new UnsupportedOperationException("Snapshot not supported");
+    }
+
+    /**
+     * <p>Add to the cache the entries of a file written by {@link #snapshot(Path, Serializer, Serializer, boolean)},
+     * without calling the loader.</p>
+     * <p>The default implementation does not support snapshots</p>
+     *
+     * @param file            path of the file
+     * @param keySerializer   serializer of the keys
+     * @param valueSerializer serializer of the values
+     * @return number of entries added
+     * @throws java.io.IOException                     if the file cannot be read or is not a valid snapshot
+     * @throws java.lang.UnsupportedOperationException if the cache does not support snapshots
+     */
+    default int restore(Path file, Serializer<Key> keySerializer, Serializer<Value> valueSerializer)
+            throws IOException {
+        throw new UnsupportedOperationException("Snapshot not supported");
+    }
+
+    /**
+     * <p>Write in the backing store all the changes not written yet by the {@link CacheWriter} (see
+     * {@link NWayCacheBuilder#writeBehind(CacheWriter, java.util.concurrent.ScheduledExecutorService, long, int)}).
+     * Call it before shutting down the scheduler.</p>
+     * <p>The default implementation has no changes to write</p>
+     *
+     * @throws org.mirko.cache.nway.CacheWriterException if some changes cannot be written, they are kept for the
+     *                                                   next flush
+     */
+    default void flush() {
+    }
+
 }
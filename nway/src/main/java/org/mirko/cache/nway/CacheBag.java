@@ -2,6 +2,7 @@ package org.mirko.cache.nway;
 
 import com.google.common.base.MoreObjects;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -12,18 +13,40 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
  * In a cache system can be present more than one block</p>
  * <p>A brief cache introduction can be found <a href="http://csillustrated.berkeley.edu/PDFs/handouts/cache-3-associativity-handout.pdf">here</a></p>
  * <p>In this implementation the bag contains also the lock for managing the concurrent access to the block. </p>
+ * <p>The bag keeps the spread hash of the key of every entry in an array parallel to the block: a scan compares the
+ * hashes and calls {@code equals} only for the entries with the same hash. For this reason the entries have to be
+ * added and removed via {@link #add(CacheEntry, int)}, {@link #remove(int)} and {@link #clear()}. The weight of
+ * every entry is kept in the same way.</p>
+ * <p>The bag is also the {@link CacheSetView} of the block given to the {@link EvictionPolicy}: the view has to be
+ * used only while the write lock is owned.</p>
  * <br/><br/>Created by Mirko Bernardoni on 30/05/15.
  *
  * @author Mirko Bernardoni
  * @version 1.0
  * @since 1.0
  */
-/*package*/ class CacheBag<Key, Value> {
+/*package*/ class CacheBag<Key, Value> implements CacheSetView<Key, Value> {
     private final List<CacheEntry<Key, Value>> block;
+    private final int index;
     private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // spread hash of the key of every slot, contiguous for a fast scan (changed only with the write lock)
+    private int[] hashes = new int[4];
+    // weight of every slot, parallel to the hashes (changed only with the write lock)
+    private int[] weights = new int[4];
+    // total weight of the block (changed only with the write lock)
+    private volatile long weight;
+    // victims buffer reused by every eviction (protected by the write lock)
+    private int[] victims = new int[0];
+    // policy that owns the state (changed only with the write lock)
+    private EvictionPolicy<Key, Value> statePolicy;
+    // read without lock for skipping the stateless policies
+    private volatile Object state;
+    // set when the entries have been moved to the new blocks of a resize
+    private volatile boolean migrated;
 
-    /*package*/ CacheBag(List<CacheEntry<Key, Value>> block) {
+    /*package*/ CacheBag(List<CacheEntry<Key, Value>> block, int index) {
         this.block = block;
+        this.index = index;
     }
 
     /**
@@ -35,6 +58,97 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
         return block;
     }
 
+    /**
+     * Spread the hash code of a key: the high bits are mixed with the low bits
+     *
+     * @param key key
+     * @return the spread hash
+     */
+    /*package*/ static int spread(Object key) {
+        int hash = key.hashCode();
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Add an entry of weight 1 in the end of the block. It has to be used only while the write lock is owned
+     *
+     * @param entry entry to add
+     */
+    /*package*/ void add(CacheEntry<Key, Value> entry) {
+        add(entry, 1);
+    }
+
+    /**
+     * Add an entry in the end of the block. It has to be used only while the write lock is owned
+     *
+     * @param entry  entry to add
+     * @param weight weight of the entry, see {@link Weigher}
+     */
+    /*package*/ void add(CacheEntry<Key, Value> entry, int weight) {
+        int size = block.size();
+        if (size == hashes.length) {
+            hashes = Arrays.copyOf(hashes, size * 2);
+            weights = Arrays.copyOf(weights, size * 2);
+        }
+        hashes[size] = spread(entry.getKey());
+        weights[size] = weight;
+        this.weight += weight;
+        block.add(entry);
+    }
+
+    /**
+     * Remove the entry of a slot: the following entries move back by one slot.
+     * It has to be used only while the write lock is owned
+     *
+     * @param slot slot to remove
+     * @return the entry removed
+     */
+    /*package*/ CacheEntry<Key, Value> remove(int slot) {
+        weight -= weights[slot];
+        System.arraycopy(hashes, slot + 1, hashes, slot, block.size() - slot - 1);
+        System.arraycopy(weights, slot + 1, weights, slot, block.size() - slot - 1);
+        return block.remove(slot);
+    }
+
+    /**
+     * Remove all the entries. It has to be used only while the write lock is owned
+     */
+    /*package*/ void clear() {
+        weight = 0;
+        block.clear();
+    }
+
+    /**
+     * Total weight of the entries of the block, equal to the size when no {@link Weigher} is used
+     *
+     * @return the weight of the block
+     */
+    /*package*/ long getTotalWeight() {
+        return weight;
+    }
+
+    /**
+     * Verify if the entry of a slot has the key. The hashes are compared before calling {@code equals}.
+     * It has to be used only while a lock is owned
+     *
+     * @param slot slot
+     * @param hash spread hash of the key
+     * @param key  key
+     * @return true if the entry of the slot has the key
+     */
+    /*package*/ boolean matches(int slot, int hash, Object key) {
+        return hashes[slot] == hash && key.equals(block.get(slot).getKey());
+    }
+
+    /**
+     * Retrieve the position of the bag inside the cache
+     *
+     * @return the index of the bag
+     */
+    public int getIndex() {
+        return index;
+    }
+
     /**
      * Retrieve the concurrency lock used per manage the access to the current block
      *
@@ -44,9 +158,114 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
         return lock;
     }
 
+    /**
+     * Retrieve the buffer for the victims of the eviction policy. It has to be used only while the write lock is owned
+     *
+     * @return an array at least long as the block
+     */
+    /*package*/ int[] getVictims() {
+        if (victims.length < block.size()) {
+            victims = new int[block.size()];
+        }
+        return victims;
+    }
+
+    /**
+     * Bind the eviction policy to the bag creating the policy state if the policy is used for the first time.
+     * When the state is created the policy is notified for all the entries already in the block.
+     * It has to be used only while the write lock is owned
+     *
+     * @param policy   eviction policy
+     * @param capacity max number of entries in the block
+     */
+    /*package*/ void bindPolicy(EvictionPolicy<Key, Value> policy, int capacity) {
+        if (policy != statePolicy) {
+            statePolicy = policy;
+            state = policy.createSetState(capacity);
+            if (state != null) {
+                for (int slot = 0; slot < block.size(); slot++) {
+                    policy.onInsert(this, slot);
+                }
+            }
+        }
+    }
+
+    /**
+     * Retrieve the policy that owns the state of the bag
+     *
+     * @return the policy or null if no policy is bound
+     */
+    /*package*/ EvictionPolicy<Key, Value> getStatePolicy() {
+        return statePolicy;
+    }
+
+    /**
+     * Verify if the bag has been replaced by a resize of the cache
+     *
+     * @return true if the entries have been moved to the new blocks
+     */
+    /*package*/ boolean isMigrated() {
+        return migrated;
+    }
+
+    /**
+     * Mark the bag as replaced by a resize of the cache. It has to be used only while the write lock is owned
+     *
+     * @param migrated true if the entries have been moved to the new blocks
+     */
+    /*package*/ void setMigrated(boolean migrated) {
+        this.migrated = migrated;
+    }
+
+    @Override
+    public Object getState() {
+        return state;
+    }
+
+    @Override
+    public int size() {
+        return block.size();
+    }
+
+    @Override
+    public CacheEntry<Key, Value> getEntry(int slot) {
+        return block.get(slot);
+    }
+
+    @Override
+    public boolean isActive(int slot) {
+        return block.get(slot).getStatus() == CacheEntryStatus.ACTIVE;
+    }
+
+    @Override
+    public long getAccessTime(int slot) {
+        return block.get(slot).getAccessTime();
+    }
+
+    @Override
+    public long getCreationTime(int slot) {
+        return block.get(slot).getCreationTime();
+    }
+
+    @Override
+    public int getHitCount(int slot) {
+        return block.get(slot).getHitCount();
+    }
+
+    @Override
+    public void resetHitCount(int slot) {
+        block.get(slot).resetHitCount();
+    }
+
+    @Override
+    public long getWeight(int slot) {
+        return weights[slot];
+    }
+
     @Override
     public String toString() {
         return MoreObjects.toStringHelper(this)
+                .add("Index", index)
                 .add("Bag size", block.size())
                 .toString();
     }
@@ -39,6 +39,23 @@ public interface CacheEntry<Key, Value> {
      */
     long getAccessTime();
 
+    /**
+     * Number of times the entry has been retrieved from the cache (hit) after its creation.<br/>
+     * Used by the frequency based eviction algorithms. The default implementation returns 0
+     *
+     * @return the number of hits
+     */
+    default int getHitCount() {
+        return 0;
+    }
+
+    /**
+     * Forget the hits of the entry, as if it has never been retrieved after its creation.<br/>
+     * Used by the frequency based eviction algorithms for demoting an entry. The default implementation does nothing
+     */
+    default void resetHitCount() {
+    }
+
     /**
      * Status of the current entry {@link CacheEntryStatus}
      *
@@ -2,8 +2,22 @@ package org.mirko.cache.nway;
 
 import com.google.common.base.MoreObjects;
 
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
 /**
- * Package accessible bean that implement {@link CacheEntry}
+ * <p>Package accessible bean that implement {@link CacheEntry}</p>
+ * <p>The entry has a compact layout: besides key and value it has only an {@code int} with the creation time in
+ * seconds from {@link #EPOCH} (negative for the entries restored from a snapshot) and a {@code long} (metadata word)
+ * that packs:
+ * <ul>
+ * <li>bit 63: status, set if {@link CacheEntryStatus#DELETED}</li>
+ * <li>bits 50-62: hit count, saturating at {@link #MAX_HIT_COUNT} (used only as a hint by the eviction policies)</li>
+ * <li>bits 40-49: milliseconds of the creation time</li>
+ * <li>bits 0-39: access time, in milliseconds from the creation time (about 34 years)</li>
+ * </ul>
+ * The metadata word is changed with a compare and set, so a concurrent access time update cannot lose a status
+ * change.</p>
  * <br/><br/>Created by Mirko Bernardoni on 30/05/15.
  *
  * @author Mirko Bernardoni
@@ -11,24 +25,51 @@ import com.google.common.base.MoreObjects;
  * @since 1.0
  */
 /*package*/ class CacheEntryImpl<Key, Value> implements CacheEntry<Key, Value> {
-    private final long creationTime;
+    /**
+     * Base of the creation times, in milliseconds
+     */
+    /*package*/ static final long EPOCH = System.currentTimeMillis() / 1000 * 1000;
+    /*package*/ static final int MAX_HIT_COUNT = (1 << 13) - 1;
+
+    private static final long DELETED_BIT = 1L << 63;
+    private static final int HIT_COUNT_SHIFT = 50;
+    private static final long HIT_COUNT_MASK = (long) MAX_HIT_COUNT << HIT_COUNT_SHIFT;
+    private static final int CREATION_MILLIS_SHIFT = 40;
+    private static final long CREATION_MILLIS_MASK = 0x3FFL << CREATION_MILLIS_SHIFT;
+    private static final long ACCESS_MASK = (1L << CREATION_MILLIS_SHIFT) - 1;
+    @SuppressWarnings("rawtypes")
+    private static final AtomicLongFieldUpdater<CacheEntryImpl> META =
+            AtomicLongFieldUpdater.newUpdater(CacheEntryImpl.class, "meta");
+
+    // seconds from EPOCH
+    private final int creationSeconds;
     private Key key;
     private Value value;
-    // multiple thread can change it
-    private volatile long accessTime;
-    // multiple thread can change it
-    private volatile CacheEntryStatus status;
+    // multiple thread can change it: always updated with a compare and set
+    private volatile long meta;
 
     /**
-     * Create a new instance of CacheEntryImpl with {@link #creationTime} set to current time
+     * Create a new instance of CacheEntryImpl with creation time and access time set to current time
      */
     /*package*/ CacheEntryImpl() {
-        this.creationTime = System.currentTimeMillis();
+        this(System.currentTimeMillis());
+    }
+
+    /**
+     * Create a new instance of CacheEntryImpl with creation time and access time set to {@code creationTime}.
+     * Used for the entries restored from a snapshot
+     *
+     * @param creationTime creation time in milliseconds, it can be before {@link #EPOCH}
+     */
+    /*package*/ CacheEntryImpl(long creationTime) {
+        long creation = Math.max(Integer.MIN_VALUE * 1000L, Math.min(Integer.MAX_VALUE * 1000L, creationTime - EPOCH));
+        this.creationSeconds = (int) Math.floorDiv(creation, 1000L);
+        this.meta = Math.floorMod(creation, 1000L) << CREATION_MILLIS_SHIFT;
     }
 
     @Override
     public long getCreationTime() {
-        return creationTime;
+        return EPOCH + creationSeconds * 1000L + ((meta & CREATION_MILLIS_MASK) >>> CREATION_MILLIS_SHIFT);
     }
 
     @Override
@@ -49,23 +90,72 @@ import com.google.common.base.MoreObjects;
         this.value = value;
     }
 
+    /**
+     * Verify if the entry holds a value. An entry without value cannot be added to the cache
+     *
+     * @return true if the value is set
+     */
+    /*package*/ boolean hasValue() {
+        return value != null;
+    }
+
+    /**
+     * Free the resources used by the value when the entry leaves the cache. Nothing to do for the values on the heap
+     */
+    /*package*/ void release() {
+    }
+
     @Override
     public long getAccessTime() {
-        return accessTime;
+        return getCreationTime() + (meta & ACCESS_MASK);
     }
 
     /*package*/ void setAccessTime(long accessTime) {
-        this.accessTime = accessTime;
+        long offset = Math.min(ACCESS_MASK, Math.max(0, accessTime - getCreationTime()));
+        long current;
+        do {
+            current = meta;
+        } while (!META.compareAndSet(this, current, (current & ~ACCESS_MASK) | offset));
+    }
+
+    @Override
+    public int getHitCount() {
+        return (int) ((meta & HIT_COUNT_MASK) >>> HIT_COUNT_SHIFT);
+    }
+
+    /**
+     * Increment the number of hits of the entry. The counter saturates at {@link #MAX_HIT_COUNT}
+     */
+    /*package*/ void incrementHitCount() {
+        long current;
+        do {
+            current = meta;
+            if ((current & HIT_COUNT_MASK) == HIT_COUNT_MASK) {
+                return;
+            }
+        } while (!META.compareAndSet(this, current, current + (1L << HIT_COUNT_SHIFT)));
+    }
+
+    @Override
+    public void resetHitCount() {
+        long current;
+        do {
+            current = meta;
+        } while (!META.compareAndSet(this, current, current & ~HIT_COUNT_MASK));
     }
 
     @Override
     public CacheEntryStatus getStatus() {
-        return status;
+        return (meta & DELETED_BIT) == 0 ? CacheEntryStatus.ACTIVE : CacheEntryStatus.DELETED;
     }
 
     @Override
     public void setStatus(CacheEntryStatus status) {
-        this.status = status;
+        long current;
+        do {
+            current = meta;
+        } while (!META.compareAndSet(this, current,
+                status == CacheEntryStatus.DELETED ? current | DELETED_BIT : current & ~DELETED_BIT));
     }
 
     @Override
@@ -75,26 +165,27 @@ import com.google.common.base.MoreObjects;
 
         CacheEntryImpl that = (CacheEntryImpl) o;
 
-        if (!key.equals(that.key)) return false;
-        if (!value.equals(that.value)) return false;
+        if (!Objects.equals(getKey(), that.getKey())) return false;
+        if (!Objects.equals(getValue(), that.getValue())) return false;
 
         return true;
     }
 
     @Override
     public int hashCode() {
-        int result = key.hashCode();
-        result = 31 * result + value.hashCode();
+        int result = Objects.hashCode(getKey());
+        result = 31 * result + Objects.hashCode(getValue());
         return result;
     }
 
     @Override
     public String toString() {
         return MoreObjects.toStringHelper(this)
-                .add("Key", key)
-                .add("Value", value)
-                .add("CreationTime", creationTime)
-                .add("AccessTime", accessTime)
+                .add("Key", getKey())
+                .add("Value", getValue())
+                .add("CreationTime", getCreationTime())
+                .add("AccessTime", getAccessTime())
+                .add("HitCount", getHitCount())
                 .toString();
     }
 }
@@ -8,10 +8,13 @@ import java.util.List;
  * <p>Eviction algorithm implementation is not removing entries from the {@code block} but only mark their
  * {@code status} to DELETE</p>
  * <p>The default implementation is {@link org.mirko.cache.nway.algorithm.LRUAlgorithm} but also
- * {@link org.mirko.cache.nway.algorithm.LRUExpiredAlgorithm} and
- * {@link org.mirko.cache.nway.algorithm.MRUAlgorithm} are provided with the package</p>
+ * {@link org.mirko.cache.nway.algorithm.LRUExpiredAlgorithm},
+ * {@link org.mirko.cache.nway.algorithm.MRUAlgorithm} and
+ * {@link org.mirko.cache.nway.algorithm.SLRUAlgorithm} are provided with the package</p>
  * <p>In order to provide your own algorithm you have to implement this interface and give to the builder via
  * {@link org.mirko.cache.nway.NWayCacheBuilder#customEviction(CacheEviction)}</p>
+ * <p>The block is copied for every eviction: prefer {@link EvictionPolicy} that works on a view of the block
+ * without any copy</p>
  * <p/>
  * <br/><br/>Created by Mirko Bernardoni on 30/05/15.
  *
@@ -0,0 +1,60 @@
+package org.mirko.cache.nway;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+/**
+ * Package accessible adapter that allows to use a {@link CacheEviction} as an {@link EvictionPolicy}.<br/>
+ * The block is copied in an immutable list for the eviction algorithm and the entries marked as {@code DELETED}
+ * are returned as victims. Their status is set back to {@code ACTIVE}: the cache marks, notifies and releases the
+ * victims as for any other policy.
+ * <br/><br/>Created by Mirko Bernardoni on 19/10/26.
+ *
+ * @author Mirko Bernardoni
+ * @version 1.0
+ * @since 1.0
+ */
+/*package*/ class CacheEvictionAdapter<Key, Value> implements EvictionPolicy<Key, Value> {
+    private final CacheEviction<Key, Value> eviction;
+
+    /*package*/ CacheEvictionAdapter(CacheEviction<Key, Value> eviction) {
+        this.eviction = Preconditions.checkNotNull(eviction, "Eviction cannot be null");
+    }
+
+    /**
+     * Retrieve the policy for an eviction algorithm. No adapter is created when the algorithm
+     * is already an {@link EvictionPolicy}
+     *
+     * @param eviction eviction algorithm
+     * @return the policy or null if {@code eviction} is null
+     */
+    @SuppressWarnings("unchecked")
+    /*package*/ static <Key, Value> EvictionPolicy<Key, Value> adapt(CacheEviction<Key, Value> eviction) {
+        if (eviction == null) {
+            return null;
+        } else if (eviction instanceof EvictionPolicy) {
+            return (EvictionPolicy<Key, Value>) eviction;
+        }
+        return new CacheEvictionAdapter<>(eviction);
+    }
+
+    @Override
+    public int selectVictims(CacheSetView<Key, Value> set, int[] victims) {
+        ImmutableList.Builder<CacheEntry<Key, Value>> builder = ImmutableList.builder();
+        for (int slot = 0; slot < set.size(); slot++) {
+            builder.add(set.getEntry(slot));
+        }
+        List<CacheEntry<Key, Value>> block = builder.build();
+        eviction.eviction(block);
+        int count = 0;
+        for (int slot = 0; slot < block.size(); slot++) {
+            if (block.get(slot).getStatus() == CacheEntryStatus.DELETED) {
+                block.get(slot).setStatus(CacheEntryStatus.ACTIVE);
+                victims[count++] = slot;
+            }
+        }
+        return count;
+    }
+}
@@ -1,5 +1,9 @@
 package org.mirko.cache.nway;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * Define the caching loading in case the cache has a miss.
  * <br/><br/>Created by Mirko Bernardoni on 30/05/15.
@@ -18,4 +22,22 @@ public interface CacheLoader<Key, Value> {
      * @throws java.lang.Exception if something wron happen
      */
     Value load(Key key) throws Exception;
+
+    /**
+     * Load the values of many keys with a single call, used by the miss batching (see
+     * {@link NWayCacheBuilder#missBatching(long, int)}). The keys missing in the result are loaded with
+     * {@link #load(Object)}. The default implementation calls {@link #load(Object)} for every key: a backing store
+     * that supports batches should override it
+     *
+     * @param keys the keys that don't have an associate value, never empty
+     * @return the values loaded by key
+     * @throws java.lang.Exception if something wrong happen, all the keys fail with the same exception
+     */
+    default Map<Key, Value> loadAll(Collection<Key> keys) throws Exception {
+        Map<Key, Value> values = new HashMap<>();
+        for (Key key : keys) {
+            values.put(key, load(key));
+        }
+        return values;
+    }
 }
@@ -0,0 +1,86 @@
+package org.mirko.cache.nway;
+
+/**
+ * <p>Read only view of a cache block (set) given to an {@link EvictionPolicy}.</p>
+ * <p>The entries are addressed by slot: the slots are in {@code [0, size())} and follow the creation order of the
+ * entries (the older are first), as for the block given to {@link CacheEviction}. The metadata of a slot can be read
+ * without accessing the entry.</p>
+ * <p>The view is owned by the cache and reused: it is valid only during the call to the policy and it has not to be
+ * stored. The entries returned by {@link #getEntry(int)} have not to be modified, the policy returns the victim
+ * slots instead. The only change allowed is {@link #resetHitCount(int)}, for demoting an entry.</p>
+ * <br/><br/>Created by Mirko Bernardoni on 19/10/26.
+ *
+ * @author Mirko Bernardoni
+ * @version 1.0
+ * @since 1.0
+ */
+public interface CacheSetView<Key, Value> {
+    /**
+     * Number of slots in the block
+     *
+     * @return the block size
+     */
+    int size();
+
+    /**
+     * The entry stored in a slot
+     *
+     * @param slot the slot
+     * @return the entry
+     */
+    CacheEntry<Key, Value> getEntry(int slot);
+
+    /**
+     * Verify if the entry in a slot is {@code ACTIVE}
+     *
+     * @param slot the slot
+     * @return true if the entry is active
+     */
+    boolean isActive(int slot);
+
+    /**
+     * Access timestamp of the entry in a slot expressed in millisecond from {@link System#currentTimeMillis()}
+     *
+     * @param slot the slot
+     * @return the last access time of the entry
+     */
+    long getAccessTime(int slot);
+
+    /**
+     * Creation timestamp of the entry in a slot expressed in millisecond from {@link System#currentTimeMillis()}
+     *
+     * @param slot the slot
+     * @return the creation time of the entry
+     */
+    long getCreationTime(int slot);
+
+    /**
+     * Number of hits of the entry in a slot (access frequency)
+     *
+     * @param slot the slot
+     * @return the hit count of the entry
+     */
+    int getHitCount(int slot);
+
+    /**
+     * Reset the number of hits of the entry in a slot, see {@link CacheEntry#resetHitCount()}
+     *
+     * @param slot the slot
+     */
+    void resetHitCount(int slot);
+
+    /**
+     * Weight of the entry in a slot. All the entries have weight 1 unless a {@link Weigher} is used
+     *
+     * @param slot the slot
+     * @return the weight of the entry
+     */
+    long getWeight(int slot);
+
+    /**
+     * State of the eviction policy for the block, see {@link EvictionPolicy#createSetState(int)}
+     *
+     * @return the state or null if the policy is stateless
+     */
+    Object getState();
+}
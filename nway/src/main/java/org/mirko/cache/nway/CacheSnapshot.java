@@ -0,0 +1,310 @@
+package org.mirko.cache.nway;
+
+import com.google.common.base.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+
+/**
+ * <p>Package accessible class that write the active entries of the blocks in a binary file and read them back.</p>
+ * <p>The file has a header (magic and version) and a section for every block with at least one entry:
+ * <ul>
+ * <li>length of the section data (int) and CRC32 of the data (int)</li>
+ * <li>number of entries (int)</li>
+ * <li>for every entry: creation time (long), access time (long), key length (int), key, value length (int),
+ * value</li>
+ * </ul>
+ * A section is a consistent copy of its block: the references to the active entries are copied while the read lock
+ * of the block is owned, and they are serialized after the lock is released. The writers of the block are blocked
+ * only for the copy, the readers are never blocked.</p>
+ * <p>The sections can be serialized in parallel: the blocks are processed in groups of {@link #PARALLEL_GROUP} and
+ * the sections of a group are serialized by the common fork join pool before being written.</p>
+ * <br/><br/>Created by Mirko Bernardoni on 19/10/26.
+ *
+ * @author Mirko Bernardoni
+ * @version 1.0
+ * @since 1.0
+ */
+/*package*/ class CacheSnapshot<Key, Value> {
+    /*package*/ static final int MAGIC = 0x4E575353;
+    /*package*/ static final int VERSION = 1;
+    /*package*/ static final int PARALLEL_GROUP = 256;
+    private static final Logger LOG = LoggerFactory.getLogger(CacheSnapshot.class);
+    private static final int HEADER_SIZE = 8;
+    private static final int SECTION_HEADER_SIZE = 8;
+
+    private final Serializer<Key> keySerializer;
+    private final Serializer<Value> valueSerializer;
+
+    /**
+     * Create a new instance of CacheSnapshot
+     *
+     * @param keySerializer   serializer of the keys
+     * @param valueSerializer serializer of the values
+     * @throws java.lang.NullPointerException if one of the serializers is null
+     */
+    /*package*/ CacheSnapshot(Serializer<Key> keySerializer, Serializer<Value> valueSerializer) {
+        Preconditions.checkNotNull(keySerializer, "Key serializer cannot be null");
+        Preconditions.checkNotNull(valueSerializer, "Value serializer cannot be null");
+        this.keySerializer = keySerializer;
+        this.valueSerializer = valueSerializer;
+    }
+
+    /**
+     * Write the active entries of the blocks in a file. An existing file is replaced.<br/>
+     * The entries are written in a temporary file of the same directory, then moved on {@code file} with an atomic
+     * move: a failure during the write leaves the previous snapshot untouched
+     *
+     * @param file     path of the file
+     * @param bags     blocks of the cache
+     * @param parallel true for serializing the blocks in parallel
+     * @return number of entries written
+     * @throws java.io.IOException if the file cannot be written
+     */
+    /*package*/ int write(Path file, List<CacheBag<Key, Value>> bags, boolean parallel) throws IOException {
+        int written = 0;
+        Path directory = file.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        boolean moved = false;
+        try {
+            // the channel is closed before the move
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC).putInt(VERSION);
+                ((Buffer) header).flip();
+                writeFully(channel, header);
+                int groupSize = parallel ? PARALLEL_GROUP : 1;
+                for (int start = 0; start < bags.size(); start += groupSize) {
+                    List<CacheBag<Key, Value>> group = bags.subList(start, Math.min(bags.size(), start + groupSize));
+                    List<Section> sections;
+                    try {
+                        sections = (parallel ? group.parallelStream() : group.stream())
+                                .map(this::serialize)
+                                .collect(Collectors.toList());
+                    } catch (UncheckedIOException e) {
+                        throw e.getCause();
+                    }
+                    for (Section section : sections) {
+                        if (section.count > 0) {
+                            writeFully(channel, section.data);
+                            written += section.count;
+                        }
+                    }
+                }
+                channel.force(true);
+            }
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            moved = true;
+        } finally {
+            if (!moved) {
+                Files.deleteIfExists(temp);
+            }
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("{} entries written in the snapshot {}", written, file);
+        }
+        return written;
+    }
+
+    /**
+     * Copy the active entries of a block and serialize them
+     *
+     * @param bag block
+     * @return the section of the block
+     */
+    private Section serialize(CacheBag<Key, Value> bag) {
+        List<CacheEntry<Key, Value>> entries;
+        bag.getLock().readLock().lock();
+        try {
+            entries = new ArrayList<>(bag.size());
+            for (int slot = 0; slot < bag.size(); slot++) {
+                if (bag.isActive(slot)) {
+                    entries.add(bag.getEntry(slot));
+                }
+            }
+        } finally {
+            bag.getLock().readLock().unlock();
+        }
+        if (entries.isEmpty()) {
+            return new Section(null, 0);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        int count = 0;
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            // room for the section header and the number of entries
+            out.write(new byte[SECTION_HEADER_SIZE + 4]);
+            for (CacheEntry<Key, Value> entry : entries) {
+                Key entryKey = entry.getKey();
+                Value value = entry.getValue();
+                if (entryKey == null || value == null) {
+                    // released or collected after the copy
+                    continue;
+                }
+                byte[] key = keySerializer.serialize(entryKey);
+                byte[] data = valueSerializer.serialize(value);
+                out.writeLong(entry.getCreationTime());
+                out.writeLong(entry.getAccessTime());
+                out.writeInt(key.length);
+                out.write(key);
+                out.writeInt(data.length);
+                out.write(data);
+                count++;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        ByteBuffer data = ByteBuffer.wrap(bytes.toByteArray());
+        int length = data.capacity() - SECTION_HEADER_SIZE;
+        data.putInt(SECTION_HEADER_SIZE, count);
+        ((Buffer) data).position(SECTION_HEADER_SIZE);
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        ((Buffer) data).clear();
+        data.putInt(0, length);
+        data.putInt(4, (int) crc.getValue());
+        return new Section(data, count);
+    }
+
+    /**
+     * Read the entries of a file written by {@link #write(Path, List, boolean)}
+     *
+     * @param file     path of the file
+     * @param restorer callback that adds the entries to the cache
+     * @return number of entries restored
+     * @throws java.io.IOException if the file cannot be read, is truncated, corrupted or of another version
+     */
+    /*package*/ int read(Path file, Restorer<Key, Value> restorer) throws IOException {
+        int restored = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(Math.max(HEADER_SIZE, SECTION_HEADER_SIZE));
+            ((Buffer) header).limit(HEADER_SIZE);
+            if (!readFully(channel, header) || header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                throw new IOException("The file " + file + " is not a cache snapshot of version " + VERSION);
+            }
+            while (true) {
+                ((Buffer) header).clear();
+                ((Buffer) header).limit(SECTION_HEADER_SIZE);
+                if (!readFully(channel, header)) {
+                    break;
+                }
+                int length = header.getInt(0);
+                if (length < 4 || length > channel.size() - channel.position()) {
+                    throw new IOException("Corrupted snapshot " + file + ": section of " + length + " bytes");
+                }
+                ByteBuffer data = ByteBuffer.allocate(length);
+                if (!readFully(channel, data)) {
+                    throw new EOFException("Truncated snapshot " + file);
+                }
+                ((Buffer) data).flip();
+                CRC32 crc = new CRC32();
+                crc.update(data);
+                if ((int) crc.getValue() != header.getInt(4)) {
+                    throw new IOException("Corrupted snapshot " + file + ": wrong checksum");
+                }
+                ((Buffer) data).flip();
+                restored += restore(data, restorer);
+            }
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("{} entries restored from the snapshot {}", restored, file);
+        }
+        return restored;
+    }
+
+    /**
+     * Give back the entries of a section
+     *
+     * @param data     data of the section
+     * @param restorer callback that adds the entries to the cache
+     * @return number of entries restored
+     */
+    private int restore(ByteBuffer data, Restorer<Key, Value> restorer) {
+        int restored = 0;
+        int count = data.getInt();
+        for (int i = 0; i < count; i++) {
+            long creationTime = data.getLong();
+            long accessTime = data.getLong();
+            byte[] key = new byte[data.getInt()];
+            data.get(key);
+            byte[] value = new byte[data.getInt()];
+            data.get(value);
+            if (restorer.restore(keySerializer.deserialize(key), valueSerializer.deserialize(value),
+                    creationTime, accessTime)) {
+                restored++;
+            }
+        }
+        return restored;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Fill the buffer
+     *
+     * @param channel channel to read
+     * @param buffer  buffer to fill
+     * @return false if the channel is at the end before reading anything
+     * @throws java.io.EOFException if the channel ends before filling the buffer
+     */
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                if (buffer.position() == 0) {
+                    return false;
+                }
+                throw new EOFException("Unexpected end of the snapshot");
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Callback used to give back the entries of the snapshot
+     */
+    /*package*/ interface Restorer<Key, Value> {
+        /**
+         * Add an entry of the snapshot to the cache
+         *
+         * @param key          key
+         * @param value        value
+         * @param creationTime creation time of the entry
+         * @param accessTime   last access time of the entry
+         * @return true if the entry has been added
+         */
+        boolean restore(Key key, Value value, long creationTime, long accessTime);
+    }
+
+    /**
+     * Serialized block
+     */
+    private static final class Section {
+        private final ByteBuffer data;
+        private final int count;
+
+        private Section(ByteBuffer data, int count) {
+            this.data = data;
+            this.count = count;
+        }
+    }
+}
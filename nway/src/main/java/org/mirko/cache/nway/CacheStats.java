@@ -0,0 +1,190 @@
+package org.mirko.cache.nway;
+
+import com.google.common.base.MoreObjects;
+
+/**
+ * Immutable snapshot of the statistics of a cache. The counters are collected since the creation of the cache.
+ * <br/><br/>Created by Mirko Bernardoni on 19/10/26.
+ *
+ * @author Mirko Bernardoni
+ * @version 1.0
+ * @since 1.0
+ */
+public class CacheStats {
+    private final long hitCount;
+    private final long missCount;
+    private final long evictionCount;
+    private final long overflowCount;
+    private final long droppedNotificationCount;
+    private final long uncompressedBytes;
+    private final long compressedBytes;
+    private final long compressionTime;
+    private final long decompressionTime;
+    private final long staleHitCount;
+    private final long loadTimeoutCount;
+    private final long rejectedLoadCount;
+
+    /**
+     * Create a new instance of CacheStats
+     *
+     * @param hitCount      number of values returned from the cache
+     * @param missCount     number of values loaded via the cache loader
+     * @param evictionCount number of entries evicted
+     * @param overflowCount number of inserts that found a full block after the eviction policy
+     * @param droppedNotificationCount number of listener notifications discarded
+     * @param uncompressedBytes size of the values compressed before the compression
+     * @param compressedBytes   size of the values compressed after the compression
+     * @param compressionTime   nanoseconds spent compressing the values
+     * @param decompressionTime nanoseconds spent decompressing the values
+     * @param staleHitCount     number of stale values returned instead of loading
+     * @param loadTimeoutCount  number of loads failed for the timeout
+     * @param rejectedLoadCount number of loads rejected for too many concurrent loads
+     */
+    /*package*/ CacheStats(long hitCount, long missCount, long evictionCount, long overflowCount,
+                           long droppedNotificationCount, long uncompressedBytes, long compressedBytes,
+                           long compressionTime, long decompressionTime, long staleHitCount,
+                           long loadTimeoutCount, long rejectedLoadCount) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.evictionCount = evictionCount;
+        this.overflowCount = overflowCount;
+        this.droppedNotificationCount = droppedNotificationCount;
+        this.uncompressedBytes = uncompressedBytes;
+        this.compressedBytes = compressedBytes;
+        this.compressionTime = compressionTime;
+        this.decompressionTime = decompressionTime;
+        this.staleHitCount = staleHitCount;
+        this.loadTimeoutCount = loadTimeoutCount;
+        this.rejectedLoadCount = rejectedLoadCount;
+    }
+
+    /**
+     * Number of times a value has been returned from the cache
+     *
+     * @return hit count
+     */
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Number of times a value has been loaded via the {@link CacheLoader}
+     *
+     * @return miss count
+     */
+    public long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Ratio between the hits and the requests, 1 if there were no requests
+     *
+     * @return hit rate
+     */
+    public double getHitRate() {
+        long requests = hitCount + missCount;
+        return requests == 0 ? 1 : (double) hitCount / requests;
+    }
+
+    /**
+     * Number of entries removed from the cache with cause {@link RemovalCause#EVICTION}
+     *
+     * @return eviction count
+     */
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Number of inserts that found the block still full after the eviction policy: an entry has been evicted
+     * anyway for keeping the block size bounded. A value > 0 means that the eviction policy is not deleting enough
+     *
+     * @return overflow count
+     */
+    public long getOverflowCount() {
+        return overflowCount;
+    }
+
+    /**
+     * Number of listener notifications discarded because the queue of the asynchronous dispatch was full
+     *
+     * @return dropped notification count
+     */
+    public long getDroppedNotificationCount() {
+        return droppedNotificationCount;
+    }
+
+    /**
+     * Ratio between the size of the values over the compression threshold before and after the compression, 1 if no
+     * value has been compressed. The values that do not compress are counted with the same size before and after
+     *
+     * @return compression ratio
+     */
+    public double getCompressionRatio() {
+        return compressedBytes == 0 ? 1 : (double) uncompressedBytes / compressedBytes;
+    }
+
+    /**
+     * Time spent compressing the values, including the values that did not compress enough and are stored as they
+     * are
+     *
+     * @return compression time in nanoseconds
+     */
+    public long getCompressionTime() {
+        return compressionTime;
+    }
+
+    /**
+     * Time spent decompressing the values
+     *
+     * @return decompression time in nanoseconds
+     */
+    public long getDecompressionTime() {
+        return decompressionTime;
+    }
+
+    /**
+     * Number of times a stale value has been returned because the loader failed or the key was backing off after a
+     * failure. These requests are also counted as misses
+     *
+     * @return stale hit count
+     */
+    public long getStaleHitCount() {
+        return staleHitCount;
+    }
+
+    /**
+     * Number of loads failed because the loader, or the wait for a free load, took longer than the loader timeout
+     *
+     * @return load timeout count
+     */
+    public long getLoadTimeoutCount() {
+        return loadTimeoutCount;
+    }
+
+    /**
+     * Number of loads failed immediately because the max number of concurrent loads was reached
+     *
+     * @return rejected load count
+     */
+    public long getRejectedLoadCount() {
+        return rejectedLoadCount;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("HitCount", hitCount)
+                .add("MissCount", missCount)
+                .add("EvictionCount", evictionCount)
+                .add("OverflowCount", overflowCount)
+                .add("DroppedNotificationCount", droppedNotificationCount)
+                .add("CompressionRatio", getCompressionRatio())
+                .add("CompressionTime", compressionTime)
+                .add("DecompressionTime", decompressionTime)
+                .add("StaleHitCount", staleHitCount)
+                .add("LoadTimeoutCount", loadTimeoutCount)
+                .add("RejectedLoadCount", rejectedLoadCount)
+                .toString();
+    }
+}
@@ -0,0 +1,63 @@
+package org.mirko.cache.nway;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * <p>Propagate the changes of the cache to the backing store (see {@link NWayCacheBuilder#writeThrough(CacheWriter)}
+ * and {@link NWayCacheBuilder#writeBehind(CacheWriter, java.util.concurrent.ScheduledExecutorService, long, int)}).
+ * {@link Cache#put(Object, Object)} calls {@link #write(Object, Object)} and {@link Cache#remove(Object)} calls
+ * {@link #delete(Object)}: the entries loaded, evicted or expired are not written.</p>
+ * <p>The write behind calls only {@link #writeAll(Map)} and {@link #deleteAll(Collection)}: the default
+ * implementations call the single key methods, a store that supports batches should override them. The
+ * implementation has to be thread safe.</p>
+ * <br/><br/>Created by Mirko Bernardoni on 19/10/26.
+ *
+ * @author Mirko Bernardoni
+ * @version 1.0
+ * @since 1.0
+ */
+public interface CacheWriter<Key, Value> {
+    /**
+     * Write an entry in the backing store
+     *
+     * @param key   key, never null
+     * @param value value, never null
+     * @throws java.lang.Exception if the entry cannot be written
+     */
+    void write(Key key, Value value) throws Exception;
+
+    /**
+     * Delete an entry from the backing store
+     *
+     * @param key key, never null
+     * @throws java.lang.Exception if the entry cannot be deleted
+     */
+    void delete(Key key) throws Exception;
+
+    /**
+     * Write a batch of entries in the backing store. The default implementation calls {@link #write(Object, Object)}
+     * for every entry
+     *
+     * @param entries entries to write, never empty
+     * @throws java.lang.Exception if the entries cannot be written
+     */
+    default void writeAll(Map<Key, Value> entries) throws Exception {
+        for (Map.Entry<Key, Value> entry : entries.entrySet()) {
+            write(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Delete a batch of entries from the backing store. The default implementation calls {@link #delete(Object)}
+     * for every key
+     *
+     * @param keys keys to delete, never empty
+     * @throws java.lang.Exception if the entries cannot be deleted
+     */
+    default void deleteAll(Collection<Key> keys) throws Exception {
+        for (Key key : keys) {
+            delete(key);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package org.mirko.cache.nway;
+
+/**
+ * Exception occurred while a change of the cache is written in the backing store by the {@link CacheWriter}. When
+ * it is thrown by {@link Cache#put(Object, Object)} or {@link Cache#remove(Object)} the cache is not modified
+ * <p/>
+ * <br/><br/>Created by Mirko Bernardoni on 19/10/26.
+ *
+ * @author Mirko Bernardoni
+ * @version 1.0
+ * @since 1.0
+ */
+public class CacheWriterException extends RuntimeException {
+    /**
+     * Creates a new instance with the given detail message.
+     */
+    public CacheWriterException(String message) {
+        super(message);
+    }
+
+    /**
+     * Creates a new instance with the given detail message and cause.
+     */
+    public CacheWriterException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,194 @@
+package org.mirko.cache.nway;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * <p>Package accessible {@link ValueStorage} that keeps the big values compressed on the heap.</p>
+ * <p>Every value is converted in bytes by a {@link Serializer}: when the bytes are at least {@code threshold} they
+ * are compressed with a {@link Deflater} at {@link Deflater#BEST_SPEED} and the entry holds only the compressed
+ * bytes, otherwise (or when the compression does not save space) the entry holds the value itself. A compressed value
+ * is decompressed and deserialized on every read.</p>
+ * <p>The values decompressed can be kept in a small direct mapped side cache: a slot is chosen by the identity of
+ * the compressed bytes and holds the last value decompressed for them, so the hottest values are decompressed once.
+ * The deflaters and the inflaters are reused by every thread.</p>
+ * <br/><br/>Created by Mirko Bernardoni on 19/10/26.
+ *
+ * @author Mirko Bernardoni
+ * @version 1.0
+ * @since 1.0
+ */
+/*package*/ class CompressedStorage<Value> implements ValueStorage<Value> {
+    private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+
+    private final Serializer<Value> serializer;
+    private final int threshold;
+    private final StatsCounter statsCounter;
+    private final AtomicReferenceArray<Decompressed> sideCache;
+
+    /**
+     * Create a new instance of CompressedStorage
+     *
+     * @param serializer    serializer of the values
+     * @param threshold     min size in bytes of the values to compress
+     * @param sideCacheSize slots of the side cache of the values decompressed (rounded up to a power of two), 0 for
+     *                      decompressing the values on every read
+     * @param statsCounter  statistics of the cache, for the compression ratio and time
+     * @throws java.lang.NullPointerException     if serializer or statsCounter is null
+     * @throws java.lang.IllegalArgumentException if threshold < 1 or sideCacheSize < 0
+     */
+    /*package*/ CompressedStorage(Serializer<Value> serializer, int threshold, int sideCacheSize,
+                                  StatsCounter statsCounter) {
+        Preconditions.checkNotNull(serializer, "Serializer cannot be null");
+        Preconditions.checkNotNull(statsCounter, "StatsCounter cannot be null");
+        Preconditions.checkArgument(threshold > 0, "Threshold has to be at least 1");
+        Preconditions.checkArgument(sideCacheSize >= 0, "Side cache size cannot be negative");
+        this.serializer = serializer;
+        this.threshold = threshold;
+        this.statsCounter = statsCounter;
+        this.sideCache = sideCacheSize == 0 ? null
+                : new AtomicReferenceArray<>(Integer.highestOneBit(Math.max(1, sideCacheSize * 2 - 1)));
+    }
+
+    @Override
+    public Object store(Value value) {
+        byte[] data = serializer.serialize(value);
+        if (data.length < threshold) {
+            return value;
+        }
+        long start = System.nanoTime();
+        byte[] compressed = compress(data);
+        statsCounter.recordCompression(data.length, compressed == null ? data.length : compressed.length,
+                System.nanoTime() - start);
+        return compressed == null ? value : new Compressed(compressed, data.length);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Value load(Object stored) {
+        if (!(stored instanceof Compressed)) {
+            return (Value) stored;
+        }
+        Compressed compressed = (Compressed) stored;
+        int slot = sideCache == null ? -1 : compressed.hash & (sideCache.length() - 1);
+        if (slot >= 0) {
+            Decompressed decompressed = sideCache.get(slot);
+            if (decompressed != null && decompressed.compressed == compressed) {
+                return (Value) decompressed.value;
+            }
+        }
+        long start = System.nanoTime();
+        byte[] data = decompress(compressed);
+        statsCounter.recordDecompression(System.nanoTime() - start);
+        Value value = serializer.deserialize(data);
+        if (slot >= 0) {
+            sideCache.set(slot, new Decompressed(compressed, value));
+        }
+        return value;
+    }
+
+    @Override
+    public void release(Object stored) {
+        if (sideCache != null && stored instanceof Compressed) {
+            Compressed compressed = (Compressed) stored;
+            int slot = compressed.hash & (sideCache.length() - 1);
+            Decompressed decompressed = sideCache.get(slot);
+            if (decompressed != null && decompressed.compressed == compressed) {
+                sideCache.compareAndSet(slot, decompressed, null);
+            }
+        }
+    }
+
+    /**
+     * Compress the bytes of a value
+     *
+     * @param data bytes of the value
+     * @return the compressed bytes, null if they are not smaller than the value
+     */
+    private static byte[] compress(byte[] data) {
+        Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        deflater.setInput(data);
+        deflater.finish();
+        // no space is saved if the result is not smaller
+        byte[] buffer = new byte[data.length - 1];
+        int length = 0;
+        while (!deflater.finished() && length < buffer.length) {
+            length += deflater.deflate(buffer, length, buffer.length - length);
+        }
+        return deflater.finished() ? Arrays.copyOf(buffer, length) : null;
+    }
+
+    /**
+     * Decompress the bytes of a value
+     *
+     * @param compressed compressed bytes
+     * @return the bytes of the value
+     */
+    private static byte[] decompress(Compressed compressed) {
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        inflater.setInput(compressed.data);
+        byte[] data = new byte[compressed.length];
+        try {
+            int length = 0;
+            while (length < data.length && !inflater.finished()) {
+                int read = inflater.inflate(data, length, data.length - length);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += read;
+            }
+            Preconditions.checkState(length == data.length, "Compressed value of %s bytes instead of %s", length,
+                    data.length);
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupted compressed value", e);
+        }
+        return data;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("Serializer", serializer)
+                .add("Threshold", threshold)
+                .add("SideCacheSize", sideCache == null ? 0 : sideCache.length())
+                .toString();
+    }
+
+    /**
+     * Compressed bytes of a value, held by the entry
+     */
+    private static final class Compressed {
+        private final byte[] data;
+        private final int length;
+        private final int hash;
+
+        private Compressed(byte[] data, int length) {
+            this.data = data;
+            this.length = length;
+            int identity = System.identityHashCode(this);
+            this.hash = identity ^ (identity >>> 16);
+        }
+    }
+
+    /**
+     * Value decompressed in a slot of the side cache
+     */
+    private static final class Decompressed {
+        private final Compressed compressed;
+        private final Object value;
+
+        private Decompressed(Compressed compressed, Object value) {
+            this.compressed = compressed;
+            this.value = value;
+        }
+    }
+}
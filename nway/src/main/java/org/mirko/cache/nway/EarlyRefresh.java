@@ -0,0 +1,127 @@
+package org.mirko.cache.nway;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * <p>Package accessible class that refreshes the entries in background before they get old, with the probabilistic
+ * early recomputation (XFetch) of <a href="http://www.vldb.org/pvldb/vol8/p886-vattani.pdf">Vattani et al.</a></p>
+ * <p>Every hit on an entry refreshes it when {@code now - cost * beta * ln(random) >= creationTime + refreshAfter},
+ * where {@code cost} is the time of the last load of the key: the probability rises while the entry gets closer to
+ * {@code refreshAfter}, and earlier for the keys that are expensive to load. The entries loaded together are then
+ * refreshed at different times, and a hot entry is usually refreshed before {@code refreshAfter} by a single
+ * background load.</p>
+ * <p>The load times are kept in a direct mapped array indexed by the hash of the key: keys in the same slot share
+ * their cost, which is only an estimate. A key is refreshed by one task at a time.</p>
+ * <br/><br/>Created by Mirko Bernardoni on 19/10/26.
+ *
+ * @author Mirko Bernardoni
+ * @version 1.0
+ * @since 1.0
+ */
+/*package*/ class EarlyRefresh<Key> {
+    private static final Logger LOG = LoggerFactory.getLogger(EarlyRefresh.class);
+
+    private final long refreshAfter;
+    private final double beta;
+    private final Executor executor;
+    // last load time in microseconds, by hash of the key
+    private final AtomicIntegerArray costs;
+    private final Set<Key> refreshing = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Create a new instance of EarlyRefresh
+     *
+     * @param refreshAfter age in milliseconds at which an entry is always refreshed by a hit
+     * @param beta         weight of the load time: > 1 refreshes earlier, < 1 later
+     * @param executor     executor of the refresh tasks
+     * @param costSlots    number of load times kept (rounded up to a power of two)
+     * @throws java.lang.NullPointerException     if executor is null
+     * @throws java.lang.IllegalArgumentException if refreshAfter < 1, beta <= 0 or costSlots < 1
+     */
+    /*package*/ EarlyRefresh(long refreshAfter, double beta, Executor executor, int costSlots) {
+        Preconditions.checkArgument(refreshAfter > 0, "refreshAfter has to be > 0");
+        Preconditions.checkArgument(beta > 0, "Beta has to be > 0");
+        Preconditions.checkNotNull(executor, "Executor cannot be null");
+        Preconditions.checkArgument(costSlots > 0, "costSlots has to be at least 1");
+        this.refreshAfter = refreshAfter;
+        this.beta = beta;
+        this.executor = executor;
+        this.costs = new AtomicIntegerArray(Integer.highestOneBit(Math.max(1, costSlots * 2 - 1)));
+    }
+
+    /**
+     * Record the time of a load
+     *
+     * @param key   key loaded
+     * @param nanos time of the load in nanoseconds
+     */
+    /*package*/ void recordLoad(Key key, long nanos) {
+        costs.lazySet(slot(key), (int) Math.min(Integer.MAX_VALUE, nanos / 1000));
+    }
+
+    /**
+     * Decide if a hit has to refresh the entry
+     *
+     * @param key          key
+     * @param creationTime creation time of the entry in milliseconds
+     * @param now          current time in milliseconds
+     * @return true if the entry has to be refreshed
+     */
+    /*package*/ boolean shouldRefresh(Key key, long creationTime, long now) {
+        long expireAt = creationTime + refreshAfter;
+        if (now >= expireAt) {
+            return true;
+        }
+        double cost = costs.get(slot(key)) / 1000.0;
+        // -ln(random) is exponentially distributed: rarely far from the expiration, more often close to it
+        return cost > 0 && now - cost * beta * Math.log(1 - ThreadLocalRandom.current().nextDouble()) >= expireAt;
+    }
+
+    /**
+     * Run the refresh of a key in background, unless the key is already being refreshed
+     *
+     * @param key     key
+     * @param refresh task that loads the key and replaces the entry
+     */
+    /*package*/ void refresh(Key key, Runnable refresh) {
+        if (!refreshing.add(key)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    refresh.run();
+                } finally {
+                    refreshing.remove(key);
+                }
+            });
+        } catch (RuntimeException e) {
+            refreshing.remove(key);
+            if (LOG.isWarnEnabled()) {
+                LOG.warn("Cannot submit the refresh of key " + key, e);
+            }
+        }
+    }
+
+    private int slot(Key key) {
+        return CacheBag.spread(key) & (costs.length() - 1);
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("RefreshAfter", refreshAfter)
+                .add("Beta", beta)
+                .add("Refreshing", refreshing.size())
+                .toString();
+    }
+}
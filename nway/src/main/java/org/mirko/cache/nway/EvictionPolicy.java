@@ -0,0 +1,81 @@
+package org.mirko.cache.nway;
+
+/**
+ * <p>Second generation of the cache eviction algorithm: it chooses the entries to evict from a block when the
+ * block is full.</p>
+ * <p>Different from {@link CacheEviction} the block is not copied: the policy receives a read only
+ * {@link CacheSetView} of the block, with the metadata of every slot, and returns the victims as slot indexes.
+ * The cache calls the policy while it owns the write lock of the block, so the view is stable during the call and
+ * no allocation is necessary.</p>
+ * <p>A policy can keep its own state for every block (for example the hand of a CLOCK or reference bits), without
+ * global structures shared by all the blocks: {@link #createSetState(int)} is called for every block and the state
+ * is available from {@link CacheSetView#getState()}. The cache notifies the policy when an entry of a block with a
+ * state is retrieved ({@link #onHit(CacheSetView, int)}), added ({@link #onInsert(CacheSetView, int)}) or removed
+ * ({@link #onRemove(CacheSetView, int)}). The slots follow the block: when the entry of a slot is removed all the
+ * following entries move back by one slot, so a per slot state has to be shifted in the same way.</p>
+ * <p>{@link #selectVictims(CacheSetView, int[])}, {@link #onInsert(CacheSetView, int)} and
+ * {@link #onRemove(CacheSetView, int)} are called while the write lock of the block is owned.
+ * {@link #onHit(CacheSetView, int)} is called with the read lock: more threads can call it at the same time for the
+ * same block, then it should only do simple writes (like setting a reference bit) that can tolerate races.</p>
+ * <p>All the provided algorithms implement both the interfaces. A custom {@link CacheEviction} is still supported
+ * through an adapter that copies the block as before.</p>
+ * <p>In order to provide your own policy you have to implement this interface and give to the builder via
+ * {@link org.mirko.cache.nway.NWayCacheBuilder#customEvictionPolicy(EvictionPolicy)}</p>
+ * <p/>
+ * <br/><br/>Created by Mirko Bernardoni on 19/10/26.
+ *
+ * @author Mirko Bernardoni
+ * @version 1.0
+ * @since 1.0
+ */
+public interface EvictionPolicy<Key, Value> {
+
+    /**
+     * Choose the entries to evict from the block.<br/>
+     * The victim slots are written at the start of {@code victims}, that is at least {@code set.size()} long.
+     *
+     * @param set     read only view of the block
+     * @param victims array where the victim slots are written
+     * @return number of victims written in {@code victims}
+     */
+    int selectVictims(CacheSetView<Key, Value> set, int[] victims);
+
+    /**
+     * Create the state of the policy for a block. The state is created the first time the policy is used for the
+     * block. The default implementation returns null: the policy is stateless and no notifications are sent to it
+     *
+     * @param capacity max number of entries in the block
+     * @return the state of the block or null
+     */
+    default Object createSetState(int capacity) {
+        return null;
+    }
+
+    /**
+     * An entry of the block has been retrieved from the cache. Called only for blocks with a state
+     *
+     * @param set  read only view of the block
+     * @param slot slot of the entry
+     */
+    default void onHit(CacheSetView<Key, Value> set, int slot) {
+    }
+
+    /**
+     * A new entry has been added to the block. Called only for blocks with a state
+     *
+     * @param set  read only view of the block
+     * @param slot slot of the new entry
+     */
+    default void onInsert(CacheSetView<Key, Value> set, int slot) {
+    }
+
+    /**
+     * An entry is going to be removed from the block. After the call the following entries move back by one slot.
+     * Called only for blocks with a state
+     *
+     * @param set  read only view of the block
+     * @param slot slot of the removed entry
+     */
+    default void onRemove(CacheSetView<Key, Value> set, int slot) {
+    }
+}
@@ -0,0 +1,199 @@
+package org.mirko.cache.nway;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * <p>Package accessible class that protects the backing store from the loads of the cache.</p>
+ * <p>The number of loads running at the same time is bounded by a {@link Semaphore} (bulkhead): when all the permits
+ * are taken a load waits or fails, following the {@link LoadOverflow}. With a timeout the loader runs on the
+ * executor and the calling thread waits for it at most {@code timeout} milliseconds: a load that takes longer is
+ * interrupted and fails with a {@link TimeoutException}. The permit of a load is released only when the loader
+ * returns, so a loader that ignores the interruption still counts in the bulkhead.</p>
+ * <br/><br/>Created by Mirko Bernardoni on 19/10/26.
+ *
+ * @author Mirko Bernardoni
+ * @version 1.0
+ * @since 1.0
+ */
+/*package*/ class LoadGuard {
+    private final Semaphore permits;
+    private final LoadOverflow overflow;
+    private final long timeout;
+    private final Executor executor;
+    private final StatsCounter statsCounter;
+
+    /**
+     * Create a new instance of LoadGuard
+     *
+     * @param maxLoads     max loads running at the same time, 0 for no limit
+     * @param overflow     behaviour when all the loads are running
+     * @param timeout      max time in milliseconds of a load, 0 for no timeout
+     * @param executor     executor of the loads with a timeout
+     * @param statsCounter counter of the loads rejected and timed out
+     * @throws java.lang.NullPointerException     if statsCounter is null, overflow is null with maxLoads > 0 or
+     *                                            executor is null with timeout > 0
+     * @throws java.lang.IllegalArgumentException if maxLoads < 0 or timeout < 0
+     */
+    /*package*/ LoadGuard(int maxLoads, LoadOverflow overflow, long timeout, Executor executor,
+                          StatsCounter statsCounter) {
+        Preconditions.checkArgument(maxLoads >= 0, "maxLoads cannot be negative");
+        Preconditions.checkArgument(timeout >= 0, "Timeout cannot be negative");
+        Preconditions.checkNotNull(statsCounter, "StatsCounter cannot be null");
+        if (maxLoads > 0) {
+            Preconditions.checkNotNull(overflow, "Overflow cannot be null");
+        }
+        if (timeout > 0) {
+            Preconditions.checkNotNull(executor, "Executor cannot be null");
+        }
+        this.permits = maxLoads == 0 ? null : new Semaphore(maxLoads);
+        this.overflow = overflow;
+        this.timeout = timeout;
+        this.executor = executor;
+        this.statsCounter = statsCounter;
+    }
+
+    /**
+     * Load a value within the limits
+     *
+     * @param cacheLoader loader
+     * @param key         key
+     * @param <Key>       type of the keys
+     * @param <Value>     type of the values
+     * @return the value loaded
+     * @throws java.util.concurrent.RejectedExecutionException if there is no free permit
+     * @throws java.util.concurrent.TimeoutException           if the load takes longer than the timeout
+     * @throws java.lang.Exception                             if the loader throws an exception
+     */
+    /*package*/ <Key, Value> Value load(CacheLoader<Key, Value> cacheLoader, Key key) throws Exception {
+        return call(() -> cacheLoader.load(key), key);
+    }
+
+    /**
+     * Wrap a loader: every call of the loader, single or batch, runs within the limits
+     *
+     * @param cacheLoader loader
+     * @param <Key>       type of the keys
+     * @param <Value>     type of the values
+     * @return the guarded loader
+     */
+    /*package*/ <Key, Value> CacheLoader<Key, Value> guard(CacheLoader<Key, Value> cacheLoader) {
+        return new CacheLoader<Key, Value>() {
+            @Override
+            public Value load(Key key) throws Exception {
+                return call(() -> cacheLoader.load(key), key);
+            }
+
+            @Override
+            public Map<Key, Value> loadAll(Collection<Key> keys) throws Exception {
+                return call(() -> cacheLoader.loadAll(keys), keys.size() + " keys");
+            }
+        };
+    }
+
+    /**
+     * Run a load within the limits
+     *
+     * @param load    call of the loader
+     * @param subject what is loaded, for the messages
+     * @param <T>     type of the result
+     * @return the result of the load
+     * @throws java.util.concurrent.RejectedExecutionException if there is no free permit
+     * @throws java.util.concurrent.TimeoutException           if the load takes longer than the timeout
+     * @throws java.lang.Exception                             if the loader throws an exception
+     */
+    private <T> T call(Callable<T> load, Object subject) throws Exception {
+        long start = System.nanoTime();
+        acquire();
+        if (timeout == 0) {
+            try {
+                return load.call();
+            } finally {
+                release();
+            }
+        }
+        FutureTask<T> task = new FutureTask<>(load);
+        try {
+            executor.execute(() -> {
+                try {
+                    // nothing runs if the task has been cancelled while queued
+                    task.run();
+                } finally {
+                    release();
+                }
+            });
+        } catch (RuntimeException e) {
+            release();
+            throw e;
+        }
+        try {
+            // the wait for the permit is part of the timeout
+            long remaining = TimeUnit.MILLISECONDS.toNanos(timeout) - (System.nanoTime() - start);
+            return task.get(Math.max(0, remaining), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            task.cancel(true);
+            statsCounter.recordLoadTimeout();
+            throw new TimeoutException("Load of " + subject + " longer than " + timeout + " ms");
+        } catch (InterruptedException e) {
+            task.cancel(true);
+            Thread.currentThread().interrupt();
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw (Exception) cause;
+        }
+    }
+
+    /**
+     * Take a permit for a load
+     *
+     * @throws java.util.concurrent.RejectedExecutionException if there is no free permit
+     * @throws java.util.concurrent.TimeoutException           if no permit is released within the timeout
+     * @throws java.lang.InterruptedException                  if the thread is interrupted while it waits
+     */
+    private void acquire() throws TimeoutException, InterruptedException {
+        if (permits == null) {
+            return;
+        }
+        if (overflow == LoadOverflow.FAIL) {
+            if (!permits.tryAcquire()) {
+                statsCounter.recordRejectedLoad();
+                throw new RejectedExecutionException("Too many concurrent loads");
+            }
+        } else if (timeout == 0) {
+            permits.acquire();
+        } else if (!permits.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+            statsCounter.recordLoadTimeout();
+            throw new TimeoutException("No load completed in " + timeout + " ms");
+        }
+    }
+
+    private void release() {
+        if (permits != null) {
+            permits.release();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("AvailablePermits", permits == null ? -1 : permits.availablePermits())
+                .add("Overflow", overflow)
+                .add("Timeout", timeout)
+                .toString();
+    }
+}
@@ -0,0 +1,22 @@
+package org.mirko.cache.nway;
+
+/**
+ * Behaviour of the loads when the max number of concurrent loads is reached (see
+ * {@link NWayCacheBuilder#maxConcurrentLoads(int, LoadOverflow)}).
+ * <br/><br/>Created by Mirko Bernardoni on 19/10/26.
+ *
+ * @author Mirko Bernardoni
+ * @version 1.0
+ * @since 1.0
+ */
+public enum LoadOverflow {
+    /**
+     * The thread waits for a running load to complete, at most for the loader timeout if there is one
+     */
+    WAIT,
+    /**
+     * The load fails immediately with a {@link CacheLoaderException} and is counted in
+     * {@link CacheStats#getRejectedLoadCount()}
+     */
+    FAIL
+}
@@ -0,0 +1,39 @@
+package org.mirko.cache.nway;
+
+/**
+ * <p>A {@link Cache} with primitive {@code long} keys.</p>
+ * <p>The methods with the {@code long} key do not box the key when the value is found in the cache: the boxing is
+ * necessary only when a new entry is created (miss or put) because the entries and the listeners use {@link Long}
+ * keys. All the methods of {@link Cache} can be used as well.</p>
+ * <br/><br/>Created by Mirko Bernardoni on 19/10/26.
+ *
+ * @author Mirko Bernardoni
+ * @version 1.0
+ * @since 1.0
+ */
+public interface LongCache<Value> extends Cache<Long, Value> {
+    /**
+     * Returns the value associated with {@code key} in this cache, obtaining that value from the
+     * {@code cacheLoader} if necessary. See {@link #get(Object)}
+     *
+     * @param key the key for retrieve the value
+     * @return the value from the cache or loaded via {@link org.mirko.cache.nway.CacheLoader} if wasn't in cache
+     * @throws CacheLoaderException if an error was thrown while loading the value
+     */
+    Value get(long key) throws CacheLoaderException;
+
+    /**
+     * Associates {@code value} with {@code key} in this cache. See {@link #put(Object, Object)}
+     *
+     * @param key   the key
+     * @param value value to put in the cache
+     */
+    void put(long key, Value value);
+
+    /**
+     * Discards any cached value for key {@code key}
+     *
+     * @param key the key to remove
+     */
+    void remove(long key);
+}
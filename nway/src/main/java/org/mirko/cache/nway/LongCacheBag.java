@@ -0,0 +1,50 @@
+package org.mirko.cache.nway;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * <p>Package accessible {@link CacheBag} for {@code long} keys.</p>
+ * <p>The keys of the entries are copied in a {@code long} array parallel to the block: a block is scanned comparing
+ * primitive values, without boxing the key and without calling {@link Long#equals(Object)}.</p>
+ * <br/><br/>Created by Mirko Bernardoni on 19/10/26.
+ *
+ * @author Mirko Bernardoni
+ * @version 1.0
+ * @since 1.0
+ */
+/*package*/ class LongCacheBag<Value> extends CacheBag<Long, Value> {
+    // key of every slot (changed only with the write lock)
+    private long[] keys = new long[4];
+
+    /*package*/ LongCacheBag(int nWay, int index) {
+        super(new ArrayList<>(nWay), index);
+    }
+
+    @Override
+    /*package*/ void add(CacheEntry<Long, Value> entry, int weight) {
+        int size = size();
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+        }
+        keys[size] = entry.getKey();
+        super.add(entry, weight);
+    }
+
+    @Override
+    /*package*/ CacheEntry<Long, Value> remove(int slot) {
+        System.arraycopy(keys, slot + 1, keys, slot, size() - slot - 1);
+        return super.remove(slot);
+    }
+
+    /**
+     * Verify if the entry of a slot has the key. It has to be used only while a lock is owned
+     *
+     * @param slot slot
+     * @param key  key
+     * @return true if the entry of the slot has the key
+     */
+    /*package*/ boolean matches(int slot, long key) {
+        return keys[slot] == key;
+    }
+}
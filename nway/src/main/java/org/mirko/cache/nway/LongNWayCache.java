@@ -0,0 +1,98 @@
+package org.mirko.cache.nway;
+
+import com.google.common.base.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Package accessible N-way, set-associative cache specialized for {@code long} keys.</p>
+ * <p>The blocks are {@link LongCacheBag}: {@link #get(long)} finds the block from {@link Long#hashCode(long)} (the
+ * same block of the boxed key) and scans the primitive keys of the block. Only when the key is not found in its
+ * block the request goes through {@link NWayCache#get(Object)} with the boxed key, for the victim cache, the two
+ * choice placement, the migration and the loader.</p>
+ * <p>This class cannot be instantiated by any client without using {@link org.mirko.cache.nway.NWayCacheBuilder}</p>
+ * <br/><br/>Created by Mirko Bernardoni on 19/10/26.
+ *
+ * @author Mirko Bernardoni
+ * @version 1.0
+ * @since 1.0
+ */
+/*package*/ class LongNWayCache<Value> extends NWayCache<Long, Value> implements LongCache<Value> {
+    private static final Logger LOG = LoggerFactory.getLogger(LongNWayCache.class);
+
+    /**
+     * Create a new instance of LongNWayCache with {@code numbBuckets} and {@code nWay}
+     *
+     * @param numBlocks        number of memory blocks to allocate
+     * @param nWay             N-Way allowed (or size of the single block)
+     * @param maxEntryPerBlock max block size, kept for compatibility: the block never grows over {@code nWay}
+     * @throws java.lang.IllegalStateException if maxEntryPerBlock < nWay
+     */
+    /*package*/ LongNWayCache(int numBlocks, int nWay, int maxEntryPerBlock) {
+        super(numBlocks, nWay, maxEntryPerBlock);
+    }
+
+    @Override
+    protected CacheBag<Long, Value> createBag(int index, int nWay) {
+        return new LongCacheBag<>(nWay, index);
+    }
+
+    @Override
+    public Value get(long key) throws CacheLoaderException {
+        Preconditions.checkNotNull(getCacheLoader(), "CacheLoader cannot be null");
+        LongCacheBag<Value> bag = (LongCacheBag<Value>) findBagByHash(Long.hashCode(key));
+        CacheEntry<Long, Value> entry = findEntry(key, bag);
+        if (entry == null) {
+            // miss or more entries for the key: the boxed path manages all the cases
+            return get(Long.valueOf(key));
+        }
+        Value value = getAndUpdateTime(entry);
+        if (value == null) {
+            // the value has been released while reading it
+            return get(Long.valueOf(key));
+        }
+        statsCounter.recordHit();
+        notifyHit(bag, entry);
+        fireCachedListener(entry);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Value found in cache for key {}", key);
+        }
+        refreshEarly(entry);
+        return value;
+    }
+
+    @Override
+    public void put(long key, Value value) {
+        put(Long.valueOf(key), value);
+    }
+
+    @Override
+    public void remove(long key) {
+        remove(Long.valueOf(key));
+    }
+
+    /**
+     * Search for the active entry of the key in the bag
+     *
+     * @param key key
+     * @param bag bag
+     * @return the entry or null if the key is not found or more than one entry is found
+     */
+    private CacheEntry<Long, Value> findEntry(long key, LongCacheBag<Value> bag) {
+        CacheEntry<Long, Value> result = null;
+        bag.getLock().readLock().lock();
+        try {
+            for (int slot = 0; slot < bag.size(); slot++) {
+                if (bag.matches(slot, key) && bag.isActive(slot)) {
+                    if (result != null) {
+                        return null;
+                    }
+                    result = bag.getEntry(slot);
+                }
+            }
+            return result;
+        } finally {
+            bag.getLock().readLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,424 @@
+package org.mirko.cache.nway;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.zip.CRC32;
+
+/**
+ * <p>Package accessible class that keep a copy of the blocks in a memory mapped file, so the entries survive a
+ * restart of the JVM.</p>
+ * <p>The file has the same layout of the cache: after a header with version and geometry ({@code blocks},
+ * {@code nWay} and slot size) every block has {@code nWay} slots of fixed size. A slot contains:
+ * <ul>
+ * <li>status (int): empty or used</li>
+ * <li>CRC32 (int) of the rest of the slot</li>
+ * <li>access time (long)</li>
+ * <li>key length and value length (int)</li>
+ * <li>key and value serialized</li>
+ * </ul>
+ * An entry is written when it is added to its block (the write lock of the block is owned) and its slot is emptied
+ * when it leaves the block. The writes go in the page cache: the operating system writes them in the file even if the
+ * JVM is killed.</p>
+ * <p>When the file is opened with the same geometry the valid slots are given back to the cache. The slots with a
+ * wrong checksum (for example written during a crash of the operating system) are discarded; a file with a different
+ * version or geometry is cleared.</p>
+ * <br/><br/>Created by Mirko Bernardoni on 19/10/26.
+ *
+ * @author Mirko Bernardoni
+ * @version 1.0
+ * @since 1.0
+ */
+/*package*/ class MappedStore<Key, Value> {
+    /*package*/ static final int MAGIC = 0x4E574159;
+    /*package*/ static final int VERSION = 1;
+    /*package*/ static final int HEADER_SIZE = 64;
+    /*package*/ static final int SLOT_HEADER_SIZE = 24;
+    private static final Logger LOG = LoggerFactory.getLogger(MappedStore.class);
+    private static final int MAX_REGION_SIZE = 1 << 30;
+    private static final int EMPTY = 0;
+    private static final int USED = 1;
+    private static final int CRC_OFFSET = 4;
+    private static final int ACCESS_TIME_OFFSET = 8;
+    private static final int KEY_LENGTH_OFFSET = 16;
+    private static final int VALUE_LENGTH_OFFSET = 20;
+
+    private final int blocks;
+    private final int nWay;
+    private final int slotSize;
+    private final Serializer<Key> keySerializer;
+    private final Serializer<Value> valueSerializer;
+    private final FileChannel channel;
+    private final FileLock lock;
+    private final int blocksPerRegion;
+    private final MappedByteBuffer[] regions;
+    private final boolean reattached;
+    // entry stored in every slot, null if the slot is empty
+    private final AtomicReferenceArray<CacheEntry<Key, Value>> slotEntries;
+
+    /**
+     * Open or create the file
+     *
+     * @param file            file path
+     * @param blocks          number of blocks of the cache
+     * @param nWay            size of the blocks
+     * @param maxEntrySize    max size of key and value serialized. Bigger entries are not written in the file
+     * @param keySerializer   serializer of the keys
+     * @param valueSerializer serializer of the values
+     * @throws java.io.IOException                if the file cannot be opened or mapped
+     * @throws java.lang.IllegalStateException    if the file is used by another process
+     * @throws java.lang.IllegalArgumentException if maxEntrySize < 1 or a block does not fit in 1GB
+     */
+    /*package*/ MappedStore(Path file, int blocks, int nWay, int maxEntrySize, Serializer<Key> keySerializer,
+                            Serializer<Value> valueSerializer) throws IOException {
+        Preconditions.checkNotNull(file, "File cannot be null");
+        Preconditions.checkNotNull(keySerializer, "Key serializer cannot be null");
+        Preconditions.checkNotNull(valueSerializer, "Value serializer cannot be null");
+        Preconditions.checkArgument(maxEntrySize > 0, "maxEntrySize has to be at least 1");
+        Preconditions.checkArgument((long) nWay * (SLOT_HEADER_SIZE + maxEntrySize) <= MAX_REGION_SIZE,
+                "A block cannot be bigger than 1GB");
+        this.blocks = blocks;
+        this.nWay = nWay;
+        this.slotSize = SLOT_HEADER_SIZE + maxEntrySize;
+        this.keySerializer = keySerializer;
+        this.valueSerializer = valueSerializer;
+        this.slotEntries = new AtomicReferenceArray<>(blocks * nWay);
+        this.blocksPerRegion = MAX_REGION_SIZE / (nWay * slotSize);
+
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            FileLock fileLock;
+            try {
+                fileLock = channel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                // locked by another cache of this JVM
+                fileLock = null;
+            }
+            Preconditions.checkState(fileLock != null, "The file " + file + " is used by another process");
+            this.lock = fileLock;
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            this.reattached = isValid(header, HEADER_SIZE + (long) blocks * nWay * slotSize);
+            if (!reattached) {
+                if (LOG.isInfoEnabled()) {
+                    LOG.info("Creating the cache file {}", file);
+                }
+                // a new empty file: the slots of the new regions are zero (empty)
+                header.putInt(0, 0);
+                channel.truncate(HEADER_SIZE);
+            }
+            this.regions = new MappedByteBuffer[(blocks + blocksPerRegion - 1) / blocksPerRegion];
+            for (int i = 0; i < regions.length; i++) {
+                long size = (long) Math.min(blocksPerRegion, blocks - i * blocksPerRegion) * nWay * slotSize;
+                regions[i] = channel.map(FileChannel.MapMode.READ_WRITE,
+                        HEADER_SIZE + (long) i * blocksPerRegion * nWay * slotSize, size);
+            }
+            header.putInt(4, VERSION);
+            header.putInt(8, blocks);
+            header.putInt(12, nWay);
+            header.putInt(16, slotSize);
+            // the magic is written for last: a file without it is cleared
+            header.putInt(0, MAGIC);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Verify the header of the file
+     *
+     * @param header       header of the file
+     * @param expectedSize size of the file for the geometry of the cache
+     * @return true if the file can be reused
+     * @throws java.io.IOException if the size of the file cannot be read
+     */
+    private boolean isValid(ByteBuffer header, long expectedSize) throws IOException {
+        return header.getInt(0) == MAGIC && header.getInt(4) == VERSION && header.getInt(8) == blocks
+                && header.getInt(12) == nWay && header.getInt(16) == slotSize && channel.size() == expectedSize;
+    }
+
+    /**
+     * <p>Give back the valid entries found in the file when it has been opened. The entries of a block are given in
+     * order of access time, from the least recently used</p>
+     * <p>Has to be called before using the cache</p>
+     *
+     * @param restorer callback that adds the entries to the cache
+     * @return number of entries restored
+     */
+    /*package*/ int load(Restorer<Key, Value> restorer) {
+        if (!reattached) {
+            return 0;
+        }
+        int restored = 0;
+        int corrupted = 0;
+        List<Slot<Key, Value>> found = new ArrayList<>(nWay);
+        for (int block = 0; block < blocks; block++) {
+            found.clear();
+            for (int slot = block * nWay; slot < (block + 1) * nWay; slot++) {
+                ByteBuffer buffer = region(slot);
+                int offset = offset(slot);
+                if (buffer.getInt(offset) == EMPTY) {
+                    continue;
+                }
+                Slot<Key, Value> read = read(buffer, offset, slot);
+                if (read == null) {
+                    corrupted++;
+                    buffer.putInt(offset, EMPTY);
+                } else {
+                    found.add(read);
+                }
+            }
+            found.sort(Comparator.comparingLong(s -> s.accessTime));
+            for (Slot<Key, Value> read : found) {
+                if (restorer.restore(block, read.slot, read.key, read.value, read.accessTime)) {
+                    restored++;
+                } else {
+                    slotEntries.set(read.slot, null);
+                    region(read.slot).putInt(offset(read.slot), EMPTY);
+                }
+            }
+        }
+        if (corrupted > 0 && LOG.isWarnEnabled()) {
+            LOG.warn("{} corrupted entries discarded from the cache file", corrupted);
+        }
+        if (LOG.isInfoEnabled()) {
+            LOG.info("{} entries restored from the cache file", restored);
+        }
+        return restored;
+    }
+
+    /**
+     * Read and verify a slot
+     *
+     * @param buffer region of the slot
+     * @param offset offset of the slot in the region
+     * @param slot   index of the slot
+     * @return the content of the slot, null if the slot is corrupted
+     */
+    private Slot<Key, Value> read(ByteBuffer buffer, int offset, int slot) {
+        int keyLength = buffer.getInt(offset + KEY_LENGTH_OFFSET);
+        int valueLength = buffer.getInt(offset + VALUE_LENGTH_OFFSET);
+        if (buffer.getInt(offset) != USED || keyLength < 0 || valueLength < 0
+                || (long) keyLength + valueLength > slotSize - SLOT_HEADER_SIZE
+                || buffer.getInt(offset + CRC_OFFSET) != checksum(buffer, offset, keyLength + valueLength)) {
+            return null;
+        }
+        byte[] key = new byte[keyLength];
+        byte[] value = new byte[valueLength];
+        ByteBuffer data = buffer.duplicate();
+        ((Buffer) data).position(offset + SLOT_HEADER_SIZE);
+        data.get(key);
+        data.get(value);
+        try {
+            return new Slot<>(slot, keySerializer.deserialize(key), valueSerializer.deserialize(value),
+                    buffer.getLong(offset + ACCESS_TIME_OFFSET));
+        } catch (RuntimeException e) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Cannot deserialize the slot " + slot, e);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Link an entry restored by the cache to its slot
+     *
+     * @param slot  slot of the entry
+     * @param entry entry
+     */
+    /*package*/ void attach(int slot, CacheEntry<Key, Value> entry) {
+        slotEntries.set(slot, entry);
+    }
+
+    /**
+     * Write an entry in a free slot of its block. Nothing is done if the entry is already in the block or it is bigger
+     * than the max entry size.<br/>
+     * The write lock of the block has to be owned
+     *
+     * @param block index of the block
+     * @param entry entry added to the block
+     */
+    /*package*/ void write(int block, CacheEntry<Key, Value> entry) {
+        int free = -1;
+        for (int slot = block * nWay; slot < (block + 1) * nWay; slot++) {
+            CacheEntry<Key, Value> current = slotEntries.get(slot);
+            if (current == entry) {
+                return;
+            } else if (current == null && free < 0) {
+                free = slot;
+            }
+        }
+        Value value = entry.getValue();
+        if (value == null) {
+            return;
+        }
+        byte[] key = keySerializer.serialize(entry.getKey());
+        byte[] data = valueSerializer.serialize(value);
+        if ((long) key.length + data.length > slotSize - SLOT_HEADER_SIZE) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Entry {} too big for the cache file: {} bytes", entry, key.length + data.length);
+            }
+            return;
+        }
+        // the slots are freed out of the lock of the block: the free slot is claimed with a compare and set
+        while (free < 0 || !slotEntries.compareAndSet(free, null, entry)) {
+            free = -1;
+            for (int slot = block * nWay; slot < (block + 1) * nWay && free < 0; slot++) {
+                if (slotEntries.get(slot) == null) {
+                    free = slot;
+                }
+            }
+            if (free < 0) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("No free slot in the cache file for block {}", block);
+                }
+                return;
+            }
+        }
+        ByteBuffer buffer = region(free).duplicate();
+        int offset = offset(free);
+        buffer.putInt(offset, EMPTY);
+        buffer.putLong(offset + ACCESS_TIME_OFFSET, entry.getAccessTime());
+        buffer.putInt(offset + KEY_LENGTH_OFFSET, key.length);
+        buffer.putInt(offset + VALUE_LENGTH_OFFSET, data.length);
+        ((Buffer) buffer).position(offset + SLOT_HEADER_SIZE);
+        buffer.put(key);
+        buffer.put(data);
+        buffer.putInt(offset + CRC_OFFSET, checksum(buffer, offset, key.length + data.length));
+        buffer.putInt(offset, USED);
+    }
+
+    /**
+     * Empty the slot of an entry. Nothing is done if the entry is not in the block
+     *
+     * @param block index of the block
+     * @param entry entry removed from the block
+     */
+    /*package*/ void erase(int block, CacheEntry<Key, Value> entry) {
+        for (int slot = block * nWay; slot < (block + 1) * nWay; slot++) {
+            if (slotEntries.get(slot) == entry) {
+                // the slot is emptied in the file before being reused
+                region(slot).putInt(offset(slot), EMPTY);
+                slotEntries.compareAndSet(slot, entry, null);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Retrieve the number of entries in the file
+     *
+     * @return number of entries
+     */
+    /*package*/ int size() {
+        int size = 0;
+        for (int slot = 0; slot < slotEntries.length(); slot++) {
+            if (slotEntries.get(slot) != null) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Write the pending changes in the file and close it
+     *
+     * @throws java.io.IOException if the file cannot be closed
+     */
+    /*package*/ void close() throws IOException {
+        for (MappedByteBuffer region : regions) {
+            region.force();
+        }
+        lock.release();
+        channel.close();
+    }
+
+    /**
+     * Retrieve the mapped region of a slot
+     *
+     * @param slot index of the slot
+     * @return the region
+     */
+    /*package*/ MappedByteBuffer region(int slot) {
+        return regions[slot / nWay / blocksPerRegion];
+    }
+
+    /**
+     * Retrieve the offset of a slot in its region
+     *
+     * @param slot index of the slot
+     * @return the offset
+     */
+    /*package*/ int offset(int slot) {
+        return (slot - slot / nWay / blocksPerRegion * blocksPerRegion * nWay) * slotSize;
+    }
+
+    private static int checksum(ByteBuffer buffer, int offset, int dataLength) {
+        ByteBuffer data = buffer.duplicate();
+        ((Buffer) data).position(offset + ACCESS_TIME_OFFSET);
+        ((Buffer) data).limit(offset + SLOT_HEADER_SIZE + dataLength);
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return (int) crc.getValue();
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("Blocks", blocks)
+                .add("NWay", nWay)
+                .add("SlotSize", slotSize)
+                .add("Reattached", reattached)
+                .toString();
+    }
+
+    /**
+     * Callback used to give back the entries found in the file
+     */
+    /*package*/ interface Restorer<Key, Value> {
+        /**
+         * Add an entry found in the file to the cache
+         *
+         * @param block      index of the block
+         * @param slot       index of the slot in the file
+         * @param key        key
+         * @param value      value
+         * @param accessTime last access time written
+         * @return true if the entry has been added, false for emptying the slot
+         */
+        boolean restore(int block, int slot, Key key, Value value, long accessTime);
+    }
+
+    /**
+     * Content of a slot
+     */
+    private static final class Slot<Key, Value> {
+        private final int slot;
+        private final Key key;
+        private final Value value;
+        private final long accessTime;
+
+        private Slot(int slot, Key key, Value value, long accessTime) {
+            this.slot = slot;
+            this.key = key;
+            this.value = value;
+            this.accessTime = accessTime;
+        }
+    }
+}
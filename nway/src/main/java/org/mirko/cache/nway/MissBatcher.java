@@ -0,0 +1,141 @@
+package org.mirko.cache.nway;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Package accessible class that collects the misses of different threads in batches, loaded with a single call of
+ * {@link CacheLoader#loadAll(java.util.Collection)} (as in the DataLoader pattern).</p>
+ * <p>The first miss opens a batch and becomes its leader: it waits for {@code window} milliseconds, or until the
+ * batch holds {@code maxBatch} keys, while the misses of the other threads join the batch. Then the leader closes
+ * the batch, loads all its keys and completes the waiting threads, each with its own value. The misses of the same
+ * key in a batch share the same load. A key missing in the result of the batch is loaded with
+ * {@link CacheLoader#load(Object)} by the thread that asked for it, and an exception of the batch is thrown to all
+ * the threads of the batch.</p>
+ * <br/><br/>Created by Mirko Bernardoni on 19/10/26.
+ *
+ * @author Mirko Bernardoni
+ * @version 1.0
+ * @since 1.0
+ */
+/*package*/ class MissBatcher<Key, Value> {
+    private final long window;
+    private final int maxBatch;
+    private final Object lock = new Object();
+    // batch open for new misses, guarded by lock
+    private Map<Key, CompletableFuture<Value>> current;
+
+    /**
+     * Create a new instance of MissBatcher
+     *
+     * @param window   time in milliseconds a batch waits for other misses
+     * @param maxBatch max keys in a batch: a full batch is loaded without waiting the end of the window
+     * @throws java.lang.IllegalArgumentException if window < 1 or maxBatch < 2
+     */
+    /*package*/ MissBatcher(long window, int maxBatch) {
+        Preconditions.checkArgument(window > 0, "Window has to be > 0");
+        Preconditions.checkArgument(maxBatch > 1, "maxBatch has to be at least 2");
+        this.window = window;
+        this.maxBatch = maxBatch;
+    }
+
+    /**
+     * Load the value of a key within a batch
+     *
+     * @param cacheLoader loader
+     * @param key         key
+     * @return the value loaded
+     * @throws java.lang.Exception if the loader throws an exception
+     */
+    /*package*/ Value load(CacheLoader<Key, Value> cacheLoader, Key key) throws Exception {
+        Map<Key, CompletableFuture<Value>> batch;
+        CompletableFuture<Value> future;
+        boolean leader;
+        synchronized (lock) {
+            leader = current == null;
+            if (leader) {
+                current = new LinkedHashMap<>();
+            }
+            batch = current;
+            future = batch.computeIfAbsent(key, k -> new CompletableFuture<>());
+            if (batch.size() >= maxBatch) {
+                // full: closed and the leader is woken up
+                current = null;
+                lock.notifyAll();
+            }
+        }
+        if (leader) {
+            awaitWindow(batch);
+            loadBatch(cacheLoader, batch);
+        }
+        Value value;
+        try {
+            value = future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw (Exception) cause;
+        }
+        // not in the result of the batch
+        return value == null ? cacheLoader.load(key) : value;
+    }
+
+    /**
+     * Wait for the other misses until the window is over or the batch is full, then close the batch
+     *
+     * @param batch batch of the leader
+     */
+    private void awaitWindow(Map<Key, CompletableFuture<Value>> batch) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(window);
+        boolean interrupted = false;
+        synchronized (lock) {
+            long remaining;
+            while (current == batch && (remaining = deadline - System.nanoTime()) > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+                } catch (InterruptedException e) {
+                    // the other threads of the batch are waiting for the leader
+                    interrupted = true;
+                }
+            }
+            if (current == batch) {
+                current = null;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Load a closed batch and complete its threads
+     *
+     * @param cacheLoader loader
+     * @param batch       keys of the batch with their futures
+     */
+    private void loadBatch(CacheLoader<Key, Value> cacheLoader, Map<Key, CompletableFuture<Value>> batch) {
+        try {
+            Map<Key, Value> values = cacheLoader.loadAll(new ArrayList<>(batch.keySet()));
+            batch.forEach((key, future) -> future.complete(values.get(key)));
+        } catch (Throwable e) {
+            batch.values().forEach(future -> future.completeExceptionally(e));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("Window", window)
+                .add("MaxBatch", maxBatch)
+                .toString();
+    }
+}
@@ -5,20 +5,46 @@ import com.google.common.collect.ImmutableList;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * <p>Package accessible class that implement N-way, set-associative cache.</p>
- * <p>In this implementation the {@code block} is realized using a {@link LinkedList} structure in order to have
- * easy access to head and tail and low cost for walking from head to tail and vice versa</p>
+ * <p>In this implementation the {@code block} is realized using an {@link ArrayList} structure in order to have
+ * constant time access to every slot from the {@link EvictionPolicy} and low cost for walking from head to tail
+ * and vice versa</p>
  * <p>This class cannot be instantiated by any client without using {@link org.mirko.cache.nway.NWayCacheBuilder}</p>
- * <p>Before calling the eviction algorithm the current block is copied in a R/O list using a Read lock (for performance purpose).
- * It is possible that the block exceed the Nway size for a short amount of time (in case of a huge numbers of
- * concurrent threads on the same block). The size will be reduced as next step after running the eviction algorithm</p>
+ * <p>The eviction policy is called while the write lock of the block is owned, on a view of the block itself:
+ * no copy of the block is done. The insert is bounded: if the policy does not free any slot the oldest entries are
+ * evicted, so the block never grows over nWay. With a {@link Weigher} the blocks are also bounded by weight, and the
+ * number of entries of a block can follow the measured weights (see {@link #setExpectedWeight(int)})</p>
+ * <p>With the two choice placement every key has two candidate blocks, chosen by two hash functions as in the
+ * skewed associative caches: the lookups check both the blocks and a new entry goes in the block with the cheaper
+ * victim</p>
+ * <p>The number of blocks can be changed with {@link #resize(int)}: the entries are migrated in the new blocks when
+ * their old block is used or by a background task</p>
+ * <p>When a {@link VictimCache} is set the evicted entries are moved in it and the victim cache is checked on every
+ * miss before calling the loader</p>
+ * <p>When a {@link ValueStorage} is set the entries hold only the object returned by the storage (for example a
+ * handle of the off-heap memory): the value is rebuilt on every hit and released when the entry leaves the cache</p>
+ * <p>When a second level cache is set the evicted entries are demoted in it (after the victim cache, if any) and
+ * the second level is checked on every miss: a hit promotes the entry back in this cache</p>
+ * <p>When a {@link StaleCache} is set the values evicted are kept for a grace period and returned when the loader
+ * fails</p>
+ * <p>When a {@link LoadGuard} is set the loads are bounded in time and in number, and when a {@link MissBatcher} is
+ * set the concurrent misses are loaded together by {@link CacheLoader#loadAll(java.util.Collection)}</p>
+ * <p>When an {@link EarlyRefresh} is set the hits can reload their entry in background before it gets old</p>
+ * <p>When a {@link MappedStore} is set every block is copied in a memory mapped file, and the entries found in the
+ * file are restored at startup</p>
+ * <p>When a {@link CacheWriter} is set the puts and the removes are written in the backing store before changing
+ * the cache, or queued in a {@link WriteBehindQueue} that writes them in batches</p>
  * <p/>
  * <br/><br/>Created by Mirko Bernardoni on 30/05/15.
  *
@@ -28,34 +54,68 @@ import java.util.stream.Collectors;
  */
 /*package*/ class NWayCache<Key, Value> extends AbstractCache<Key, Value> {
     private static final Logger LOG = LoggerFactory.getLogger(NWayCache.class);
+    // number of inserts that the moving average of the weights follows
+    private static final int WEIGHT_SAMPLES = 64;
+    private final int nWay;
     /**
-     * Number of memory blocks (buckets)
+     * Memory blocks (buckets). Replaced by {@link #resize(int)}
      */
-    private final int numBlocks;
-    private final int nWay;
-    private final int maxEntryPerBlock;
-    private final List<CacheBag<Key, Value>> cacheBags;
+    private volatile List<CacheBag<Key, Value>> cacheBags;
+    /**
+     * Memory blocks before the last resize, until all their entries are migrated. Null if no migration is running
+     */
+    private volatile List<CacheBag<Key, Value>> previousBags;
+    private Executor migrationExecutor = ForkJoinPool.commonPool();
+    private volatile SetDueling<Key, Value> setDueling;
+    private VictimCache<Key, Value> victimCache;
+    private boolean twoChoicePlacement;
+    private ValueStorage<Value> valueStorage;
+    private MappedStore<Key, Value> mappedStore;
+    private NWayCache<Key, Value> secondLevel;
+    private Weigher<Key, Value> weigher;
+    private long maximumWeight;
+    private boolean adaptiveCapacity;
+    private ReferenceQueue<Object> referenceQueue;
+    private boolean weakKeys;
+    private boolean softValues;
+    private CacheWriter<Key, Value> cacheWriter;
+    private WriteBehindQueue<Key, Value> writeBehind;
+    private StaleCache<Key, Value> staleCache;
+    private LoadGuard loadGuard;
+    private MissBatcher<Key, Value> missBatcher;
+    private EarlyRefresh<Key> earlyRefresh;
+    // entries of a block, adjusted from the measured weights when the capacity is adaptive (never over nWay)
+    private volatile int capacity;
+    // updated without lock: a lost update only delays the adjustment
+    private volatile double averageWeight;
 
     /**
      * Create a new instance of NWayCache with {@code numbBuckets} and {@code nWay}
      *
      * @param numBlocks        number of memory blocks to allocate
      * @param nWay             N-Way allowed (or size of the single block)
-     * @param maxEntryPerBlock max block size before throw an OutOfMemory exception
+     * @param maxEntryPerBlock max block size, kept for compatibility: the block never grows over {@code nWay}
      * @throws java.lang.IllegalStateException if maxEntryPerBlock < nWay
      */
     /*package*/ NWayCache(int numBlocks, int nWay, int maxEntryPerBlock) {
         Preconditions.checkState(maxEntryPerBlock >= nWay, "maxEntryPerBlock has to be major or equals to nWay");
-        this.numBlocks = numBlocks;
         this.nWay = nWay;
-        this.maxEntryPerBlock = maxEntryPerBlock;
-        // Initiate the blocks.
+        this.capacity = nWay;
+        this.cacheBags = createBags(numBlocks);
+    }
+
+    /**
+     * Initiate the blocks
+     *
+     * @param numBlocks number of memory blocks to allocate
+     * @return the blocks
+     */
+    private List<CacheBag<Key, Value>> createBags(int numBlocks) {
         List<CacheBag<Key, Value>> cacheBags = new ArrayList<>(numBlocks);
         for (int i = 0; i < numBlocks; i++) {
-            CacheBag<Key, Value> bag = new CacheBag<>(new LinkedList<>());
-            cacheBags.add(bag);
+            cacheBags.add(createBag(i, nWay));
         }
-        this.cacheBags = ImmutableList.copyOf(cacheBags);
+        return ImmutableList.copyOf(cacheBags);
     }
 
     @Override
@@ -63,49 +123,109 @@ import java.util.stream.Collectors;
         Preconditions.checkNotNull(key, "Key cannot be null");
         Preconditions.checkNotNull(value, "Value cannot be null");
 
-        CacheBag<Key, Value> bag = findBag(key);
-        List<CacheEntry<Key, Value>> result = findEntry(key, bag);
+        // the backing store first: the cache is not modified if the write fails
+        writeThrough(key, value);
+        migrate(key);
+        CacheBag<Key, Value> bag = choosePlacement(key);
+        List<CacheEntry<Key, Value>> result = findEntryInAllBags(key);
         if (result.isEmpty()) {
             // New entry
+            CacheEntry<Key, Value> victim = takeVictim(key);
+            CacheEntry<Key, Value> demoted = victim == null ? takeSecondLevel(key) : null;
             addEntry(bag, key, value);
-        } else {
-            // substitution
-            // Delete everything and reload
-            markToDelete(result);
-            if (LOG.isDebugEnabled()) {
-                LOG.debug("Removed {} ", result);
+            if (victim != null) {
+                fireRemovalListener(victim, RemovalCause.REPLACED);
+                release(victim);
+            } else if (demoted != null) {
+                fireRemovalListener(demoted, RemovalCause.REPLACED);
+                secondLevel.release(demoted);
             }
-            // Add the new entry
-            addEntry(bag, key, value);
-            result.forEach(entry -> fireRemovalListener(entry, RemovalCause.REPLACED));
+        } else {
+            replace(bag, key, value, result);
         }
     }
 
+    /**
+     * Substitute the entries of a key with a new value
+     *
+     * @param bag    bag where the new entry is placed
+     * @param key    key
+     * @param value  new value
+     * @param result entries of the key in the cache
+     */
+    private void replace(CacheBag<Key, Value> bag, Key key, Value value, List<CacheEntry<Key, Value>> result) {
+        // Delete everything and reload
+        markToDelete(result);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Removed {} ", result);
+        }
+        // Add the new entry
+        addEntry(bag, key, value);
+        result.forEach(entry -> {
+            fireRemovalListener(entry, RemovalCause.REPLACED);
+            release(entry);
+        });
+    }
+
     @Override
     public Value get(Key key) throws CacheLoaderException {
         Preconditions.checkNotNull(key, "Key cannot be null");
         CacheLoader<Key, Value> cacheLoader = getCacheLoader();
         Preconditions.checkNotNull(cacheLoader, "CacheLoader cannot be null");
 
+        migrate(key);
         CacheBag<Key, Value> bag = findBag(key);
         List<CacheEntry<Key, Value>> result = findEntry(key, bag);
+        CacheBag<Key, Value> alternate = findAlternateBag(key);
+        if (result.isEmpty() && alternate != null) {
+            result = findEntry(key, alternate);
+            if (!result.isEmpty()) {
+                bag = alternate;
+            }
+        }
 
         Value value;
-        if (result.isEmpty()) {
-            // miss: callback for adding
-            fireMissListener(key);
+        CacheEntry<Key, Value> victim;
+        CacheEntry<Key, Value> demoted;
+        if (result.isEmpty() && (victim = takeVictim(key)) != null) {
+            // miss in the block but hit in the victim cache: the entry is moved back in its block
+            recordMiss(bag);
+            value = getAndUpdateTime(victim);
+            if (value == null) {
+                // the soft value has been reclaimed or the value released by a concurrent remove
+                if (isCollected(victim)) {
+                    fireRemovalListener(victim, RemovalCause.COLLECTED);
+                }
+                release(victim);
+                return load(bag, key, cacheLoader);
+            }
+            statsCounter.recordHit();
+            bag = choosePlacement(key);
+            insertEntry(bag, victim);
+            notifyHit(bag, victim);
+            fireCachedListener(victim);
             if (LOG.isDebugEnabled()) {
-                LOG.debug("Key {} not in cache... loading", key);
+                LOG.debug("Value found in victim cache for key {}", key);
             }
-            try {
-                value = cacheLoader.load(key);
-            } catch (Exception e) {
-                if (LOG.isDebugEnabled()) {
-                    LOG.debug("Exception during the load key " + key, e);
-                }
-                throw new CacheLoaderException("Exception during the load for key " + key, e);
+        } else if (result.isEmpty() && (demoted = takeSecondLevel(key)) != null) {
+            // miss in the blocks but hit in the second level: the value is promoted in this cache
+            value = demoted.getValue();
+            if (value == null) {
+                // released by a concurrent remove
+                secondLevel.release(demoted);
+                return load(bag, key, cacheLoader);
             }
-            addEntry(bag, key, value);
+            recordMiss(bag);
+            statsCounter.recordHit();
+            addEntry(choosePlacement(key), key, value);
+            fireCachedListener(demoted);
+            secondLevel.release(demoted);
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Value found in the second level for key {}", key);
+            }
+        } else if (result.isEmpty()) {
+            // miss: callback for adding
+            value = load(bag, key, cacheLoader);
         } else if (result.size() > 1) {
             // Multiple value for the same key => Cache error
             // Delete everything and reload the value for the current key
@@ -115,25 +235,207 @@ import java.util.stream.Collectors;
             markToDelete(result);
 
             fireMissListener(key);
+            recordMiss(bag);
+            statsCounter.recordMiss();
             try {
-                value = cacheLoader.load(key);
+                value = callLoader(cacheLoader, key);
             } catch (Exception e) {
                 if (LOG.isWarnEnabled()) {
                     LOG.warn("Exception during the load key " + key, e);
                 }
                 throw new CacheLoaderException("Exception during the load for key " + key, e);
             }
-            addEntry(bag, key, value);
+            addEntry(choosePlacement(key), key, value);
 
-            result.forEach(entry -> fireRemovalListener(entry, RemovalCause.REPLACED));
+            result.forEach(entry -> {
+                fireRemovalListener(entry, RemovalCause.REPLACED);
+                release(entry);
+            });
         } else {
             // value found in the cache
             CacheEntry<Key, Value> entry = result.get(0);
             value = getAndUpdateTime(entry);
+            if (value == null) {
+                // the entry has left the cache and its value has been released while reading it
+                return load(bag, key, cacheLoader);
+            }
+            statsCounter.recordHit();
+            notifyHit(bag, entry);
             fireCachedListener(entry);
             if (LOG.isDebugEnabled()) {
                 LOG.debug("Value found in cache for key {}", key);
             }
+            refreshEarly(entry);
+        }
+        return value;
+    }
+
+    /**
+     * Start the background refresh of an entry retrieved from the cache, if the early refresh (if any) chooses it
+     *
+     * @param entry entry retrieved from the cache
+     */
+    protected void refreshEarly(CacheEntry<Key, Value> entry) {
+        if (earlyRefresh == null) {
+            return;
+        }
+        Key key = entry.getKey();
+        if (key != null && earlyRefresh.shouldRefresh(key, entry.getCreationTime(), System.currentTimeMillis())) {
+            CacheLoader<Key, Value> cacheLoader = getCacheLoader();
+            earlyRefresh.refresh(key, () -> refresh(key, entry, cacheLoader));
+        }
+    }
+
+    /**
+     * Load again the value of a key still in the cache and replace its entry. Called in background by the early
+     * refresh: the failures are only logged, the entry stays in the cache.<br/>
+     * The new value replaces only the entry that started the refresh: if the key has been removed, evicted or
+     * changed by a put while loading, the loaded value is discarded
+     *
+     * @param key         key
+     * @param entry       entry that started the refresh
+     * @param cacheLoader loader
+     */
+    private void refresh(Key key, CacheEntry<Key, Value> entry, CacheLoader<Key, Value> cacheLoader) {
+        Value value;
+        try {
+            value = callLoader(cacheLoader, key);
+        } catch (Exception e) {
+            if (LOG.isWarnEnabled()) {
+                LOG.warn("Exception during the refresh of key " + key, e);
+            }
+            return;
+        }
+        migrate(key);
+        CacheEntryImpl<Key, Value> refreshed = newEntry(key, value, System.currentTimeMillis());
+        if (!refreshed.hasValue()) {
+            // the storage has no space: the current entry is kept
+            return;
+        }
+        CacheBag<Key, Value> alternate = findAlternateBag(key);
+        if (!replaceEntry(findBag(key), entry, refreshed)
+                && (alternate == null || !replaceEntry(alternate, entry, refreshed))) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Entry of key {} changed during the refresh, value discarded", key);
+            }
+            release(refreshed);
+        }
+    }
+
+    /**
+     * Replace {@code entry} with {@code refreshed} if {@code entry} is still the active entry of the block of
+     * {@code bag}. The entry is checked and marked for deletion while the write lock of the block is owned: a put
+     * that marks {@code entry} before the check wins. The new entry is not added if a put has added its own entry in
+     * the meantime, and it is replaced by a put that adds its entry later
+     *
+     * @param bag       bag
+     * @param entry     entry to replace
+     * @param refreshed new entry
+     * @return true if {@code entry} has been found and replaced
+     */
+    private boolean replaceEntry(CacheBag<Key, Value> bag, CacheEntry<Key, Value> entry,
+                                 CacheEntryImpl<Key, Value> refreshed) {
+        bag.getLock().writeLock().lock();
+        try {
+            if (bag.isMigrated() || !containsEntry(bag, entry) || entry.getStatus() != CacheEntryStatus.ACTIVE) {
+                return false;
+            }
+            entry.setStatus(CacheEntryStatus.DELETED);
+        } finally {
+            bag.getLock().writeLock().unlock();
+        }
+        fireRemovalListener(entry, RemovalCause.REPLACED);
+        release(entry);
+        if (!insertEntry(bag, refreshed, false, true)) {
+            // heavier than a block or already added by a put
+            release(refreshed);
+        }
+        return true;
+    }
+
+    /**
+     * Verify if the block contains {@code entry} (the same instance)
+     *
+     * @param bag   bag
+     * @param entry entry
+     * @return true if the entry is in the block
+     */
+    private static <Key, Value> boolean containsEntry(CacheBag<Key, Value> bag, CacheEntry<Key, Value> entry) {
+        for (int slot = 0; slot < bag.size(); slot++) {
+            if (bag.getEntry(slot) == entry) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Load the value of a missing key and add it to the cache
+     *
+     * @param bag         the bag where the miss happened
+     * @param key         key
+     * @param cacheLoader loader
+     * @return the value loaded
+     * @throws org.mirko.cache.nway.CacheLoaderException if the loader throws an exception
+     */
+    private Value load(CacheBag<Key, Value> bag, Key key, CacheLoader<Key, Value> cacheLoader) throws CacheLoaderException {
+        fireMissListener(key);
+        recordMiss(bag);
+        statsCounter.recordMiss();
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Key {} not in cache... loading", key);
+        }
+        Value value;
+        if (staleCache != null && (value = staleCache.backingOff(key, System.currentTimeMillis())) != null) {
+            // the last load failed: the loader is not called until the backoff is over
+            statsCounter.recordStaleHit();
+            return value;
+        }
+        try {
+            value = callLoader(cacheLoader, key);
+        } catch (Exception e) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Exception during the load key " + key, e);
+            }
+            Value stale;
+            if (staleCache != null && (stale = staleCache.loadFailed(key, System.currentTimeMillis())) != null) {
+                if (LOG.isWarnEnabled()) {
+                    LOG.warn("Exception during the load for key {}, stale value returned: {}", key, e.toString());
+                }
+                statsCounter.recordStaleHit();
+                return stale;
+            }
+            throw new CacheLoaderException("Exception during the load for key " + key, e);
+        }
+        if (staleCache != null) {
+            staleCache.invalidate(key);
+        }
+        addEntry(choosePlacement(key), key, value);
+        return value;
+    }
+
+    /**
+     * Call the loader, within the limits of the load guard and in a batch of misses if any
+     *
+     * @param cacheLoader loader
+     * @param key         key
+     * @return the value loaded
+     * @throws java.lang.Exception if the loader throws an exception, times out or is rejected
+     */
+    private Value callLoader(CacheLoader<Key, Value> cacheLoader, Key key) throws Exception {
+        if (writeBehind != null) {
+            // the loader has to read the last change of the key
+            writeBehind.flush(key);
+        }
+        long start = System.nanoTime();
+        Value value;
+        if (missBatcher != null) {
+            value = missBatcher.load(loadGuard == null ? cacheLoader : loadGuard.guard(cacheLoader), key);
+        } else {
+            value = loadGuard == null ? cacheLoader.load(key) : loadGuard.load(cacheLoader, key);
+        }
+        if (earlyRefresh != null) {
+            earlyRefresh.recordLoad(key, System.nanoTime() - start);
         }
         return value;
     }
@@ -142,163 +444,1340 @@ import java.util.stream.Collectors;
     public void remove(Key key) {
         Preconditions.checkNotNull(key, "Key cannot be null");
 
-        CacheBag<Key, Value> bag = findBag(key);
-        List<CacheEntry<Key, Value>> result = findEntry(key, bag);
+        deleteThrough(key);
+        if (staleCache != null) {
+            // a removed value is never served again
+            staleCache.invalidate(key);
+        }
+        migrate(key);
+        List<CacheEntry<Key, Value>> result = findEntryInAllBags(key);
         if (!result.isEmpty()) {
             if (LOG.isDebugEnabled()) {
                 LOG.debug("Mark to delete key {}", key);
             }
             // Don't real delete, just mark for deletion
             markToDelete(result);
-            result.forEach(entry -> fireRemovalListener(entry, RemovalCause.USER));
+            result.forEach(entry -> {
+                fireRemovalListener(entry, RemovalCause.USER);
+                // the value is not used anymore: released without waiting the removal from the block
+                release(entry);
+            });
+            return;
+        }
+        CacheEntry<Key, Value> victim = takeVictim(key);
+        if (victim != null) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Removed key {} from the victim cache", key);
+            }
+            fireRemovalListener(victim, RemovalCause.USER);
+            release(victim);
+        } else if ((victim = takeSecondLevel(key)) != null) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Removed key {} from the second level", key);
+            }
+            fireRemovalListener(victim, RemovalCause.USER);
+            secondLevel.release(victim);
         } else if (LOG.isDebugEnabled()) {
             LOG.debug("Key {} not found, no action taken", key);
         }
     }
 
     /**
-     * Verify if an entry is loaded in the cache
+     * Create a block
      *
-     * @param key key to check
-     * @return true in case the entry is in the cache, otherwise false
+     * @param index position of the block
+     * @param nWay  size of the block
+     * @return the new block
      */
-    /*package*/ boolean exist(Key key) {
-        Preconditions.checkNotNull(key, "Key cannot be null");
-
-        CacheBag<Key, Value> bag = findBag(key);
-        List<CacheEntry<Key, Value>> result = findEntry(key, bag);
-        return result != null && !result.isEmpty();
+    protected CacheBag<Key, Value> createBag(int index, int nWay) {
+        return new CacheBag<>(new ArrayList<>(nWay), index);
     }
 
     /**
-     * Mark a set of entries to read to delete (change the status)
+     * <p>Change the number of blocks without losing the entries in the cache.</p>
+     * <p>The new blocks are used immediately. The entries of an old block are migrated the first time a key of the
+     * block is used, and a background task migrates all the remaining blocks through the migration executor.
+     * The cache can be used during the migration: an entry can be missed only while its block is moving.</p>
+     * <p>If a previous resize is still migrating, its migration is completed before starting the new one</p>
+     * <p>With the adaptive eviction the leader sets are placed again on the new blocks (see
+     * {@link SetDueling#resize(int)}): the current selection of the follower sets is kept</p>
      *
-     * @param entitiesToRemove entries to mark
+     * @param numBlocks new number of blocks
+     * @throws java.lang.IllegalArgumentException      if numBlocks < 1
+     * @throws java.lang.UnsupportedOperationException if the cache is copied in a file
      */
-    protected void markToDelete(List<CacheEntry<Key, Value>> entitiesToRemove) {
-        if (entitiesToRemove == null || entitiesToRemove.isEmpty()) {
-            return;
+    @Override
+    public void resize(int numBlocks) {
+        Preconditions.checkArgument(numBlocks > 0, "blocks has to be at least 1");
+        if (mappedStore != null) {
+            throw new UnsupportedOperationException("The blocks of a cache with a file cannot be changed");
         }
-        // no lock is necessary because status is volatile
-        entitiesToRemove.forEach(e -> e.setStatus(CacheEntryStatus.DELETED));
+        synchronized (this) {
+            migrateAll();
+            if (numBlocks == cacheBags.size()) {
+                return;
+            }
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Resizing from {} to {} blocks", cacheBags.size(), numBlocks);
+            }
+            // the old blocks are visible before the new ones: the keys are migrated when they are used
+            previousBags = cacheBags;
+            cacheBags = createBags(numBlocks);
+            if (setDueling != null) {
+                setDueling = setDueling.resize(numBlocks);
+            }
+        }
+        migrationExecutor.execute(this::migrateAll);
     }
 
     /**
-     * <p>Create and add a new entry to the cache from {@code key} and {@code value}</p>
-     * <p>If the size of the block is >= to nWay then the eviction algorithm is called and the entries with status
-     * {@code DELETED} are removed from the cache</p>
+     * <p>Write all the active entries in a binary file.</p>
+     * <p>Every block is copied while its read lock is owned, so the file contains a consistent copy of every block;
+     * the entries are serialized after the lock is released. The readers are never blocked and the writers of a
+     * block are blocked only while the references to its entries are copied</p>
      *
-     * @param bag   the bag that is going to contains the new entry
-     * @param key   key
-     * @param value value
+     * @param file            path of the file
+     * @param keySerializer   serializer of the keys
+     * @param valueSerializer serializer of the values
+     * @param parallel        true for serializing the blocks with the common fork join pool
+     * @return number of entries written
+     * @throws java.io.IOException if the file cannot be written
      */
-    protected void addEntry(CacheBag<Key, Value> bag, Key key, Value value) {
-        Preconditions.checkNotNull(bag, "CacheBag cannot be null");
-        Preconditions.checkNotNull(key, "Key cannot be null");
-        Preconditions.checkNotNull(value, "Value cannot be null");
-        Preconditions.checkNotNull(getEviction(), "Eviction cannot be null");
-
-        // New entry creation
-        CacheEntryImpl<Key, Value> entry = new CacheEntryImpl<>();
-        entry.setAccessTime(System.currentTimeMillis());
-        entry.setValue(value);
-        entry.setKey(key);
-        entry.setStatus(CacheEntryStatus.ACTIVE);
-        List<CacheEntry<Key, Value>> block = bag.getBlock();
+    @Override
+    public int snapshot(Path file, Serializer<Key> keySerializer, Serializer<Value> valueSerializer,
+                        boolean parallel) throws IOException {
+        Preconditions.checkNotNull(file, "File cannot be null");
+        // a running migration would leave some entries in the old blocks
+        migrateAll();
+        return new CacheSnapshot<>(keySerializer, valueSerializer).write(file, cacheBags, parallel);
+    }
 
-        if (block.size() >= nWay) {
-            // End of bag space -> need to call eviction
-            if (LOG.isDebugEnabled()) {
-                LOG.debug("Calling eviction size {} max {} because {}", block.size(), nWay, entry);
+    /**
+     * <p>Add the entries of a snapshot to their blocks, keeping their creation and access time.</p>
+     * <p>The loader and the eviction policy are not called: an entry is not added if its key is already in the cache
+     * or its block is full. The entries of a block are added in the order of the snapshot, so the number of blocks
+     * can be different from the cache that has written the snapshot</p>
+     *
+     * @param file            path of the file
+     * @param keySerializer   serializer of the keys
+     * @param valueSerializer serializer of the values
+     * @return number of entries added
+     * @throws java.io.IOException if the file cannot be read or is not a valid snapshot
+     */
+    @Override
+    public int restore(Path file, Serializer<Key> keySerializer, Serializer<Value> valueSerializer) throws IOException {
+        Preconditions.checkNotNull(file, "File cannot be null");
+        return new CacheSnapshot<>(keySerializer, valueSerializer).read(file, (key, value, creationTime, accessTime) -> {
+            migrate(key);
+            CacheEntryImpl<Key, Value> entry = newEntry(key, value, creationTime);
+            if (!entry.hasValue()) {
+                return false;
             }
-            // copy the block in the immutable list
-            List<CacheEntry<Key, Value>> immutableBlocks;
-            bag.getLock().readLock().lock();
-            try {
-                immutableBlocks = ImmutableList.copyOf(block);
-            } finally {
-                bag.getLock().readLock().unlock();
+            entry.setAccessTime(accessTime);
+            if (!insertEntry(choosePlacement(key), entry, false, false)) {
+                release(entry);
+                return false;
             }
-            // call evictions
-            getEviction().eviction(immutableBlocks);
+            return true;
+        });
+    }
+
+    @Override
+    public void flush() {
+        if (writeBehind != null) {
+            writeBehind.flush();
+        }
+    }
+
+    /**
+     * Retrieve the number of blocks
+     *
+     * @return number of blocks
+     */
+    /*package*/ int getNumBlocks() {
+        return cacheBags.size();
+    }
+
+    /**
+     * Verify if the entries of a resize are still migrating
+     *
+     * @return true if some old block has not been migrated yet
+     */
+    /*package*/ boolean isMigrating() {
+        return previousBags != null;
+    }
+
+    /**
+     * Set the executor that runs the background migration after {@link #resize(int)}
+     *
+     * @param migrationExecutor executor. Default is the common fork join pool
+     * @throws java.lang.NullPointerException if migrationExecutor is null
+     */
+    /*package*/ void setMigrationExecutor(Executor migrationExecutor) {
+        Preconditions.checkNotNull(migrationExecutor, "Migration executor cannot be null");
+        this.migrationExecutor = migrationExecutor;
+    }
+
+    /**
+     * Migrate all the old blocks still not migrated
+     */
+    /*package*/ synchronized void migrateAll() {
+        List<CacheBag<Key, Value>> previous = previousBags;
+        if (previous == null) {
+            return;
+        }
+        previous.forEach(this::migrateBag);
+        previousBags = null;
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Migration to {} blocks completed", cacheBags.size());
         }
-        // there is space then add in the end
+    }
+
+    /**
+     * Migrate the old blocks where {@code key} can be stored
+     *
+     * @param key key
+     */
+    protected void migrate(Key key) {
+        List<CacheBag<Key, Value>> previous = previousBags;
+        if (previous == null) {
+            return;
+        }
+        migrateBag(previous.get(bagPosition(key.hashCode(), previous.size())));
+        int alternatePosition = alternateBagPosition(key.hashCode(), previous.size());
+        if (alternatePosition >= 0) {
+            migrateBag(previous.get(alternatePosition));
+        }
+    }
+
+    /**
+     * Move all the active entries of an old block in the current blocks. An entry is not moved if its key has
+     * already a new entry in the current blocks.<br/>
+     * The write lock of the old block is owned until all the entries are in the current blocks, and only then the
+     * block is marked as migrated: a {@link #migrate(Object)} of a key of the block waits for the end of the
+     * migration, so a remove or a put cannot run before the entry of its key has been moved
+     *
+     * @param bag old bag
+     */
+    private void migrateBag(CacheBag<Key, Value> bag) {
+        if (bag.isMigrated()) {
+            return;
+        }
+        List<CacheEntry<Key, Value>> rejected = new ArrayList<>();
+        holdNotifications();
         bag.getLock().writeLock().lock();
         try {
-            Iterator<CacheEntry<Key, Value>> iterator = block.iterator();
-            while (iterator.hasNext()) {
-                CacheEntry<Key, Value> entryToDelete = iterator.next();
-                // remove all the entries wit status DELETED
-                if (entryToDelete.getStatus() == CacheEntryStatus.DELETED ||
-                // remove any duplicate key
-                        key.equals(entryToDelete.getKey())) {
-                    iterator.remove();
-                    fireRemovalListener(entryToDelete, RemovalCause.EVICTION);
+            if (bag.isMigrated()) {
+                return;
+            }
+            // the entries marked for deletion have already been notified and released
+            List<CacheEntry<Key, Value>> moving = new ArrayList<>();
+            for (CacheEntry<Key, Value> entry : bag.getBlock()) {
+                if (entry.getStatus() == CacheEntryStatus.ACTIVE) {
+                    moving.add(entry);
                 }
             }
-            // in the linked list the method add is equals to the method addLast
-            block.add(entry);
+            bag.clear();
+            // the old block is locked before the new ones, never the opposite
+            moving.forEach(entry -> {
+                if (!insertEntry(choosePlacement(entry.getKey()), entry, false, true)) {
+                    rejected.add(entry);
+                }
+            });
+            // from now on the entries are added in the current blocks
+            bag.setMigrated(true);
         } finally {
             bag.getLock().writeLock().unlock();
+            releaseNotifications();
         }
+        rejected.forEach(entry -> {
+            // the new blocks are smaller when a weigher is used
+            fireRemovalListener(entry, weigh(entry) > weightBudget() ? RemovalCause.EVICTION
+                    : RemovalCause.REPLACED);
+            release(entry);
+        });
+    }
 
-        if (block.size() >= maxEntryPerBlock) {
-            // The eviction is not deleting enough!
-            // Consider to change the eviction parameters
-            throw new OutOfMemoryError("Eviction is not deleting enough entries. The block size is bigger than " + (nWay * 2));
-        }
+    /**
+     * Verify if an entry is loaded in the cache
+     *
+     * @param key key to check
+     * @return true in case the entry is in the cache, otherwise false
+     */
+    /*package*/ boolean exist(Key key) {
+        Preconditions.checkNotNull(key, "Key cannot be null");
 
-        if (LOG.isDebugEnabled()) {
-            LOG.debug("Entry {} added", entry);
-        }
+        migrate(key);
+        List<CacheEntry<Key, Value>> result = findEntryInAllBags(key);
+        return result != null && !result.isEmpty();
     }
 
     /**
-     * Retrieve the value from an entry and update the access time
+     * Retrieve the set dueling used for choosing the eviction algorithm per block
      *
-     * @param entry entry
-     * @return the value of the entry
+     * @return the set dueling or null if the cache uses only {@link #getEviction()}
      */
-    protected Value getAndUpdateTime(CacheEntry<Key, Value> entry) {
-        Preconditions.checkNotNull(entry, "CacheEntry cannot be null");
-        if (LOG.isDebugEnabled()) {
-            LOG.debug("Updating access time for {}", entry);
-        }
-        // no lock is necessary because access time is volatile
-        ((CacheEntryImpl) entry).setAccessTime(System.currentTimeMillis());
-        return entry.getValue();
+    /*package*/ SetDueling<Key, Value> getSetDueling() {
+        return setDueling;
+    }
 
+    /**
+     * Set the set dueling for choosing at runtime between two eviction algorithms. When it is set the
+     * {@link #getEviction()} algorithm is not used
+     *
+     * @param setDueling set dueling or null for using only {@link #getEviction()}
+     */
+    /*package*/ void setSetDueling(SetDueling<Key, Value> setDueling) {
+        this.setDueling = setDueling;
     }
 
     /**
-     * Apply the hash algorithm for retrieve the bag from the key
+     * Retrieve the victim cache shared by all the blocks
      *
-     * @param key key
-     * @return bag assigned to the key
+     * @return the victim cache or null if the evicted entries are discarded
      */
-    protected CacheBag<Key, Value> findBag(Key key) {
-        Preconditions.checkNotNull(key, "Key cannot be null");
+    /*package*/ VictimCache<Key, Value> getVictimCache() {
+        return victimCache;
+    }
 
-        int bagPosition = Math.abs(key.hashCode() % numBlocks);
-        return cacheBags.get(bagPosition);
+    /**
+     * Set the victim cache where the entries evicted from the blocks are moved
+     *
+     * @param victimCache victim cache or null for discarding the evicted entries
+     */
+    /*package*/ void setVictimCache(VictimCache<Key, Value> victimCache) {
+        this.victimCache = victimCache;
     }
 
     /**
-     * Search for an entry in the current bag from the key.<br/>
+     * Retrieve the storage of the values
      *
-     * @param key key
-     * @param bag bag
-     * @return a list of entries that should be always one element long. If nothing is found the list is empty (not null)
+     * @return the storage or null if the values are kept in the entries
      */
-    protected List<CacheEntry<Key, Value>> findEntry(Key key, CacheBag<Key, Value> bag) {
-        Preconditions.checkNotNull(key, "Key cannot be null");
-        Preconditions.checkNotNull(bag, "Bag cannot be null");
-        bag.getLock().readLock().lock();
-        try {
-            return bag.getBlock()
-                    .stream()
-                    .filter(e -> e.getStatus() == CacheEntryStatus.ACTIVE && key.equals(e.getKey()))
-                    .collect(Collectors.toList());
+    /*package*/ ValueStorage<Value> getValueStorage() {
+        return valueStorage;
+    }
+
+    /**
+     * Set the storage of the values. Has to be set before adding any entry
+     *
+     * @param valueStorage storage of the values, null for keeping the values in the entries
+     */
+    /*package*/ void setValueStorage(ValueStorage<Value> valueStorage) {
+        this.valueStorage = valueStorage;
+    }
+
+    /**
+     * Retrieve the file where the blocks are copied
+     *
+     * @return the file or null if the blocks are only in memory
+     */
+    /*package*/ MappedStore<Key, Value> getMappedStore() {
+        return mappedStore;
+    }
+
+    /**
+     * Set the file where the blocks are copied and restore the entries found in it. Has to be set before using the
+     * cache, after the eviction policy and the value storage
+     *
+     * @param mappedStore file with the same number of blocks and nWay of the cache
+     * @return number of entries restored
+     */
+    /*package*/ int setMappedStore(MappedStore<Key, Value> mappedStore) {
+        Preconditions.checkNotNull(mappedStore, "MappedStore cannot be null");
+        this.mappedStore = mappedStore;
+        return mappedStore.load(this::restore);
+    }
+
+    /**
+     * Add an entry found in the file to its block, without calling the loader
+     *
+     * @param block      index of the block
+     * @param slot       slot of the entry in the file
+     * @param key        key
+     * @param value      value
+     * @param accessTime access time written in the file
+     * @return true if the entry has been added
+     */
+    private boolean restore(int block, int slot, Key key, Value value, long accessTime) {
+        int numBlocks = cacheBags.size();
+        if (bagPosition(key.hashCode(), numBlocks) != block && alternateBagPosition(key.hashCode(), numBlocks) != block) {
+            // the hash code of the key is not stable between the JVMs
+            return false;
+        }
+        CacheEntryImpl<Key, Value> entry = newEntry(key, value, System.currentTimeMillis());
+        if (!entry.hasValue()) {
+            return false;
+        }
+        entry.setAccessTime(accessTime);
+        mappedStore.attach(slot, entry);
+        return insertEntry(cacheBags.get(block), entry, false, true);
+    }
+
+    /**
+     * Retrieve the second level cache
+     *
+     * @return the second level or null if the evicted entries are discarded
+     */
+    /*package*/ NWayCache<Key, Value> getSecondLevel() {
+        return secondLevel;
+    }
+
+    /**
+     * Set the second level cache: the evicted entries are demoted in it and the misses check it before calling the
+     * loader. The evictions of the second level are notified to the removal listeners of this cache
+     *
+     * @param secondLevel second level cache, its loader is never called
+     * @throws java.lang.NullPointerException     if secondLevel is null
+     * @throws java.lang.IllegalArgumentException if secondLevel is this cache
+     */
+    /*package*/ void setSecondLevel(NWayCache<Key, Value> secondLevel) {
+        Preconditions.checkNotNull(secondLevel, "Second level cannot be null");
+        Preconditions.checkArgument(secondLevel != this, "A cache cannot be its own second level");
+        this.secondLevel = secondLevel;
+        secondLevel.addRemovalListener(notification -> {
+            if (notification.getCause() == RemovalCause.EVICTION || notification.getCause() == RemovalCause.COLLECTED) {
+                fireRemovalListener(notification);
+            }
+        });
+    }
+
+    /**
+     * Retrieve the weigher of the entries
+     *
+     * @return the weigher or null if the blocks are bounded only by nWay
+     */
+    /*package*/ Weigher<Key, Value> getWeigher() {
+        return weigher;
+    }
+
+    /**
+     * Bound the blocks by weight: every block can hold entries for {@code maximumWeight / blocks}, then the total
+     * weight of the cache stays under {@code maximumWeight}. The blocks are still bounded by nWay
+     *
+     * @param weigher       weigher of the entries
+     * @param maximumWeight max total weight of the cache
+     * @throws java.lang.NullPointerException     if weigher is null
+     * @throws java.lang.IllegalArgumentException if maximumWeight < 1
+     */
+    /*package*/ void setWeigher(Weigher<Key, Value> weigher, long maximumWeight) {
+        Preconditions.checkNotNull(weigher, "Weigher cannot be null");
+        Preconditions.checkArgument(maximumWeight > 0, "maximumWeight has to be at least 1");
+        this.weigher = weigher;
+        this.maximumWeight = maximumWeight;
+    }
+
+    /**
+     * Adjust continuously the number of entries of a block from the weights of the entries added, so the blocks
+     * hold more entries when the entries are lighter than expected and less when they are heavier. The capacity is
+     * the weight budget of a block divided by the moving average of the weights, between 1 and nWay
+     *
+     * @param expectedWeight expected average weight of the entries, used until enough weights are measured
+     * @throws java.lang.IllegalStateException    if there is no weigher
+     * @throws java.lang.IllegalArgumentException if expectedWeight < 1
+     */
+    /*package*/ void setExpectedWeight(int expectedWeight) {
+        Preconditions.checkState(weigher != null, "The capacity can be adjusted only with a weigher");
+        Preconditions.checkArgument(expectedWeight > 0, "expectedWeight has to be at least 1");
+        this.adaptiveCapacity = true;
+        this.averageWeight = expectedWeight;
+        measure(expectedWeight);
+    }
+
+    /**
+     * Retrieve the max number of entries of a block
+     *
+     * @return nWay or the capacity adjusted from the weights
+     */
+    /*package*/ int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Add a weight to the moving average and adjust the capacity of the blocks
+     *
+     * @param weight weight of the entry added
+     */
+    private void measure(int weight) {
+        double average = averageWeight + (weight - averageWeight) / WEIGHT_SAMPLES;
+        averageWeight = average;
+        capacity = (int) Math.max(1, Math.min(nWay, Math.ceil(weightBudget() / Math.max(1, average))));
+    }
+
+    /**
+     * Hold the keys with weak references and/or the values with soft references: the garbage collector can reclaim
+     * them and the collected entries are removed from their blocks by {@link #purgeCollected()}
+     *
+     * @param weakKeys   true for holding the keys with weak references
+     * @param softValues true for holding the values with soft references
+     * @throws java.lang.IllegalArgumentException if both weakKeys and softValues are false
+     * @throws java.lang.IllegalStateException    if softValues is used with a value storage or weakKeys with a
+     *                                            persistent file
+     */
+    /*package*/ void setReferences(boolean weakKeys, boolean softValues) {
+        Preconditions.checkArgument(weakKeys || softValues, "At least keys or values have to be referenced");
+        Preconditions.checkState(!softValues || valueStorage == null, "Soft values cannot use a value storage");
+        Preconditions.checkState(!weakKeys || mappedStore == null, "Weak keys cannot be written in a file");
+        this.weakKeys = weakKeys;
+        this.softValues = softValues;
+        this.referenceQueue = new ReferenceQueue<>();
+    }
+
+    /**
+     * Remove from their blocks the entries whose weak key or soft value has been reclaimed by the garbage collector
+     * and notify them with cause {@link RemovalCause#COLLECTED}. It is called before every insert, no lock of the
+     * blocks has to be owned
+     */
+    /*package*/ void purgeCollected() {
+        if (referenceQueue == null) {
+            return;
+        }
+        Reference<?> reference;
+        while ((reference = referenceQueue.poll()) != null) {
+            @SuppressWarnings("unchecked")
+            ReferenceCacheEntry<Key, Value> entry = (ReferenceCacheEntry<Key, Value>)
+                    ((ReferenceCacheEntry.EntryReference) reference).getEntry();
+            List<CacheBag<Key, Value>> bags = cacheBags;
+            int alternatePosition = alternateBagPosition(entry.getKeyHash(), bags.size());
+            if (purge(bags.get(bagPosition(entry.getKeyHash(), bags.size())), entry)
+                    || (alternatePosition >= 0 && purge(bags.get(alternatePosition), entry))) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Entry {} collected", entry);
+                }
+                fireRemovalListener(entry, RemovalCause.COLLECTED);
+                release(entry);
+            }
+        }
+    }
+
+    /**
+     * Remove an active entry from a block
+     *
+     * @param bag   bag
+     * @param entry entry to remove
+     * @return true if the entry has been removed, false if it was not active in the block
+     */
+    private boolean purge(CacheBag<Key, Value> bag, CacheEntry<Key, Value> entry) {
+        bag.getLock().writeLock().lock();
+        try {
+            for (int slot = 0; slot < bag.size(); slot++) {
+                if (bag.getEntry(slot) == entry) {
+                    if (!bag.isActive(slot)) {
+                        // already removed, it leaves the block on the next insert
+                        return false;
+                    }
+                    if (bag.getState() != null) {
+                        bag.getStatePolicy().onRemove(bag, slot);
+                    }
+                    bag.remove(slot);
+                    entry.setStatus(CacheEntryStatus.DELETED);
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            bag.getLock().writeLock().unlock();
+        }
+    }
+
+    /**
+     * Verify if the weak key or the soft value of an entry has been reclaimed by the garbage collector
+     *
+     * @param entry entry
+     * @return true if the entry has been collected
+     */
+    private static boolean isCollected(CacheEntry<?, ?> entry) {
+        return entry instanceof ReferenceCacheEntry && ((ReferenceCacheEntry) entry).isCollected();
+    }
+
+    /**
+     * Write the changes synchronously in the backing store
+     *
+     * @param cacheWriter writer of the backing store
+     */
+    /*package*/ void setCacheWriter(CacheWriter<Key, Value> cacheWriter) {
+        this.cacheWriter = cacheWriter;
+    }
+
+    /**
+     * Write the changes asynchronously in the backing store
+     *
+     * @param writeBehind queue of the changes
+     */
+    /*package*/ void setWriteBehind(WriteBehindQueue<Key, Value> writeBehind) {
+        this.writeBehind = writeBehind;
+    }
+
+    /**
+     * Retrieve the queue of the changes not written yet
+     *
+     * @return the write behind queue, null if the changes are not written asynchronously
+     */
+    /*package*/ WriteBehindQueue<Key, Value> getWriteBehind() {
+        return writeBehind;
+    }
+
+    /**
+     * Retrieve the stale cache
+     *
+     * @return the stale cache, null if the failed loads are not served with stale values
+     */
+    /*package*/ StaleCache<Key, Value> getStaleCache() {
+        return staleCache;
+    }
+
+    /**
+     * Serve the last known value of the evicted keys when the loader fails
+     *
+     * @param staleCache stale cache
+     */
+    /*package*/ void setStaleCache(StaleCache<Key, Value> staleCache) {
+        this.staleCache = staleCache;
+    }
+
+    /**
+     * Bound the time and the concurrency of the loads
+     *
+     * @param loadGuard load guard
+     */
+    /*package*/ void setLoadGuard(LoadGuard loadGuard) {
+        this.loadGuard = loadGuard;
+    }
+
+    /**
+     * Load the misses of different threads in batches
+     *
+     * @param missBatcher collector of the misses
+     */
+    /*package*/ void setMissBatcher(MissBatcher<Key, Value> missBatcher) {
+        this.missBatcher = missBatcher;
+    }
+
+    /**
+     * Refresh the entries in background before they get old
+     *
+     * @param earlyRefresh early refresh
+     */
+    /*package*/ void setEarlyRefresh(EarlyRefresh<Key> earlyRefresh) {
+        this.earlyRefresh = earlyRefresh;
+    }
+
+    /**
+     * Propagate a put to the backing store
+     *
+     * @param key   key
+     * @param value new value
+     * @throws org.mirko.cache.nway.CacheWriterException if the writer throws an exception
+     */
+    private void writeThrough(Key key, Value value) {
+        if (writeBehind != null) {
+            writeBehind.write(key, value);
+        } else if (cacheWriter != null) {
+            try {
+                cacheWriter.write(key, value);
+            } catch (Exception e) {
+                throw new CacheWriterException("Exception during the write for key " + key, e);
+            }
+        }
+    }
+
+    /**
+     * Propagate a remove to the backing store
+     *
+     * @param key key
+     * @throws org.mirko.cache.nway.CacheWriterException if the writer throws an exception
+     */
+    private void deleteThrough(Key key) {
+        if (writeBehind != null) {
+            writeBehind.delete(key);
+        } else if (cacheWriter != null) {
+            try {
+                cacheWriter.delete(key);
+            } catch (Exception e) {
+                throw new CacheWriterException("Exception during the delete for key " + key, e);
+            }
+        }
+    }
+
+    /**
+     * Retrieve the total weight of the entries in the blocks. Without a weigher it is the number of entries
+     *
+     * @return the total weight
+     */
+    /*package*/ long getTotalWeight() {
+        long total = 0;
+        for (CacheBag<Key, Value> bag : cacheBags) {
+            total += bag.getTotalWeight();
+        }
+        return total;
+    }
+
+    /**
+     * Max weight of a block, the share of {@code maximumWeight} of every block
+     *
+     * @return the weight budget of a block, {@link Long#MAX_VALUE} without a weigher
+     */
+    private long weightBudget() {
+        return weigher == null ? Long.MAX_VALUE : Math.max(1, maximumWeight / cacheBags.size());
+    }
+
+    /**
+     * Calculate the weight of an entry
+     *
+     * @param entry entry
+     * @return the weight given by the weigher, 1 without a weigher
+     * @throws java.lang.IllegalStateException if the weigher returns a negative weight
+     */
+    private int weigh(CacheEntry<Key, Value> entry) {
+        Value value;
+        if (weigher == null || (value = entry.getValue()) == null) {
+            return 1;
+        }
+        int weight = weigher.weigh(entry.getKey(), value);
+        Preconditions.checkState(weight >= 0, "The weigher returned the negative weight %s", weight);
+        return weight;
+    }
+
+    /**
+     * Verify if an entry does not fit in a block, by number of entries or by weight.
+     * The write lock of the block has to be owned
+     *
+     * @param bag    bag
+     * @param weight weight of the entry to add
+     * @param budget weight budget of the block
+     * @return true if some entries have to be evicted before adding the entry
+     */
+    private boolean isFull(CacheBag<Key, Value> bag, int weight, long budget) {
+        return bag.size() >= capacity || bag.getTotalWeight() + weight > budget;
+    }
+
+    /**
+     * Verify if every key can be stored in two blocks
+     *
+     * @return true if the two choice placement is used
+     */
+    /*package*/ boolean isTwoChoicePlacement() {
+        return twoChoicePlacement;
+    }
+
+    /**
+     * Enable the two choice placement: every key has two candidate blocks chosen by two different hash functions.
+     * The lookups check both the blocks and a new entry is added in the block with the cheaper victim.<br/>
+     * It has to be set before adding any entry
+     *
+     * @param twoChoicePlacement true for two candidate blocks per key, false for one
+     */
+    /*package*/ void setTwoChoicePlacement(boolean twoChoicePlacement) {
+        this.twoChoicePlacement = twoChoicePlacement;
+    }
+
+    /**
+     * Remove the entry of {@code key} from the victim cache (if any)
+     *
+     * @param key key
+     * @return the entry removed or null
+     */
+    protected CacheEntry<Key, Value> takeVictim(Key key) {
+        return victimCache == null ? null : victimCache.take(key);
+    }
+
+    /**
+     * Remove the entry of {@code key} from the second level (if any)
+     *
+     * @param key key
+     * @return the entry removed or null. The caller has to release the entry in the second level
+     */
+    protected CacheEntry<Key, Value> takeSecondLevel(Key key) {
+        return secondLevel == null ? null : secondLevel.takeEntry(key);
+    }
+
+    /**
+     * <p>Remove the active entry of {@code key} from the cache without notifying the listeners.</p>
+     * <p>Used when this cache is the second level of another cache: the entry is promoted or replaced in the first
+     * level. The value of the entry can be read until the entry is released with {@link #release(CacheEntry)}</p>
+     *
+     * @param key key
+     * @return the entry removed or null if the key is not in the cache
+     */
+    /*package*/ CacheEntry<Key, Value> takeEntry(Key key) {
+        migrate(key);
+        CacheEntry<Key, Value> taken = takeEntry(findBag(key), key);
+        CacheBag<Key, Value> alternate = findAlternateBag(key);
+        if (taken == null && alternate != null) {
+            taken = takeEntry(alternate, key);
+        }
+        return taken == null ? takeVictim(key) : taken;
+    }
+
+    /**
+     * Remove the active entry of {@code key} from the block of {@code bag}
+     *
+     * @param bag bag
+     * @param key key
+     * @return the entry removed or null if the key is not in the block
+     */
+    private CacheEntry<Key, Value> takeEntry(CacheBag<Key, Value> bag, Key key) {
+        int hash = CacheBag.spread(key);
+        bag.getLock().writeLock().lock();
+        try {
+            if (bag.isMigrated()) {
+                return null;
+            }
+            for (int slot = 0; slot < bag.size(); slot++) {
+                if (bag.matches(slot, hash, key) && bag.isActive(slot)) {
+                    if (bag.getState() != null) {
+                        bag.getStatePolicy().onRemove(bag, slot);
+                    }
+                    CacheEntry<Key, Value> entry = bag.remove(slot);
+                    entry.setStatus(CacheEntryStatus.DELETED);
+                    if (mappedStore != null) {
+                        mappedStore.erase(bag.getIndex(), entry);
+                    }
+                    return entry;
+                }
+            }
+            return null;
+        } finally {
+            bag.getLock().writeLock().unlock();
+        }
+    }
+
+    /**
+     * Notify the set dueling (if any) about a miss in the {@code bag}
+     *
+     * @param bag the bag where the miss happened
+     */
+    protected void recordMiss(CacheBag<Key, Value> bag) {
+        if (setDueling != null) {
+            setDueling.recordMiss(bag.getIndex());
+        }
+    }
+
+    /**
+     * Mark a set of entries to read to delete (change the status)
+     *
+     * @param entitiesToRemove entries to mark
+     */
+    protected void markToDelete(List<CacheEntry<Key, Value>> entitiesToRemove) {
+        if (entitiesToRemove == null || entitiesToRemove.isEmpty()) {
+            return;
+        }
+        // no lock is necessary because status is volatile
+        entitiesToRemove.forEach(e -> e.setStatus(CacheEntryStatus.DELETED));
+    }
+
+    /**
+     * <p>Create and add a new entry to the cache from {@code key} and {@code value}</p>
+     * <p>The entries with status {@code DELETED} and the old entries for the same key are removed from the cache.
+     * If the size of the block is still >= to nWay, or the new entry does not fit in the weight budget of the block,
+     * then the eviction policy is called and the victims are removed from the cache (again while it frees slots but
+     * not enough weight). If the eviction policy does not free enough the oldest entries are evicted: the block never
+     * grows over nWay and its weight budget. An entry heavier than the budget of a block is not added</p>
+     *
+     * @param bag   the bag that is going to contains the new entry
+     * @param key   key
+     * @param value value
+     */
+    protected void addEntry(CacheBag<Key, Value> bag, Key key, Value value) {
+        Preconditions.checkNotNull(key, "Key cannot be null");
+        Preconditions.checkNotNull(value, "Value cannot be null");
+
+        // New entry creation
+        CacheEntryImpl<Key, Value> entry = newEntry(key, value, System.currentTimeMillis());
+        if (!entry.hasValue()) {
+            // the storage has no space: the value is returned without caching it
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("No space in the value storage for key {}", key);
+            }
+            return;
+        }
+        insertEntry(bag, entry);
+    }
+
+    /**
+     * Create a new active entry
+     *
+     * @param key          key
+     * @param value        value
+     * @param creationTime creation and access time of the entry
+     * @return the entry, without value if the value storage has no space for it
+     */
+    private CacheEntryImpl<Key, Value> newEntry(Key key, Value value, long creationTime) {
+        CacheEntryImpl<Key, Value> entry;
+        if (referenceQueue != null) {
+            entry = new ReferenceCacheEntry<>(referenceQueue, weakKeys, softValues, creationTime);
+        } else if (valueStorage != null) {
+            entry = new StoredCacheEntry<>(valueStorage, creationTime);
+        } else {
+            entry = new CacheEntryImpl<>(creationTime);
+        }
+        entry.setAccessTime(creationTime);
+        entry.setValue(value);
+        entry.setKey(key);
+        entry.setStatus(CacheEntryStatus.ACTIVE);
+        return entry;
+    }
+
+    /**
+     * Free the resources of the value of an entry that has left the cache or is marked for deletion. Has to be called
+     * after the removal listeners because they can read the value. Releasing an entry twice has no effect
+     *
+     * @param entry entry removed from the cache
+     */
+    protected void release(CacheEntry<Key, Value> entry) {
+        if (mappedStore != null) {
+            int numBlocks = cacheBags.size();
+            int hashCode = entry.getKey().hashCode();
+            mappedStore.erase(bagPosition(hashCode, numBlocks), entry);
+            int alternatePosition = alternateBagPosition(hashCode, numBlocks);
+            if (alternatePosition >= 0) {
+                mappedStore.erase(alternatePosition, entry);
+            }
+        }
+        if (entry instanceof CacheEntryImpl) {
+            ((CacheEntryImpl) entry).release();
+        }
+    }
+
+    /**
+     * <p>Add an entry to the block of the {@code bag}. The entry can be new or coming back from the victim cache.</p>
+     * <p>When a victim cache is present the entries chosen by the eviction policy are moved in the victim cache,
+     * otherwise they are removed from the cache</p>
+     *
+     * @param bag   the bag that is going to contains the entry
+     * @param entry entry to add
+     */
+    protected void insertEntry(CacheBag<Key, Value> bag, CacheEntry<Key, Value> entry) {
+        if (!insertEntry(bag, entry, true, true)) {
+            // heavier than a block: evicted immediately
+            fireRemovalListener(entry, RemovalCause.EVICTION);
+            release(entry);
+        }
+    }
+
+    /**
+     * Add an entry to the block of the {@code bag}
+     *
+     * @param bag     the bag that is going to contains the entry
+     * @param entry   entry to add
+     * @param replace true for replacing the entry for the same key, false for leaving the existing entry
+     * @param evict   true for evicting when the block is full, false for leaving the block untouched
+     * @return true if the entry has been added, false if the key is in the block (without replace), the block is
+     * full (without evict) or the entry is heavier than the weight budget of a block
+     */
+    private boolean insertEntry(CacheBag<Key, Value> bag, CacheEntry<Key, Value> entry, boolean replace,
+                                boolean evict) {
+        Preconditions.checkNotNull(bag, "CacheBag cannot be null");
+        Preconditions.checkNotNull(entry, "CacheEntry cannot be null");
+        purgeCollected();
+        Key key = entry.getKey();
+        int weight = weigh(entry);
+        long budget = weightBudget();
+        if (weight > budget) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Entry {} of weight {} is heavier than a block", entry, weight);
+            }
+            return false;
+        }
+        if (adaptiveCapacity) {
+            measure(weight);
+        }
+
+        // the evictions are notified after the lock is released
+        holdNotifications();
+        bag.getLock().writeLock().lock();
+        while (bag.isMigrated()) {
+            // the bag has been replaced by a resize
+            bag.getLock().writeLock().unlock();
+            bag = choosePlacement(key);
+            bag.getLock().writeLock().lock();
+        }
+        List<CacheEntry<Key, Value>> block = bag.getBlock();
+        try {
+            if (!replace && containsActive(bag, key)) {
+                return false;
+            }
+            EvictionPolicy<Key, Value> eviction = setDueling == null ? getEvictionPolicy() : setDueling.evictionFor(bag.getIndex());
+            Preconditions.checkNotNull(eviction, "Eviction cannot be null");
+            entry.setStatus(CacheEntryStatus.ACTIVE);
+            bag.bindPolicy(eviction, nWay);
+            removeDeleted(bag, key);
+            if (!evict && isFull(bag, weight, budget)) {
+                return false;
+            }
+            if (isFull(bag, weight, budget)) {
+                // End of bag space -> need to call eviction
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Calling eviction size {} max {} weight {} budget {} because {}", block.size(), nWay,
+                            bag.getTotalWeight(), budget, entry);
+                }
+                int size;
+                do {
+                    // the policy is called again while it frees slots but not enough weight
+                    size = block.size();
+                    // the bag is the view of the block: no copy is necessary while the write lock is owned
+                    int[] victims = bag.getVictims();
+                    int count = eviction.selectVictims(bag, victims);
+                    if (victimCache != null || secondLevel != null || staleCache != null) {
+                        demote(bag, victims, count);
+                    } else {
+                        for (int i = 0; i < count; i++) {
+                            evict(block.get(victims[i]));
+                        }
+                    }
+                    removeDeleted(bag, key);
+                } while (isFull(bag, weight, budget) && block.size() < size);
+                if (isFull(bag, weight, budget)) {
+                    // The eviction is not deleting enough: the oldest entries are evicted for keeping the block
+                    // bounded. Consider to change the eviction parameters
+                    if (LOG.isWarnEnabled()) {
+                        LOG.warn("Eviction is not deleting enough entries, evicting the oldest for {}", entry);
+                    }
+                    statsCounter.recordOverflow();
+                    while (isFull(bag, weight, budget)) {
+                        evict(block.get(0));
+                        removeDeleted(bag, key);
+                    }
+                }
+            }
+            // the new entry is added in the end for keeping the creation order
+            bag.add(entry, weight);
+            if (mappedStore != null) {
+                mappedStore.write(bag.getIndex(), entry);
+            }
+            if (bag.getState() != null) {
+                eviction.onInsert(bag, block.size() - 1);
+            }
+        } finally {
+            bag.getLock().writeLock().unlock();
+            releaseNotifications();
+        }
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Entry {} added", entry);
+        }
+        return true;
+    }
+
+    /**
+     * Verify if the block contains an active entry for {@code key}
+     *
+     * @param bag bag
+     * @param key key
+     * @return true if an active entry is found
+     */
+    private static <Key, Value> boolean containsActive(CacheBag<Key, Value> bag, Key key) {
+        int hash = CacheBag.spread(key);
+        for (int slot = 0; slot < bag.size(); slot++) {
+            if (bag.matches(slot, hash, key) && bag.isActive(slot)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Mark for deletion an entry chosen by the eviction, notify the listeners and release it. The entry is removed
+     * from the block by {@link #removeDeleted(CacheBag, Object)}.<br/>
+     * The write lock of the block has to be owned
+     *
+     * @param entry entry to evict
+     */
+    private void evict(CacheEntry<Key, Value> entry) {
+        if (entry.getStatus() == CacheEntryStatus.DELETED) {
+            // the policy can return the same slot more than once
+            return;
+        }
+        entry.setStatus(CacheEntryStatus.DELETED);
+        fireRemovalListener(entry, isCollected(entry) ? RemovalCause.COLLECTED : RemovalCause.EVICTION);
+        release(entry);
+    }
+
+    /**
+     * Remove from the block all the entries with status {@code DELETED} and any duplicate of {@code key}.<br/>
+     * The entries with status {@code DELETED} have already been notified and released by who marked them
+     * ({@link #remove(Object)}, a replacement or {@link #evict(CacheEntry)}): they are only removed from the block.
+     * An active duplicate is notified as {@code REPLACED}.<br/>
+     * The write lock of the block has to be owned
+     *
+     * @param bag bag
+     * @param key key of the entry that is going to be added
+     */
+    private void removeDeleted(CacheBag<Key, Value> bag, Key key) {
+        List<CacheEntry<Key, Value>> block = bag.getBlock();
+        int hash = CacheBag.spread(key);
+        int slot = 0;
+        while (slot < block.size()) {
+            CacheEntry<Key, Value> entryToDelete = block.get(slot);
+            boolean deleted = entryToDelete.getStatus() == CacheEntryStatus.DELETED;
+            // remove all the entries wit status DELETED and any duplicate key
+            if (deleted || bag.matches(slot, hash, key)) {
+                if (bag.getState() != null) {
+                    bag.getStatePolicy().onRemove(bag, slot);
+                }
+                bag.remove(slot);
+                if (mappedStore != null) {
+                    mappedStore.erase(bag.getIndex(), entryToDelete);
+                }
+                if (!deleted) {
+                    entryToDelete.setStatus(CacheEntryStatus.DELETED);
+                    fireRemovalListener(entryToDelete, isCollected(entryToDelete) ? RemovalCause.COLLECTED
+                            : RemovalCause.REPLACED);
+                    release(entryToDelete);
+                }
+            } else {
+                slot++;
+            }
+        }
+    }
+
+    /**
+     * Move the victims from the block to the victim cache, or to the second level if there is no victim cache.
+     * The entries pushed out of the victim cache go to the second level or are evicted, leaving their value in the
+     * stale cache if any.
+     * <br/>The write lock of the block has to be owned
+     *
+     * @param bag     bag
+     * @param victims slots selected by the eviction policy
+     * @param count   number of victims
+     */
+    private void demote(CacheBag<Key, Value> bag, int[] victims, int count) {
+        // from the last slot: the removal does not move the slots still to remove
+        Arrays.sort(victims, 0, count);
+        for (int i = count - 1; i >= 0; i--) {
+            int slot = victims[i];
+            if (i < count - 1 && slot == victims[i + 1]) {
+                continue;
+            }
+            if (bag.getState() != null) {
+                bag.getStatePolicy().onRemove(bag, slot);
+            }
+            CacheEntry<Key, Value> victim = bag.remove(slot);
+            victim.setStatus(CacheEntryStatus.DELETED);
+            if (mappedStore != null) {
+                // the victim cache is not copied in the file
+                mappedStore.erase(bag.getIndex(), victim);
+            }
+            // a collected entry is not kept anymore
+            CacheEntry<Key, Value> evicted = victimCache == null || isCollected(victim) ? victim
+                    : victimCache.offer(victim);
+            if (evicted == null) {
+                continue;
+            }
+            Key key = evicted.getKey();
+            Value value;
+            if (secondLevel != null && key != null && (value = evicted.getValue()) != null) {
+                // the second level takes its own copy of the value
+                secondLevel.addEntry(secondLevel.choosePlacement(key), key, value);
+            } else {
+                if (staleCache != null && key != null && (value = evicted.getValue()) != null) {
+                    // kept before the release: the stale cache holds the value itself
+                    staleCache.offer(key, value, System.currentTimeMillis());
+                }
+                fireRemovalListener(evicted, isCollected(evicted) ? RemovalCause.COLLECTED : RemovalCause.EVICTION);
+            }
+            release(evicted);
+        }
+    }
+
+    /**
+     * Notify the eviction policy of the bag (if it has a state) that an entry has been retrieved from the cache
+     *
+     * @param bag   bag that contains the entry
+     * @param entry entry retrieved
+     */
+    protected void notifyHit(CacheBag<Key, Value> bag, CacheEntry<Key, Value> entry) {
+        if (bag.getState() == null) {
+            // stateless policy: no lock is necessary
+            return;
+        }
+        bag.getLock().readLock().lock();
+        try {
+            if (bag.getState() == null) {
+                return;
+            }
+            List<CacheEntry<Key, Value>> block = bag.getBlock();
+            for (int slot = 0; slot < block.size(); slot++) {
+                if (block.get(slot) == entry) {
+                    bag.getStatePolicy().onHit(bag, slot);
+                    return;
+                }
+            }
+        } finally {
+            bag.getLock().readLock().unlock();
+        }
+    }
+
+    /**
+     * Retrieve the value from an entry and update the access time
+     *
+     * @param entry entry
+     * @return the value of the entry
+     */
+    protected Value getAndUpdateTime(CacheEntry<Key, Value> entry) {
+        Preconditions.checkNotNull(entry, "CacheEntry cannot be null");
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Updating access time for {}", entry);
+        }
+        // no lock is necessary because access time and hit count are volatile
+        ((CacheEntryImpl) entry).setAccessTime(System.currentTimeMillis());
+        ((CacheEntryImpl) entry).incrementHitCount();
+        return entry.getValue();
+
+    }
+
+    /**
+     * Apply the hash algorithm for retrieve the bag from the key
+     *
+     * @param key key
+     * @return bag assigned to the key
+     */
+    protected CacheBag<Key, Value> findBag(Key key) {
+        Preconditions.checkNotNull(key, "Key cannot be null");
+
+        return findBagByHash(key.hashCode());
+    }
+
+    /**
+     * Retrieve the bag of a key from the hash code of the key
+     *
+     * @param hashCode hash code of the key
+     * @return bag assigned to the key
+     */
+    protected CacheBag<Key, Value> findBagByHash(int hashCode) {
+        List<CacheBag<Key, Value>> bags = cacheBags;
+        return bags.get(Math.abs(hashCode % bags.size()));
+    }
+
+    /**
+     * Apply the second hash algorithm for retrieve the alternate bag of the key. The second hash mixes all the bits
+     * of the hash code, so keys colliding in the first bag are spread over different alternate bags
+     *
+     * @param key key
+     * @return alternate bag assigned to the key or null if the two choice placement is not used
+     */
+    protected CacheBag<Key, Value> findAlternateBag(Key key) {
+        List<CacheBag<Key, Value>> bags = cacheBags;
+        int bagPosition = alternateBagPosition(key.hashCode(), bags.size());
+        return bagPosition < 0 ? null : bags.get(bagPosition);
+    }
+
+    /**
+     * Position of the bag of a key
+     *
+     * @param hashCode  hash code of the key
+     * @param numBlocks number of blocks
+     * @return the position of the bag
+     */
+    private static int bagPosition(int hashCode, int numBlocks) {
+        return Math.abs(hashCode % numBlocks);
+    }
+
+    /**
+     * Position of the alternate bag of a key
+     *
+     * @param hashCode  hash code of the key
+     * @param numBlocks number of blocks
+     * @return the position of the alternate bag or -1 if the two choice placement is not used
+     */
+    private int alternateBagPosition(int hashCode, int numBlocks) {
+        if (!twoChoicePlacement || numBlocks < 2) {
+            return -1;
+        }
+        int hash = hashCode * 0x9E3779B9;
+        hash ^= hash >>> 16;
+        int bagPosition = Math.abs(hash % numBlocks);
+        if (bagPosition == bagPosition(hashCode, numBlocks)) {
+            bagPosition = (bagPosition + 1) % numBlocks;
+        }
+        return bagPosition;
+    }
+
+    /**
+     * <p>Choose the bag where a new entry for {@code key} has to be added.</p>
+     * <p>Without the two choice placement it is always the bag of {@link #findBag(Object)}. Otherwise the bag with
+     * less active entries is chosen while one of the two has free slots, and when both are full the bag that
+     * contains the least recently used entry (the cheaper victim). In case of tie the first bag is chosen</p>
+     *
+     * @param key key
+     * @return bag where the entry has to be added
+     */
+    protected CacheBag<Key, Value> choosePlacement(Key key) {
+        CacheBag<Key, Value> first = findBag(key);
+        CacheBag<Key, Value> alternate = findAlternateBag(key);
+        if (alternate == null) {
+            return first;
+        }
+        long[] firstCost = placementCost(first);
+        long[] alternateCost = placementCost(alternate);
+        if (firstCost[0] != alternateCost[0] && Math.min(firstCost[0], alternateCost[0]) < nWay) {
+            return firstCost[0] < alternateCost[0] ? first : alternate;
+        }
+        return alternateCost[1] < firstCost[1] ? alternate : first;
+    }
+
+    /**
+     * Calculate the cost of adding an entry in a bag
+     *
+     * @param bag bag
+     * @return number of active entries and the oldest access time of the bag
+     */
+    private long[] placementCost(CacheBag<Key, Value> bag) {
+        long active = 0;
+        long oldest = Long.MAX_VALUE;
+        bag.getLock().readLock().lock();
+        try {
+            for (CacheEntry<Key, Value> entry : bag.getBlock()) {
+                if (entry.getStatus() == CacheEntryStatus.ACTIVE) {
+                    active++;
+                    oldest = Math.min(oldest, entry.getAccessTime());
+                }
+            }
+        } finally {
+            bag.getLock().readLock().unlock();
+        }
+        return new long[]{active, oldest};
+    }
+
+    /**
+     * Search for the entries of the key in all the bags where the key can be stored
+     *
+     * @param key key
+     * @return a list of entries that should be always one element long. If nothing is found the list is empty (not null)
+     */
+    protected List<CacheEntry<Key, Value>> findEntryInAllBags(Key key) {
+        List<CacheEntry<Key, Value>> result = findEntry(key, findBag(key));
+        CacheBag<Key, Value> alternate = findAlternateBag(key);
+        if (alternate != null) {
+            List<CacheEntry<Key, Value>> alternateResult = findEntry(key, alternate);
+            if (!alternateResult.isEmpty()) {
+                result.addAll(alternateResult);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Search for an entry in the current bag from the key.<br/>
+     * Only the hashes of the keys are compared, {@code equals} is called only when the hashes are the same
+     *
+     * @param key key
+     * @param bag bag
+     * @return a list of entries that should be always one element long. If nothing is found the list is empty (not null)
+     */
+    protected List<CacheEntry<Key, Value>> findEntry(Key key, CacheBag<Key, Value> bag) {
+        Preconditions.checkNotNull(key, "Key cannot be null");
+        Preconditions.checkNotNull(bag, "Bag cannot be null");
+        int hash = CacheBag.spread(key);
+        List<CacheEntry<Key, Value>> result = new ArrayList<>(1);
+        bag.getLock().readLock().lock();
+        try {
+            for (int slot = 0; slot < bag.size(); slot++) {
+                if (bag.matches(slot, hash, key) && bag.isActive(slot)) {
+                    result.add(bag.getEntry(slot));
+                }
+            }
+            return result;
         } finally {
             bag.getLock().readLock().unlock();
         }
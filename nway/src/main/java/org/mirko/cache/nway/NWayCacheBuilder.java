@@ -1,9 +1,18 @@
 package org.mirko.cache.nway;
 
 import com.google.common.base.Preconditions;
+import org.mirko.cache.nway.algorithm.CLOCKAlgorithm;
+import org.mirko.cache.nway.algorithm.LFUAlgorithm;
 import org.mirko.cache.nway.algorithm.LRUAlgorithm;
 import org.mirko.cache.nway.algorithm.LRUExpiredAlgorithm;
 import org.mirko.cache.nway.algorithm.MRUAlgorithm;
+import org.mirko.cache.nway.algorithm.SLRUAlgorithm;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
 
 /**
  * <p>Builder for NWayCache. The builder is following the <b>convention over configuration</b> philosophy.</p>
@@ -11,10 +20,27 @@ import org.mirko.cache.nway.algorithm.MRUAlgorithm;
  * <ul>
  * <li>{@code blocks} = 50</li>
  * <li>{@code nWay} = 5</li>
- * <li>{@code maxEntryPerBlock} = 10 (nWay *2)</li>
  * <li>{@code expiration} = 30 minutes (used only by LRUExpired eviction algorithm)</li>
- * <li>{@code entriesToDelete} = 2 (used only by LRU and MRU eviction algorithms)</li>
+ * <li>{@code entriesToDelete} = 2 (used only by LRU, MRU and LFU eviction algorithms)</li>
+ * <li>{@code protectedFraction} = 0.8 (used only by SLRU eviction algorithm)</li>
  * <li>{@code eviction} = LRUAlgorithm</li>
+ * <li>{@code leaderSets} = blocks / 16, at least 1 (used only by the adaptive eviction)</li>
+ * <li>{@code victimCacheSize} = 0 (no victim cache)</li>
+ * <li>{@code twoChoicePlacement} = false (one block for every key)</li>
+ * <li>{@code migrationExecutor} = common fork join pool (used only by {@link Cache#resize(int)})</li>
+ * <li>listeners called synchronously by the thread that uses the cache</li>
+ * <li>values kept on the heap (no off-heap storage)</li>
+ * <li>values not compressed</li>
+ * <li>entries only in memory (no persistent file)</li>
+ * <li>evicted entries discarded (no second level)</li>
+ * <li>blocks bounded only by {@code nWay} (no weigher)</li>
+ * <li>geometry given by {@code blocks} and {@code nWay} (no memory budget)</li>
+ * <li>keys and values strongly referenced (no weak keys and no soft values)</li>
+ * <li>puts and removes only in the cache (no cache writer)</li>
+ * <li>loader exceptions thrown by {@link Cache#get(Object)} (no stale values)</li>
+ * <li>loads without timeout and without a limit of concurrent loads</li>
+ * <li>every miss loaded by its own call of the loader (no miss batching)</li>
+ * <li>entries loaded again only after their eviction (no early refresh)</li>
  * </ul>
  * </p>
  * <p>The NWayCache allocates a chunk of memory, subdivides this into memory blocks or buckets, each block containing N slots/items.<br/>
@@ -22,8 +48,8 @@ import org.mirko.cache.nway.algorithm.MRUAlgorithm;
  * The numbers of blocks are denominated by {@code blocks} and the size of the blocks are determined by {@code nWay}</p>
  * <p>When the space inside a block is over then an eviction algorithm will be called for removing some entries.
  * The algorithm can be custom or one of the provided one.</p>
- * <p>If the block size is major than {@link #maxEntryPerBlock} an {@link java.lang.OutOfMemoryError} exception is throw.
- * This allow the flexibility in a high concurrent environment to oscillate the size of the block</p>
+ * <p>The size of the blocks never grows over {@code nWay}: if the eviction algorithm does not delete any entry the
+ * oldest entries of the block are evicted and the overflow is counted in {@link Cache#stats()}.</p>
  * <p>The concurrency locks are used only when an entry is deleted or added to the block. In other words the lock is at block level.</p>
  * <p>A brief cache introduction can be found <a href="http://csillustrated.berkeley.edu/PDFs/handouts/cache-3-associativity-handout.pdf">here</a></p>
  * <p>Example for the default cache:<br/>
@@ -53,13 +79,64 @@ import org.mirko.cache.nway.algorithm.MRUAlgorithm;
  */
 @SuppressWarnings("JavaDoc")
 public class NWayCacheBuilder<Key, Value> {
+    /**
+     * Estimated bytes used by the cache for every entry besides key and value (the entry and its slot, hash and
+     * weight in the block, with compressed references)
+     */
+    /*package*/ static final int ENTRY_OVERHEAD = 48;
+    /**
+     * How many times the blocks can grow over {@code nWay} when the entries are lighter than expected
+     */
+    /*package*/ static final int CAPACITY_HEADROOM = 4;
 
     private int blocks = 50;
     private int nWay = 5;
     private long expiration = 30 * 60 * 1000;
     private int entriesToDelete = 2;
-    private int maxEntryPerBlock = 10;
-    private CacheEviction<Key, Value> eviction = new LRUAlgorithm<>();
+    private int maxEntryPerBlock;
+    private double protectedFraction = 0.8;
+    private EvictionPolicy<Key, Value> eviction = new LRUAlgorithm<>();
+    private EvictionPolicy<Key, Value> adaptiveEviction;
+    private int leaderSets;
+    private int victimCacheSize;
+    private boolean twoChoicePlacement;
+    private Executor migrationExecutor;
+    private Executor listenerExecutor;
+    private int listenerQueueSize;
+    private NotificationOverflow listenerOverflow;
+    private Serializer<Value> serializer;
+    private long offHeapBytes;
+    private Serializer<Value> compressionSerializer;
+    private int compressionThreshold;
+    private int decompressedCacheSize;
+    private Path file;
+    private Serializer<Key> fileKeySerializer;
+    private Serializer<Value> fileValueSerializer;
+    private int maxEntrySize;
+    private NWayCacheBuilder<Key, Value> secondLevel;
+    private Weigher<Key, Value> weigher;
+    private long maximumWeight;
+    private long maxMemory;
+    private int averageEntrySize;
+    private Weigher<Key, Value> memoryWeigher;
+    private boolean weakKeys;
+    private boolean softValues;
+    private CacheWriter<Key, Value> cacheWriter;
+    private ScheduledExecutorService writeBehindScheduler;
+    private long writeBehindDelay;
+    private int writeBehindBatchSize;
+    private int staleCacheSize;
+    private long staleGracePeriod;
+    private long staleRetryBackoff;
+    private long loaderTimeout;
+    private Executor loaderExecutor;
+    private int maxConcurrentLoads;
+    private LoadOverflow loadOverflow;
+    private long missBatchWindow;
+    private int missBatchSize;
+    private long refreshAfter;
+    private double refreshBeta;
+    private Executor refreshExecutor;
 
     /**
      * Number of memory blocks (or buckets) managed by the cache.<br/>
@@ -95,7 +172,9 @@ public class NWayCacheBuilder<Key, Value> {
      * @param maxEntryPerBlock number of entry per block before an exception
      * @return self
      * @throws java.lang.IllegalArgumentException if maxEntryPerBlock is < 2
+     * @deprecated the blocks never grow over {@code nWay} and no error is raised. The value is only validated
      */
+    @Deprecated
     public NWayCacheBuilder<Key, Value> maxEntryPerBlock(int maxEntryPerBlock) {
         Preconditions.checkArgument(maxEntryPerBlock > 1, "maxEntryPerBlock has to be at least 2");
         this.maxEntryPerBlock = maxEntryPerBlock;
@@ -119,7 +198,7 @@ public class NWayCacheBuilder<Key, Value> {
 
     /**
      * Define how many  entries will be deleted for each eviction.<br/>
-     * It is used only by {@link LRUAlgorithm} and {@link MRUAlgorithm}<br/>
+     * It is used only by {@link LRUAlgorithm}, {@link MRUAlgorithm} and {@link LFUAlgorithm}<br/>
      * Default is 2
      *
      * @param entriesToDelete entries to delete for each eviction
@@ -132,6 +211,21 @@ public class NWayCacheBuilder<Key, Value> {
         return this;
     }
 
+    /**
+     * Define the fraction of every block reserved to the entries hit at least once (protected segment).<br/>
+     * It is used only by {@link SLRUAlgorithm}<br/>
+     * Default is 0.8
+     *
+     * @param protectedFraction fraction of the block for the protected segment
+     * @return self
+     * @throws java.lang.IllegalArgumentException if protectedFraction is not in (0, 1)
+     */
+    public NWayCacheBuilder<Key, Value> protectedFraction(double protectedFraction) {
+        Preconditions.checkArgument(protectedFraction > 0 && protectedFraction < 1, "Protected fraction has to be in (0, 1)");
+        this.protectedFraction = protectedFraction;
+        return this;
+    }
+
     /**
      * Define a custom algorithm for eviction. <br/>
      * Look the documentations for {@link CacheEviction}
@@ -140,7 +234,555 @@ public class NWayCacheBuilder<Key, Value> {
      * @return self
      */
     public NWayCacheBuilder<Key, Value> customEviction(CacheEviction<Key, Value> eviction) {
-        this.eviction = eviction;
+        this.eviction = CacheEvictionAdapter.adapt(eviction);
+        this.adaptiveEviction = null;
+        return this;
+    }
+
+    /**
+     * Define a custom policy for eviction. <br/>
+     * Look the documentations for {@link EvictionPolicy}
+     *
+     * @param evictionPolicy your custom implementation
+     * @return self
+     */
+    public NWayCacheBuilder<Key, Value> customEvictionPolicy(EvictionPolicy<Key, Value> evictionPolicy) {
+        this.eviction = evictionPolicy;
+        this.adaptiveEviction = null;
+        return this;
+    }
+
+    /**
+     * Choose at runtime between two eviction algorithms with the set dueling technique.<br/>
+     * A few blocks (leader sets) always use {@code first} or {@code second}: the algorithm with less misses in its
+     * leader sets is used by all the other blocks. The algorithms are configured with the builder parameters as
+     * the single ones.<br/>
+     * Example:
+     * <pre>{@code
+     * Cache<Integer, String> myCache = new NWayCacheBuilder<Integer, String>()
+     *      .adaptiveEviction(new LRUAlgorithm<>(), new LFUAlgorithm<>())
+     *      .build(key -> {return data from somewhere...});
+     * }</pre>
+     *
+     * @param first  first eviction algorithm
+     * @param second second eviction algorithm
+     * @return self
+     * @throws java.lang.NullPointerException if one of the algorithms is null
+     */
+    public NWayCacheBuilder<Key, Value> adaptiveEviction(CacheEviction<Key, Value> first, CacheEviction<Key, Value> second) {
+        Preconditions.checkNotNull(first, "First eviction cannot be null");
+        Preconditions.checkNotNull(second, "Second eviction cannot be null");
+        this.eviction = CacheEvictionAdapter.adapt(first);
+        this.adaptiveEviction = CacheEvictionAdapter.adapt(second);
+        return this;
+    }
+
+    /**
+     * Number of blocks dedicated to each algorithm of the adaptive eviction.<br/>
+     * It is used only by {@link #adaptiveEviction(CacheEviction, CacheEviction)}<br/>
+     * Default is blocks / 16 (at least 1)
+     *
+     * @param leaderSets number of leader sets for each algorithm
+     * @return self
+     * @throws java.lang.IllegalArgumentException if leaderSets is < 1
+     */
+    public NWayCacheBuilder<Key, Value> leaderSets(int leaderSets) {
+        Preconditions.checkArgument(leaderSets > 0, "leaderSets has to be at least 1");
+        this.leaderSets = leaderSets;
+        return this;
+    }
+
+    /**
+     * Keep the last known value of the evicted keys and return it when the loader fails (stale while error).<br/>
+     * The value of an evicted entry is kept for {@code gracePeriod} milliseconds: a miss that fails within the grace
+     * period returns the stale value instead of throwing a {@link CacheLoaderException}, and the key backs off for
+     * {@code retryBackoff} milliseconds (doubled at every failure, up to the grace period) returning the stale value
+     * without calling the loader. The stale values are counted in {@link CacheStats#getStaleHitCount()}, and a
+     * removed key is never served stale. The stale values are held by a single lock and on the heap, then the stale
+     * cache should be small.<br/>
+     * Default is no stale values
+     *
+     * @param size         max number of stale values
+     * @param gracePeriod  time in milliseconds a value is kept after its eviction
+     * @param retryBackoff time in milliseconds the loader is not called after a failure
+     * @return self
+     * @throws java.lang.IllegalArgumentException if size < 1, gracePeriod < 1 or retryBackoff < 1
+     */
+    public NWayCacheBuilder<Key, Value> staleWhileError(int size, long gracePeriod, long retryBackoff) {
+        Preconditions.checkArgument(size > 0, "Stale cache size has to be at least 1");
+        Preconditions.checkArgument(gracePeriod > 0, "Grace period has to be > 0");
+        Preconditions.checkArgument(retryBackoff > 0, "Retry backoff has to be > 0");
+        this.staleCacheSize = size;
+        this.staleGracePeriod = gracePeriod;
+        this.staleRetryBackoff = retryBackoff;
+        return this;
+    }
+
+    /**
+     * Max time of a load.<br/>
+     * The loader runs on {@code executor} and the thread that called {@link Cache#get(Object)} waits for it at most
+     * {@code timeout} milliseconds: a load that takes longer is interrupted and {@code get} throws a
+     * {@link CacheLoaderException} caused by a {@link java.util.concurrent.TimeoutException} (or returns the stale
+     * value, see {@link #staleWhileError(int, long, long)}). The timeouts are counted in
+     * {@link CacheStats#getLoadTimeoutCount()}.<br/>
+     * Default is no timeout (the loader runs on the thread that called {@code get})
+     *
+     * @param timeout  max time of a load in milliseconds
+     * @param executor executor of the loads
+     * @return self
+     * @throws java.lang.NullPointerException     if executor is null
+     * @throws java.lang.IllegalArgumentException if timeout < 1
+     */
+    public NWayCacheBuilder<Key, Value> loaderTimeout(long timeout, Executor executor) {
+        Preconditions.checkArgument(timeout > 0, "Timeout has to be > 0");
+        Preconditions.checkNotNull(executor, "Executor cannot be null");
+        this.loaderTimeout = timeout;
+        this.loaderExecutor = executor;
+        return this;
+    }
+
+    /**
+     * Max number of loads running at the same time (bulkhead), for protecting the backing store from the miss storms
+     * (for example after a cold restart).<br/>
+     * When all the loads are running a new load waits or fails, following {@code overflow}. A load that waits is
+     * bounded by the loader timeout, if any, and a load that fails is counted in
+     * {@link CacheStats#getRejectedLoadCount()}.<br/>
+     * Default is no limit
+     *
+     * @param maxLoads max loads running at the same time
+     * @param overflow behaviour when all the loads are running
+     * @return self
+     * @throws java.lang.NullPointerException     if overflow is null
+     * @throws java.lang.IllegalArgumentException if maxLoads < 1
+     */
+    public NWayCacheBuilder<Key, Value> maxConcurrentLoads(int maxLoads, LoadOverflow overflow) {
+        Preconditions.checkArgument(maxLoads > 0, "maxLoads has to be at least 1");
+        Preconditions.checkNotNull(overflow, "Overflow cannot be null");
+        this.maxConcurrentLoads = maxLoads;
+        this.loadOverflow = overflow;
+        return this;
+    }
+
+    /**
+     * Load the concurrent misses on different keys with a single call of
+     * {@link CacheLoader#loadAll(java.util.Collection)}.<br/>
+     * The first miss waits up to {@code window} milliseconds, or until {@code maxBatch} keys are collected, for the
+     * misses of the other threads, then all the keys are loaded together and every thread receives its own value.
+     * Every miss can wait up to {@code window} more, so the batching fits the caches used by many threads with a
+     * loader that supports batches. The keys missing in the result of {@code loadAll} are loaded with
+     * {@link CacheLoader#load(Object)}.<br/>
+     * Default is no batching
+     *
+     * @param window   time in milliseconds a batch waits for other misses
+     * @param maxBatch max keys in a batch
+     * @return self
+     * @throws java.lang.IllegalArgumentException if window < 1 or maxBatch < 2
+     */
+    public NWayCacheBuilder<Key, Value> missBatching(long window, int maxBatch) {
+        Preconditions.checkArgument(window > 0, "Window has to be > 0");
+        Preconditions.checkArgument(maxBatch > 1, "maxBatch has to be at least 2");
+        this.missBatchWindow = window;
+        this.missBatchSize = maxBatch;
+        return this;
+    }
+
+    /**
+     * Refresh the entries in background before they get old, with the probabilistic early recomputation (XFetch).<br/>
+     * Every hit on an entry can start a background load of its key: the probability rises while the age of the
+     * entry gets closer to {@code refreshAfter}, and earlier for the keys that are slow to load (the load time of
+     * every key is measured). An entry older than {@code refreshAfter} is always refreshed by its next hit. The
+     * entries loaded at the same time (for example at warm-up) are then refreshed at different times, without a
+     * wave of loads. The hit returns the current value, and the entry is replaced when the load completes: a
+     * failure of the refresh is only logged.<br/>
+     * Default is no early refresh
+     *
+     * @param refreshAfter age in milliseconds at which an entry is always refreshed by a hit
+     * @param beta         weight of the load time: 1 is the usual value, > 1 refreshes earlier
+     * @param executor     executor of the refreshes
+     * @return self
+     * @throws java.lang.NullPointerException     if executor is null
+     * @throws java.lang.IllegalArgumentException if refreshAfter < 1 or beta <= 0
+     */
+    public NWayCacheBuilder<Key, Value> earlyRefresh(long refreshAfter, double beta, Executor executor) {
+        Preconditions.checkArgument(refreshAfter > 0, "refreshAfter has to be > 0");
+        Preconditions.checkArgument(beta > 0, "Beta has to be > 0");
+        Preconditions.checkNotNull(executor, "Executor cannot be null");
+        this.refreshAfter = refreshAfter;
+        this.refreshBeta = beta;
+        this.refreshExecutor = executor;
+        return this;
+    }
+
+    /**
+     * Size of the victim cache shared by all the blocks.<br/>
+     * The entries evicted from a block are moved in the victim cache and are moved back in the block if requested
+     * again before being pushed out: few hot keys in the same block do not evict each other and the {@code nWay} can
+     * stay small. The victim cache is fully associative and protected by a single lock, then it should be small
+     * (for example a few entries for each block that has conflicts).<br/>
+     * Default is 0 (no victim cache)
+     *
+     * @param victimCacheSize max number of entries in the victim cache, 0 for disabling it
+     * @return self
+     * @throws java.lang.IllegalArgumentException if victimCacheSize is < 0
+     */
+    public NWayCacheBuilder<Key, Value> victimCacheSize(int victimCacheSize) {
+        Preconditions.checkArgument(victimCacheSize >= 0, "victimCacheSize cannot be negative");
+        this.victimCacheSize = victimCacheSize;
+        return this;
+    }
+
+    /**
+     * Keep the values outside the heap, in direct memory limited to {@code maxBytes}.<br/>
+     * The values are converted in bytes by the {@code serializer} and copied in slabs of direct memory (1MB or
+     * {@code maxBytes} if smaller) split in chunks of power of two sizes: only a small handle for every entry
+     * stays on the heap and the value is deserialized on every hit. The garbage collector does not scan the values
+     * anymore, at the cost of a serialization for every insert and a deserialization for every hit.<br/>
+     * When there is no free chunk for a value (or the value is bigger than a slab) the value is returned by the cache
+     * without storing it. The memory of a slab is never given back and a slab is never moved from a chunk size to
+     * another, then {@code maxBytes} should leave some space over the expected size of the values.<br/>
+     * Default is to keep the values on the heap
+     *
+     * @param serializer serializer of the values, has to be thread safe
+     * @param maxBytes   max direct memory used by the values
+     * @return self
+     * @throws java.lang.NullPointerException     if serializer is null
+     * @throws java.lang.IllegalArgumentException if maxBytes < 64
+     */
+    public NWayCacheBuilder<Key, Value> offHeap(Serializer<Value> serializer, long maxBytes) {
+        Preconditions.checkNotNull(serializer, "Serializer cannot be null");
+        Preconditions.checkArgument(maxBytes >= SlabAllocator.MIN_CHUNK_SIZE,
+                "maxBytes has to be at least " + SlabAllocator.MIN_CHUNK_SIZE);
+        this.serializer = serializer;
+        this.offHeapBytes = maxBytes;
+        return this;
+    }
+
+    /**
+     * Keep the big values compressed on the heap.<br/>
+     * Every value is converted in bytes by the {@code serializer}: the values of at least {@code threshold} bytes
+     * are compressed with the JDK {@link java.util.zip.Deflater} at the best speed level and decompressed on every
+     * hit, the smaller values (and the values that do not compress) are kept as they are. The text and the JSON
+     * usually take several times less memory, at the cost of a serialization for every insert and a decompression
+     * for every hit of a compressed value. The compression ratio and the time spent compressing and decompressing
+     * are reported by {@link Cache#stats()}. The compression cannot be used with the off-heap storage or the soft
+     * values.<br/>
+     * Default is to keep the values as they are
+     *
+     * @param serializer serializer of the values, has to be thread safe
+     * @param threshold  min size in bytes of the serialized values to compress
+     * @return self
+     * @throws java.lang.NullPointerException     if serializer is null
+     * @throws java.lang.IllegalArgumentException if threshold < 1
+     */
+    public NWayCacheBuilder<Key, Value> compression(Serializer<Value> serializer, int threshold) {
+        return compression(serializer, threshold, 0);
+    }
+
+    /**
+     * Keep the big values compressed on the heap, as {@link #compression(Serializer, int)}, with a side cache of the
+     * values decompressed.<br/>
+     * The side cache has {@code decompressedCacheSize} slots (rounded up to a power of two) and every compressed value
+     * is mapped to one slot: a slot keeps the last value decompressed, so the hottest values are not decompressed on
+     * every hit. The side cache should be small, the decompressed values are kept in the heap as they are
+     *
+     * @param serializer            serializer of the values, has to be thread safe
+     * @param threshold             min size in bytes of the serialized values to compress
+     * @param decompressedCacheSize slots of the side cache of the decompressed values, 0 for no side cache
+     * @return self
+     * @throws java.lang.NullPointerException     if serializer is null
+     * @throws java.lang.IllegalArgumentException if threshold < 1 or decompressedCacheSize < 0
+     */
+    public NWayCacheBuilder<Key, Value> compression(Serializer<Value> serializer, int threshold,
+                                                    int decompressedCacheSize) {
+        Preconditions.checkNotNull(serializer, "Serializer cannot be null");
+        Preconditions.checkArgument(threshold > 0, "threshold has to be at least 1");
+        Preconditions.checkArgument(decompressedCacheSize >= 0, "decompressedCacheSize cannot be negative");
+        this.compressionSerializer = serializer;
+        this.compressionThreshold = threshold;
+        this.decompressedCacheSize = decompressedCacheSize;
+        return this;
+    }
+
+    /**
+     * Copy the blocks in a memory mapped file, so the entries survive a restart.<br/>
+     * The file has the layout of the cache: {@code blocks * nWay} slots of {@code maxEntrySize} bytes (plus 24 bytes
+     * of header for every slot). Every entry is written in a slot of its block when added and the slot is emptied
+     * when the entry leaves the block. When the cache is built on an existing file with the same {@code blocks},
+     * {@code nWay} and {@code maxEntrySize} the entries of the file are added to the cache without calling the
+     * loader; a file with a different geometry is cleared. Every slot has a checksum: the corrupted slots are
+     * discarded.<br/>
+     * The keys need a hash code that does not change between the JVMs (for example String, Long and the other value
+     * objects), the entries bigger than {@code maxEntrySize} stay only in memory and the number of blocks cannot
+     * be changed with {@link Cache#resize(int)}. The file is locked: it cannot be used by two caches at the same time.
+     * <br/>Default is to keep the entries only in memory
+     *
+     * @param file            path of the file, created if missing
+     * @param keySerializer   serializer of the keys, has to be thread safe
+     * @param valueSerializer serializer of the values, has to be thread safe
+     * @param maxEntrySize    max size in bytes of key and value serialized
+     * @return self
+     * @throws java.lang.NullPointerException     if file or one of the serializers is null
+     * @throws java.lang.IllegalArgumentException if maxEntrySize < 1
+     */
+    public NWayCacheBuilder<Key, Value> persistent(Path file, Serializer<Key> keySerializer,
+                                                   Serializer<Value> valueSerializer, int maxEntrySize) {
+        Preconditions.checkNotNull(file, "File cannot be null");
+        Preconditions.checkNotNull(keySerializer, "Key serializer cannot be null");
+        Preconditions.checkNotNull(valueSerializer, "Value serializer cannot be null");
+        Preconditions.checkArgument(maxEntrySize > 0, "maxEntrySize has to be at least 1");
+        this.file = file;
+        this.fileKeySerializer = keySerializer;
+        this.fileValueSerializer = valueSerializer;
+        this.maxEntrySize = maxEntrySize;
+        return this;
+    }
+
+    /**
+     * Demote the evicted entries in a second level cache, built by another builder.<br/>
+     * This cache becomes a small and fast first level: the entries chosen by its eviction policy (or pushed out of
+     * its victim cache) are moved in the second level, and a miss checks the second level before calling the loader.
+     * A hit in the second level promotes the entry back in the first level. The second level is usually much bigger
+     * and keeps the values off-heap or in a file:
+     * <pre>{@code
+     * Cache<Long, User> myCache = new NWayCacheBuilder<Long, User>()
+     *      .blocks(1000)
+     *      .secondLevel(new NWayCacheBuilder<Long, User>()
+     *          .blocks(20000)
+     *          .offHeap(new UserSerializer(), 4L * 1024 * 1024 * 1024))
+     *      .build(id -> {return data from somewhere...});
+     * }</pre>
+     * The loader of the second level is never called. The listeners of this cache are notified when an entry is
+     * evicted from the second level, not when it is demoted.<br/>
+     * Default is to discard the evicted entries
+     *
+     * @param secondLevel builder of the second level
+     * @return self
+     * @throws java.lang.NullPointerException     if secondLevel is null
+     * @throws java.lang.IllegalArgumentException if secondLevel is this builder
+     */
+    public NWayCacheBuilder<Key, Value> secondLevel(NWayCacheBuilder<Key, Value> secondLevel) {
+        Preconditions.checkNotNull(secondLevel, "Second level cannot be null");
+        Preconditions.checkArgument(secondLevel != this, "A cache cannot be its own second level");
+        this.secondLevel = secondLevel;
+        return this;
+    }
+
+    /**
+     * Bound the cache by the total weight of the entries instead of only by their number.<br/>
+     * The weight of every entry is calculated by the {@code weigher} when the entry is added to a block (usually the
+     * size in bytes of the value) and every block can hold entries for {@code maximumWeight / blocks}: when a new
+     * entry does not fit the eviction policy is called until the block has enough space, so the total weight of the
+     * cache never goes over {@code maximumWeight}. The blocks are still bounded by {@code nWay}, that should be big
+     * enough for the lightest entries. An entry heavier than the budget of a block is not added and is notified as
+     * evicted.
+     * <pre>{@code
+     * Cache<String, byte[]> myCache = new NWayCacheBuilder<String, byte[]>()
+     *      .blocks(1000)
+     *      .nWay(64)
+     *      .maximumWeight((key, value) -> value.length, 256L * 1024 * 1024)
+     *      .build(key -> {return data from somewhere...});
+     * }</pre>
+     * Default is no weigher
+     *
+     * @param weigher       weigher of the entries, has to be thread safe
+     * @param maximumWeight max total weight of the entries
+     * @return self
+     * @throws java.lang.NullPointerException     if weigher is null
+     * @throws java.lang.IllegalArgumentException if maximumWeight < 1
+     */
+    public NWayCacheBuilder<Key, Value> maximumWeight(Weigher<Key, Value> weigher, long maximumWeight) {
+        Preconditions.checkNotNull(weigher, "Weigher cannot be null");
+        Preconditions.checkArgument(maximumWeight > 0, "maximumWeight has to be at least 1");
+        this.weigher = weigher;
+        this.maximumWeight = maximumWeight;
+        return this;
+    }
+
+    /**
+     * Calculate the number of blocks from a memory budget instead of using {@code blocks}.<br/>
+     * The cache holds about {@code maxBytes / (averageEntrySize + 48)} entries in blocks of {@code nWay} entries,
+     * where 48 bytes is the estimated cost of an entry in the cache besides key and value. The entries are not
+     * measured: when the real size of the entries is different from {@code averageEntrySize} the memory used is
+     * different from {@code maxBytes}, see {@link #maximumMemory(long, int, Weigher)}.<br/>
+     * Default is to use {@code blocks}
+     *
+     * @param maxBytes         target memory of the cache
+     * @param averageEntrySize expected average size in bytes of key and value
+     * @return self
+     * @throws java.lang.IllegalArgumentException if maxBytes or averageEntrySize < 1
+     */
+    public NWayCacheBuilder<Key, Value> maximumMemory(long maxBytes, int averageEntrySize) {
+        Preconditions.checkArgument(maxBytes > 0, "maxBytes has to be at least 1");
+        Preconditions.checkArgument(averageEntrySize > 0, "averageEntrySize has to be at least 1");
+        this.maxMemory = maxBytes;
+        this.averageEntrySize = averageEntrySize;
+        this.memoryWeigher = null;
+        return this;
+    }
+
+    /**
+     * Calculate the number of blocks from a memory budget and keep the cache within the budget measuring the size of
+     * the entries.<br/>
+     * The geometry is calculated from {@code averageEntrySize} as in {@link #maximumMemory(long, int)}, then the
+     * cache is bounded by weight as with {@link #maximumWeight(Weigher, long)}: the weight of an entry is the size
+     * given by the {@code weigher} plus 48 bytes. The blocks can grow up to 4 times {@code nWay} and their capacity
+     * is adjusted continuously from the moving average of the sizes measured: when the mix of the values drifts
+     * the blocks hold more or less entries and the total stays under {@code maxBytes}.
+     * <pre>{@code
+     * Cache<String, byte[]> myCache = new NWayCacheBuilder<String, byte[]>()
+     *      .nWay(8)
+     *      .maximumMemory(256L * 1024 * 1024, 4096, (key, value) -> key.length() * 2 + value.length)
+     *      .build(key -> {return data from somewhere...});
+     * }</pre>
+     * Default is to use {@code blocks}
+     *
+     * @param maxBytes         target memory of the cache
+     * @param averageEntrySize expected average size in bytes of key and value
+     * @param weigher          size in bytes of key and value, has to be thread safe
+     * @return self
+     * @throws java.lang.NullPointerException     if weigher is null
+     * @throws java.lang.IllegalArgumentException if maxBytes or averageEntrySize < 1
+     */
+    public NWayCacheBuilder<Key, Value> maximumMemory(long maxBytes, int averageEntrySize, Weigher<Key, Value> weigher) {
+        Preconditions.checkNotNull(weigher, "Weigher cannot be null");
+        maximumMemory(maxBytes, averageEntrySize);
+        this.memoryWeigher = weigher;
+        return this;
+    }
+
+    /**
+     * Hold the keys with weak references: an entry is removed when its key is not referenced anymore outside the
+     * cache.<br/>
+     * The keys are still compared with {@code equals}, then the entry can be removed also while the application
+     * uses another instance equal to the key: the weak keys are useful for the keys whose instance is shared (for
+     * example the objects used as metadata of other objects). The collected entries are removed from their blocks
+     * before the next insert and notified to the removal listeners with cause {@link RemovalCause#COLLECTED}. The
+     * weak keys cannot be used with a persistent file or with {@link #buildLong(CacheLoader)}.<br/>
+     * Default is to hold the keys with strong references
+     *
+     * @return self
+     */
+    public NWayCacheBuilder<Key, Value> weakKeys() {
+        this.weakKeys = true;
+        return this;
+    }
+
+    /**
+     * Hold the values with soft references: the garbage collector can reclaim the values when the heap is low,
+     * instead of raising an {@link OutOfMemoryError}.<br/>
+     * The cache uses the spare heap for large values that can be loaded again: a reclaimed value is a miss and is
+     * loaded again by the loader. The collected entries are removed from their blocks before the next insert and
+     * notified to the removal listeners with cause {@link RemovalCause#COLLECTED}. The soft references are cleared
+     * by the garbage collector in least recently used order, but globally for all the heap: the eviction policy
+     * and the size of the cache should still bound the memory. The soft values cannot be used with
+     * {@link #offHeap(Serializer, long)}.<br/>
+     * Default is to hold the values with strong references
+     *
+     * @return self
+     */
+    public NWayCacheBuilder<Key, Value> softValues() {
+        this.softValues = true;
+        return this;
+    }
+
+    /**
+     * Every key can be stored in two blocks chosen by two different hash functions (skewed associative placement).<br/>
+     * The lookups check both the blocks and a new entry is added in the block with less entries or, when both the
+     * blocks are full, in the block with the least recently used entry. The load is spread better over the blocks and
+     * the conflict misses are reduced with the same {@code blocks * nWay} memory, at the cost of a second lookup
+     * for the misses.<br/>
+     * Default is one block for every key
+     *
+     * @return self
+     */
+    public NWayCacheBuilder<Key, Value> twoChoicePlacement() {
+        this.twoChoicePlacement = true;
+        return this;
+    }
+
+    /**
+     * Executor for the background migration of the entries after a {@link Cache#resize(int)}.<br/>
+     * Default is the common fork join pool
+     *
+     * @param migrationExecutor executor for the migration task
+     * @return self
+     * @throws java.lang.NullPointerException if migrationExecutor is null
+     */
+    public NWayCacheBuilder<Key, Value> migrationExecutor(Executor migrationExecutor) {
+        Preconditions.checkNotNull(migrationExecutor, "Migration executor cannot be null");
+        this.migrationExecutor = migrationExecutor;
+        return this;
+    }
+
+    /**
+     * Deliver the removal, miss and cached notifications asynchronously on {@code executor}.<br/>
+     * The notifications are added in a bounded queue and delivered in batches, in the same order they are
+     * generated: a slow listener does not stall the threads that use the cache. When the queue is full the
+     * notification is dropped or the thread waits, following {@code overflow}.<br/>
+     * Default is calling the listeners synchronously
+     *
+     * @param executor  executor for the listeners
+     * @param queueSize max notifications waiting to be delivered
+     * @param overflow  behaviour when the queue is full
+     * @return self
+     * @throws java.lang.NullPointerException     if executor or overflow is null
+     * @throws java.lang.IllegalArgumentException if queueSize < 1
+     */
+    public NWayCacheBuilder<Key, Value> asyncListeners(Executor executor, int queueSize, NotificationOverflow overflow) {
+        Preconditions.checkNotNull(executor, "Executor cannot be null");
+        Preconditions.checkNotNull(overflow, "Overflow cannot be null");
+        Preconditions.checkArgument(queueSize > 0, "queueSize has to be at least 1");
+        this.listenerExecutor = executor;
+        this.listenerQueueSize = queueSize;
+        this.listenerOverflow = overflow;
+        return this;
+    }
+
+    /**
+     * Write every {@link Cache#put(Object, Object)} and {@link Cache#remove(Object)} synchronously in the backing
+     * store through {@code writer}, before changing the cache: when the writer fails a
+     * {@link CacheWriterException} is thrown and the cache is not modified.<br/>
+     * Default is no cache writer
+     *
+     * @param writer writer of the backing store
+     * @return self
+     * @throws java.lang.NullPointerException if writer is null
+     */
+    public NWayCacheBuilder<Key, Value> writeThrough(CacheWriter<Key, Value> writer) {
+        Preconditions.checkNotNull(writer, "Writer cannot be null");
+        this.cacheWriter = writer;
+        this.writeBehindScheduler = null;
+        return this;
+    }
+
+    /**
+     * Write every {@link Cache#put(Object, Object)} and {@link Cache#remove(Object)} asynchronously in the backing
+     * store through {@code writer}. The changes are coalesced by key, so only the last change of a key is written,
+     * and flushed with {@link CacheWriter#writeAll(java.util.Map)} and
+     * {@link CacheWriter#deleteAll(java.util.Collection)} every {@code delay} milliseconds or as soon as
+     * {@code batchSize} keys are changed. A miss flushes the change of its key before calling the loader, and
+     * {@link Cache#flush()} writes all the changes (for example before shutting down {@code scheduler}). The
+     * changes that fail are retried by the next flush.<br/>
+     * Default is no cache writer
+     *
+     * @param writer    writer of the backing store
+     * @param scheduler scheduler of the flushes
+     * @param delay     time in milliseconds between two flushes
+     * @param batchSize max keys written in a batch
+     * @return self
+     * @throws java.lang.NullPointerException     if writer or scheduler is null
+     * @throws java.lang.IllegalArgumentException if delay < 1 or batchSize < 1
+     */
+    public NWayCacheBuilder<Key, Value> writeBehind(CacheWriter<Key, Value> writer, ScheduledExecutorService scheduler,
+                                                    long delay, int batchSize) {
+        Preconditions.checkNotNull(writer, "Writer cannot be null");
+        Preconditions.checkNotNull(scheduler, "Scheduler cannot be null");
+        Preconditions.checkArgument(delay > 0, "Delay has to be > 0");
+        Preconditions.checkArgument(batchSize > 0, "batchSize has to be at least 1");
+        this.cacheWriter = writer;
+        this.writeBehindScheduler = scheduler;
+        this.writeBehindDelay = delay;
+        this.writeBehindBatchSize = batchSize;
         return this;
     }
 
@@ -152,6 +794,7 @@ public class NWayCacheBuilder<Key, Value> {
      */
     public NWayCacheBuilder<Key, Value> LRUEviction() {
         this.eviction = new LRUAlgorithm<>();
+        this.adaptiveEviction = null;
         return this;
     }
 
@@ -163,6 +806,7 @@ public class NWayCacheBuilder<Key, Value> {
      */
     public NWayCacheBuilder<Key, Value> LRUExpiredEviction() {
         this.eviction = new LRUExpiredAlgorithm<>();
+        this.adaptiveEviction = null;
         return this;
     }
 
@@ -174,6 +818,43 @@ public class NWayCacheBuilder<Key, Value> {
      */
     public NWayCacheBuilder<Key, Value> MRUEviction() {
         this.eviction = new MRUAlgorithm<>();
+        this.adaptiveEviction = null;
+        return this;
+    }
+
+    /**
+     * Scan resistant eviction algorithm that split every block in a probationary and a protected segment.<br/>
+     * See {@link SLRUAlgorithm}
+     *
+     * @return self
+     */
+    public NWayCacheBuilder<Key, Value> SLRUEviction() {
+        this.eviction = new SLRUAlgorithm<>();
+        this.adaptiveEviction = null;
+        return this;
+    }
+
+    /**
+     * Eviction algorithm that delete the least frequently used entries.<br/>
+     * See {@link LFUAlgorithm}
+     *
+     * @return self
+     */
+    public NWayCacheBuilder<Key, Value> LFUEviction() {
+        this.eviction = new LFUAlgorithm<>();
+        this.adaptiveEviction = null;
+        return this;
+    }
+
+    /**
+     * Second chance eviction algorithm that keeps a reference bit for every entry and a clock hand for every block.<br/>
+     * See {@link CLOCKAlgorithm}
+     *
+     * @return self
+     */
+    public NWayCacheBuilder<Key, Value> CLOCKEviction() {
+        this.eviction = new CLOCKAlgorithm<>();
+        this.adaptiveEviction = null;
         return this;
     }
 
@@ -183,21 +864,185 @@ public class NWayCacheBuilder<Key, Value> {
      * @param loader mandatory and not null
      * @return the cache with the parameters chosen
      * @throws java.lang.NullPointerException if loader is null
-     * @throws java.lang.IllegalStateException if maxEntryPerBlock < nWay
+     * @throws java.lang.IllegalStateException if maxEntryPerBlock < nWay or there are not enough blocks for the
+     *                                         leader sets of the adaptive eviction or the persistent file is used
+     *                                         by another process or maximumWeight < blocks or both
+     *                                         maximumWeight and maximumMemory are used or weakKeys is used with a
+     *                                         persistent file or softValues or compression with offHeap or
+     *                                         softValues with compression
+     * @throws java.io.UncheckedIOException    if the persistent file cannot be opened
      */
     public Cache<Key, Value> build(CacheLoader<Key, Value> loader) {
         Preconditions.checkNotNull(loader, "Must implement a loader");
-        Preconditions.checkState(maxEntryPerBlock >= nWay, "maxEntryPerBlock has to be major or equals to nWay");
+        Preconditions.checkState(maxEntryPerBlock == 0 || maxEntryPerBlock >= nWay,
+                "maxEntryPerBlock has to be major or equals to nWay");
+        NWayCache<Key, Value> cache = new NWayCache<>(numBlocks(), ways(), Math.max(ways(), maxEntryPerBlock));
+        setup(cache, loader);
+        return cache;
+    }
+
+    /**
+     * Build the n-way cache specialized for {@code long} keys. The builder has to be created with {@link Long} keys:
+     * <pre>{@code
+     * LongCache<User> myCache = new NWayCacheBuilder<Long, User>()
+     *      .buildLong(id -> {return data from somewhere...});
+     * }</pre>
+     * See {@link LongCache}
+     *
+     * @param loader mandatory and not null
+     * @return the cache with the parameters chosen
+     * @throws java.lang.NullPointerException if loader is null
+     * @throws java.lang.IllegalStateException if maxEntryPerBlock < nWay or there are not enough blocks for the
+     *                                         leader sets of the adaptive eviction or the persistent file is used
+     *                                         by another process or maximumWeight < blocks or both
+     *                                         maximumWeight and maximumMemory are used or weakKeys is used with a
+     *                                         persistent file or softValues or compression with offHeap or
+     *                                         softValues with compression
+     * @throws java.io.UncheckedIOException    if the persistent file cannot be opened
+     */
+    @SuppressWarnings("unchecked")
+    public LongCache<Value> buildLong(CacheLoader<Long, Value> loader) {
+        Preconditions.checkNotNull(loader, "Must implement a loader");
+        Preconditions.checkState(maxEntryPerBlock == 0 || maxEntryPerBlock >= nWay,
+                "maxEntryPerBlock has to be major or equals to nWay");
+        Preconditions.checkState(!weakKeys, "weakKeys cannot be used with long keys");
+        LongNWayCache<Value> cache = new LongNWayCache<>(numBlocks(), ways(), Math.max(ways(), maxEntryPerBlock));
+        // the eviction algorithms do not depend on the key type
+        setup((NWayCache<Key, Value>) (NWayCache) cache, (CacheLoader<Key, Value>) (CacheLoader) loader);
+        return cache;
+    }
+
+    /**
+     * Number of blocks of the cache
+     *
+     * @return {@code blocks} or the blocks calculated from the memory budget
+     */
+    private int numBlocks() {
+        if (maxMemory == 0) {
+            return blocks;
+        }
+        long entries = Math.max(1, maxMemory / (averageEntrySize + ENTRY_OVERHEAD));
+        return (int) Math.min(Integer.MAX_VALUE, (entries + nWay - 1) / nWay);
+    }
+
+    /**
+     * Max number of entries of a block
+     *
+     * @return {@code nWay}, with the headroom when the entries are measured
+     */
+    private int ways() {
+        return memoryWeigher == null ? nWay : (int) Math.min(Integer.MAX_VALUE, (long) nWay * CAPACITY_HEADROOM);
+    }
+
+    /**
+     * Apply the builder parameters to the cache
+     *
+     * @param cache  cache to configure
+     * @param loader cache loader
+     */
+    private void setup(NWayCache<Key, Value> cache, CacheLoader<Key, Value> loader) {
+        int numBlocks = cache.getNumBlocks();
+        Preconditions.checkState(weigher == null || maxMemory == 0,
+                "maximumWeight and maximumMemory cannot be used together");
+        Preconditions.checkState(weigher == null || maximumWeight >= numBlocks,
+                "maximumWeight has to be major or equals to blocks");
+        Preconditions.checkState(!weakKeys || file == null, "weakKeys and persistent cannot be used together");
+        Preconditions.checkState(!softValues || serializer == null, "softValues and offHeap cannot be used together");
+        Preconditions.checkState(compressionSerializer == null || serializer == null,
+                "compression and offHeap cannot be used together");
+        Preconditions.checkState(compressionSerializer == null || !softValues,
+                "compression and softValues cannot be used together");
+        configure(eviction);
+        cache.setCacheLoader(loader);
+        cache.setEvictionPolicy(eviction);
+        if (adaptiveEviction != null) {
+            configure(adaptiveEviction);
+            int leaders = leaderSets > 0 ? leaderSets : Math.max(1, numBlocks / 16);
+            cache.setSetDueling(new SetDueling<>(eviction, adaptiveEviction, numBlocks, leaders));
+        }
+        cache.setTwoChoicePlacement(twoChoicePlacement);
+        if (weigher != null) {
+            cache.setWeigher(weigher, maximumWeight);
+        }
+        if (memoryWeigher != null) {
+            Weigher<Key, Value> sizeWeigher = memoryWeigher;
+            cache.setWeigher((key, value) -> sizeWeigher.weigh(key, value) + ENTRY_OVERHEAD, maxMemory);
+            cache.setExpectedWeight(averageEntrySize + ENTRY_OVERHEAD);
+        }
+        if (migrationExecutor != null) {
+            cache.setMigrationExecutor(migrationExecutor);
+        }
+        if (listenerExecutor != null) {
+            cache.setNotificationDispatcher(new NotificationDispatcher(listenerExecutor, listenerQueueSize,
+                    listenerOverflow, cache.statsCounter));
+        }
+        if (victimCacheSize > 0) {
+            cache.setVictimCache(new VictimCache<>(victimCacheSize));
+        }
+        if (staleCacheSize > 0) {
+            cache.setStaleCache(new StaleCache<>(staleCacheSize, staleGracePeriod, staleRetryBackoff));
+        }
+        if (loaderTimeout > 0 || maxConcurrentLoads > 0) {
+            cache.setLoadGuard(new LoadGuard(maxConcurrentLoads, loadOverflow, loaderTimeout, loaderExecutor,
+                    cache.statsCounter));
+        }
+        if (missBatchSize > 0) {
+            cache.setMissBatcher(new MissBatcher<>(missBatchWindow, missBatchSize));
+        }
+        if (refreshExecutor != null) {
+            // about one load time for every entry of the cache
+            int costSlots = (int) Math.min(1 << 16, (long) numBlocks * ways());
+            cache.setEarlyRefresh(new EarlyRefresh<>(refreshAfter, refreshBeta, refreshExecutor, costSlots));
+        }
+        if (weakKeys || softValues) {
+            cache.setReferences(weakKeys, softValues);
+        }
+        if (writeBehindScheduler != null) {
+            cache.setWriteBehind(new WriteBehindQueue<>(cacheWriter, writeBehindScheduler, writeBehindDelay,
+                    writeBehindBatchSize));
+        } else if (cacheWriter != null) {
+            cache.setCacheWriter(cacheWriter);
+        }
+        if (serializer != null) {
+            int slabSize = (int) Math.min(SlabAllocator.DEFAULT_SLAB_SIZE, Long.highestOneBit(offHeapBytes));
+            cache.setValueStorage(new OffHeapStorage<>(serializer, new SlabAllocator(offHeapBytes, slabSize)));
+        }
+        if (compressionSerializer != null) {
+            cache.setValueStorage(new CompressedStorage<>(compressionSerializer, compressionThreshold,
+                    decompressedCacheSize, cache.statsCounter));
+        }
+        if (secondLevel != null) {
+            cache.setSecondLevel((NWayCache<Key, Value>) secondLevel.build(key -> {
+                throw new UnsupportedOperationException("The second level does not load the values");
+            }));
+        }
+        if (file != null) {
+            try {
+                // the last one: the entries of the file are restored with all the other parameters
+                cache.setMappedStore(new MappedStore<>(file, numBlocks, ways(), maxEntrySize, fileKeySerializer,
+                        fileValueSerializer));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot open the cache file " + file, e);
+            }
+        }
+    }
+
+    /**
+     * Apply the builder parameters to the provided eviction algorithms
+     *
+     * @param eviction eviction algorithm to configure
+     */
+    private void configure(EvictionPolicy<Key, Value> eviction) {
         if (eviction instanceof LRUExpiredAlgorithm) {
             ((LRUExpiredAlgorithm) eviction).setExpiration(expiration);
         } else if (eviction instanceof LRUAlgorithm) {
             ((LRUAlgorithm) eviction).setEntriesToDelete(entriesToDelete);
         } else if (eviction instanceof MRUAlgorithm) {
             ((MRUAlgorithm) eviction).setEntriesToDelete(entriesToDelete);
+        } else if (eviction instanceof SLRUAlgorithm) {
+            ((SLRUAlgorithm) eviction).setProtectedFraction(protectedFraction);
+        } else if (eviction instanceof LFUAlgorithm) {
+            ((LFUAlgorithm) eviction).setEntriesToDelete(entriesToDelete);
         }
-        NWayCache<Key, Value> cache = new NWayCache<>(blocks, nWay, maxEntryPerBlock);
-        cache.setCacheLoader(loader);
-        cache.setEviction(eviction);
-        return cache;
     }
 }
@@ -0,0 +1,139 @@
+package org.mirko.cache.nway;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <p>Package accessible class that delivers the listener notifications on an {@link Executor}.</p>
+ * <p>The notifications are added in a bounded queue and a single drain task at a time is submitted to the executor:
+ * the task runs at most {@link #BATCH_SIZE} notifications and submits itself again if the queue is not empty. The
+ * notifications are then delivered in the same order they are generated, without blocking the threads that use the
+ * cache (unless the overflow is {@link NotificationOverflow#BLOCK}).</p>
+ * <br/><br/>Created by Mirko Bernardoni on 19/10/26.
+ *
+ * @author Mirko Bernardoni
+ * @version 1.0
+ * @since 1.0
+ */
+/*package*/ class NotificationDispatcher {
+    private static final Logger LOG = LoggerFactory.getLogger(NotificationDispatcher.class);
+    /**
+     * Max notifications delivered by a single drain task
+     */
+    /*package*/ static final int BATCH_SIZE = 64;
+
+    private final Executor executor;
+    private final BlockingQueue<Runnable> queue;
+    private final NotificationOverflow overflow;
+    private final StatsCounter statsCounter;
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    /**
+     * Create a new instance of NotificationDispatcher
+     *
+     * @param executor     executor for delivering the notifications
+     * @param queueSize    max notifications waiting to be delivered
+     * @param overflow     behaviour when the queue is full
+     * @param statsCounter counter for the dropped notifications
+     * @throws java.lang.NullPointerException     if executor or overflow is null
+     * @throws java.lang.IllegalArgumentException if queueSize < 1
+     */
+    /*package*/ NotificationDispatcher(Executor executor, int queueSize, NotificationOverflow overflow, StatsCounter statsCounter) {
+        Preconditions.checkNotNull(executor, "Executor cannot be null");
+        Preconditions.checkNotNull(overflow, "Overflow cannot be null");
+        Preconditions.checkArgument(queueSize > 0, "queueSize has to be at least 1");
+        this.executor = executor;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.overflow = overflow;
+        this.statsCounter = statsCounter;
+    }
+
+    /**
+     * Queue a notification
+     *
+     * @param notification task that calls the listeners
+     */
+    /*package*/ void dispatch(Runnable notification) {
+        if (overflow == NotificationOverflow.BLOCK) {
+            try {
+                queue.put(notification);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                drop();
+                return;
+            }
+        } else if (!queue.offer(notification)) {
+            drop();
+            return;
+        }
+        schedule();
+    }
+
+    /**
+     * Retrieve the number of notifications waiting to be delivered
+     *
+     * @return size of the queue
+     */
+    /*package*/ int pending() {
+        return queue.size();
+    }
+
+    private void drop() {
+        statsCounter.recordDroppedNotification();
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Notification queue full: notification dropped");
+        }
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::drain);
+            } catch (RuntimeException e) {
+                scheduled.set(false);
+                if (LOG.isWarnEnabled()) {
+                    LOG.warn("Cannot submit the notifications to the executor", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Deliver a batch of notifications
+     */
+    private void drain() {
+        try {
+            Runnable notification;
+            for (int i = 0; i < BATCH_SIZE && (notification = queue.poll()) != null; i++) {
+                try {
+                    notification.run();
+                } catch (RuntimeException e) {
+                    if (LOG.isWarnEnabled()) {
+                        LOG.warn("Exception in a listener", e);
+                    }
+                }
+            }
+        } finally {
+            scheduled.set(false);
+        }
+        // notifications added while the task was running
+        if (!queue.isEmpty()) {
+            schedule();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("Overflow", overflow)
+                .add("Pending", queue.size())
+                .toString();
+    }
+}
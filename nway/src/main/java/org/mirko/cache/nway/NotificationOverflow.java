@@ -0,0 +1,22 @@
+package org.mirko.cache.nway;
+
+/**
+ * Behaviour of the asynchronous listener dispatch when the notification queue is full.
+ * <br/><br/>Created by Mirko Bernardoni on 19/10/26.
+ *
+ * @author Mirko Bernardoni
+ * @version 1.0
+ * @since 1.0
+ */
+public enum NotificationOverflow {
+    /**
+     * The notification is discarded and counted in {@link CacheStats#getDroppedNotificationCount()}
+     */
+    DROP,
+    /**
+     * The thread that generates the notification waits for free space in the queue. The notifications generated
+     * while the lock of a block is owned (the evictions) are queued after the lock is released, so the thread never
+     * waits while owning a lock and the listeners can use the cache
+     */
+    BLOCK
+}
@@ -0,0 +1,75 @@
+package org.mirko.cache.nway;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Package accessible {@link ValueStorage} that keeps the values outside the heap.</p>
+ * <p>The values are converted in bytes by a {@link Serializer} and copied in the slabs of a {@link SlabAllocator}:
+ * the entry holds only the {@link SlabAllocator.Handle} and the value is deserialized on every read. The garbage
+ * collector does not see the values anymore, at the cost of a copy and a deserialization for every hit.</p>
+ * <br/><br/>Created by Mirko Bernardoni on 19/10/26.
+ *
+ * @author Mirko Bernardoni
+ * @version 1.0
+ * @since 1.0
+ */
+/*package*/ class OffHeapStorage<Value> implements ValueStorage<Value> {
+    private static final Logger LOG = LoggerFactory.getLogger(OffHeapStorage.class);
+    private final Serializer<Value> serializer;
+    private final SlabAllocator allocator;
+
+    /**
+     * Create a new instance of OffHeapStorage
+     *
+     * @param serializer serializer of the values
+     * @param allocator  allocator of the off-heap memory
+     * @throws java.lang.NullPointerException if serializer or allocator is null
+     */
+    /*package*/ OffHeapStorage(Serializer<Value> serializer, SlabAllocator allocator) {
+        Preconditions.checkNotNull(serializer, "Serializer cannot be null");
+        Preconditions.checkNotNull(allocator, "Allocator cannot be null");
+        this.serializer = serializer;
+        this.allocator = allocator;
+    }
+
+    @Override
+    public Object store(Value value) {
+        byte[] data = serializer.serialize(value);
+        SlabAllocator.Handle handle = allocator.allocate(data);
+        if (handle == null && LOG.isDebugEnabled()) {
+            LOG.debug("No off-heap memory for {} bytes, {}", data.length, allocator);
+        }
+        return handle;
+    }
+
+    @Override
+    public Value load(Object stored) {
+        byte[] data = allocator.read((SlabAllocator.Handle) stored);
+        return data == null ? null : serializer.deserialize(data);
+    }
+
+    @Override
+    public void release(Object stored) {
+        allocator.free((SlabAllocator.Handle) stored);
+    }
+
+    /**
+     * Retrieve the allocator of the off-heap memory
+     *
+     * @return the allocator
+     */
+    /*package*/ SlabAllocator getAllocator() {
+        return allocator;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("Serializer", serializer)
+                .add("Allocator", allocator)
+                .toString();
+    }
+}
@@ -0,0 +1,159 @@
+package org.mirko.cache.nway;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+
+/**
+ * <p>Package accessible entry that holds its key with a {@link WeakReference} and/or its value with a
+ * {@link SoftReference}, so the garbage collector can reclaim them.</p>
+ * <p>The references are registered in the queue of the cache: when one of them is cleared by the garbage collector
+ * the entry is collected, {@link #getKey()} or {@link #getValue()} return null and the cache finds the entry from
+ * the reference for removing it from its block. The hash code of the key is kept for finding the block after the
+ * key has been reclaimed.</p>
+ * <br/><br/>Created by Mirko Bernardoni on 19/10/26.
+ *
+ * @author Mirko Bernardoni
+ * @version 1.0
+ * @since 1.0
+ */
+/*package*/ class ReferenceCacheEntry<Key, Value> extends CacheEntryImpl<Key, Value> {
+    private final ReferenceQueue<Object> queue;
+    private final boolean weakKey;
+    private final boolean softValue;
+    // the key or its weak reference
+    private volatile Object key;
+    // the value or its soft reference
+    private volatile Object value;
+    private int keyHash;
+
+    /**
+     * Create a new instance of ReferenceCacheEntry with a given creation time
+     *
+     * @param queue        queue of the cache where the cleared references are added
+     * @param weakKey      true for holding the key with a weak reference
+     * @param softValue    true for holding the value with a soft reference
+     * @param creationTime creation time in milliseconds
+     */
+    /*package*/ ReferenceCacheEntry(ReferenceQueue<Object> queue, boolean weakKey, boolean softValue,
+                                    long creationTime) {
+        super(creationTime);
+        this.queue = queue;
+        this.weakKey = weakKey;
+        this.softValue = softValue;
+    }
+
+    /**
+     * Retrieve the key
+     *
+     * @return the key, null if it has been reclaimed
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public Key getKey() {
+        Object current = key;
+        return weakKey && current != null ? ((Reference<Key>) current).get() : (Key) current;
+    }
+
+    @Override
+    /*package*/ void setKey(Key key) {
+        this.keyHash = key.hashCode();
+        this.key = weakKey ? new EntryWeakReference<>(key, queue, this) : key;
+    }
+
+    /**
+     * Retrieve the value
+     *
+     * @return the value, null if it has been reclaimed
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public Value getValue() {
+        Object current = value;
+        return softValue && current != null ? ((Reference<Value>) current).get() : (Value) current;
+    }
+
+    @Override
+    /*package*/ void setValue(Value value) {
+        this.value = softValue ? new EntrySoftReference<>(value, queue, this) : value;
+    }
+
+    @Override
+    /*package*/ boolean hasValue() {
+        return !isCollected();
+    }
+
+    /**
+     * The references are cleared: they are not added to the queue anymore after the entry has left the cache
+     */
+    @Override
+    /*package*/ void release() {
+        Object current = key;
+        if (weakKey && current != null) {
+            ((Reference<?>) current).clear();
+        }
+        current = value;
+        if (softValue && current != null) {
+            ((Reference<?>) current).clear();
+        }
+    }
+
+    /**
+     * Verify if the key or the value has been reclaimed by the garbage collector
+     *
+     * @return true if the entry has been collected
+     */
+    /*package*/ boolean isCollected() {
+        return getKey() == null || getValue() == null;
+    }
+
+    /**
+     * Retrieve the hash code of the key, also after the key has been reclaimed
+     *
+     * @return the hash code of the key
+     */
+    /*package*/ int getKeyHash() {
+        return keyHash;
+    }
+
+    /**
+     * Reference of the cache entries: the cache finds the entry of a cleared reference
+     */
+    /*package*/ interface EntryReference {
+        /**
+         * Retrieve the entry that holds the reference
+         *
+         * @return the entry
+         */
+        ReferenceCacheEntry<?, ?> getEntry();
+    }
+
+    private static final class EntryWeakReference<T> extends WeakReference<T> implements EntryReference {
+        private final ReferenceCacheEntry<?, ?> entry;
+
+        private EntryWeakReference(T referent, ReferenceQueue<Object> queue, ReferenceCacheEntry<?, ?> entry) {
+            super(referent, queue);
+            this.entry = entry;
+        }
+
+        @Override
+        public ReferenceCacheEntry<?, ?> getEntry() {
+            return entry;
+        }
+    }
+
+    private static final class EntrySoftReference<T> extends SoftReference<T> implements EntryReference {
+        private final ReferenceCacheEntry<?, ?> entry;
+
+        private EntrySoftReference(T referent, ReferenceQueue<Object> queue, ReferenceCacheEntry<?, ?> entry) {
+            super(referent, queue);
+            this.entry = entry;
+        }
+
+        @Override
+        public ReferenceCacheEntry<?, ?> getEntry() {
+            return entry;
+        }
+    }
+}
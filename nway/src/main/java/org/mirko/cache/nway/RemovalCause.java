@@ -14,5 +14,7 @@ public enum RemovalCause {
     /** user with a {@link org.mirko.cache.nway.Cache#put(Object, Object)} has replaced the old value*/
     USER,
     /** eviction algorithm has removed the entity */
-    EVICTION
+    EVICTION,
+    /** the garbage collector has reclaimed the weak key or the soft value of the entity */
+    COLLECTED
 }
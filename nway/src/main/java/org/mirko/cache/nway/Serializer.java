@@ -0,0 +1,28 @@
+package org.mirko.cache.nway;
+
+/**
+ * Convert the values in bytes and back for the off-heap storage (see {@link NWayCacheBuilder#offHeap(Serializer, long)}).
+ * The implementation has to be thread safe: it is called concurrently by all the threads that use the cache.
+ * <br/><br/>Created by Mirko Bernardoni on 19/10/26.
+ *
+ * @author Mirko Bernardoni
+ * @version 1.0
+ * @since 1.0
+ */
+public interface Serializer<Value> {
+    /**
+     * Convert a value in bytes. Called every time a value is added to the cache
+     *
+     * @param value value, never null
+     * @return the bytes representing the value
+     */
+    byte[] serialize(Value value);
+
+    /**
+     * Rebuild a value from its bytes. Called on every hit
+     *
+     * @param bytes bytes returned by {@link #serialize(Object)}
+     * @return the value
+     */
+    Value deserialize(byte[] bytes);
+}
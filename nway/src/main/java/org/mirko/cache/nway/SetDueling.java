@@ -0,0 +1,148 @@
+package org.mirko.cache.nway;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Package accessible class that select at runtime between two eviction algorithms with the
+ * set dueling technique used by the CPU caches (Qureshi et al., Adaptive insertion policies for high performance
+ * caching).</p>
+ * <p>A few blocks (leader sets) are dedicated to each algorithm: they always use their own algorithm. Every miss in
+ * a leader set of the first algorithm increments a saturating counter, every miss in a leader set of the second
+ * algorithm decrements it. All the other blocks (follower sets) use the algorithm that is currently missing less,
+ * that is the first while the counter is in the lower half of its range and the second otherwise.</p>
+ * <p>The leader sets are spread over the blocks with a constant stride {@code numBlocks / leaderSets}: within the
+ * first {@code leaderSets * stride} blocks, the block {@code i} is a leader of the first algorithm if
+ * {@code i % stride == 0} and a leader of the second if {@code i % stride == stride / 2}. Each algorithm has then
+ * exactly {@code leaderSets} leaders, the remaining blocks at the end are all followers.</p>
+ * <p>The layout depends on the number of blocks: after a resize the cache replaces the instance with
+ * {@link #resize(int)}, that keeps the current selection.</p>
+ * <br/><br/>Created by Mirko Bernardoni on 19/10/26.
+ *
+ * @author Mirko Bernardoni
+ * @version 1.0
+ * @since 1.0
+ */
+/*package*/ class SetDueling<Key, Value> {
+    /**
+     * Bits of the saturating counter (the counter is in [0, 1023])
+     */
+    /*package*/ static final int SELECTOR_BITS = 10;
+    private static final int MAX_SELECTOR = (1 << SELECTOR_BITS) - 1;
+    private static final int MID_SELECTOR = 1 << (SELECTOR_BITS - 1);
+
+    private final EvictionPolicy<Key, Value> first;
+    private final EvictionPolicy<Key, Value> second;
+    private final int leaderSets;
+    private final int stride;
+    private final AtomicInteger selector;
+
+    /**
+     * Create a new instance of SetDueling
+     *
+     * @param first      first eviction algorithm
+     * @param second     second eviction algorithm
+     * @param numBlocks  number of blocks in the cache
+     * @param leaderSets number of leader sets for each algorithm
+     * @throws java.lang.NullPointerException  if one of the algorithms is null
+     * @throws java.lang.IllegalStateException if there are not at least 2 blocks for each leader set
+     */
+    /*package*/ SetDueling(EvictionPolicy<Key, Value> first, EvictionPolicy<Key, Value> second, int numBlocks, int leaderSets) {
+        this(first, second, numBlocks, leaderSets, MID_SELECTOR - 1);
+    }
+
+    private SetDueling(EvictionPolicy<Key, Value> first, EvictionPolicy<Key, Value> second, int numBlocks, int leaderSets,
+                       int selector) {
+        Preconditions.checkNotNull(first, "First eviction cannot be null");
+        Preconditions.checkNotNull(second, "Second eviction cannot be null");
+        Preconditions.checkState(leaderSets > 0 && numBlocks >= leaderSets * 2,
+                "At least 2 blocks for each leader set are necessary");
+        this.first = first;
+        this.second = second;
+        this.leaderSets = leaderSets;
+        this.stride = numBlocks / leaderSets;
+        this.selector = new AtomicInteger(selector);
+    }
+
+    /**
+     * Create the set dueling for a new number of blocks, with the same algorithms and the current selection.
+     * The leader sets are reduced if the blocks are not enough for all of them
+     *
+     * @param numBlocks new number of blocks
+     * @return the set dueling for the new blocks or null if there are less than 2 blocks (no leader set is possible)
+     */
+    /*package*/ SetDueling<Key, Value> resize(int numBlocks) {
+        if (numBlocks < 2) {
+            return null;
+        }
+        return new SetDueling<>(first, second, numBlocks, Math.min(leaderSets, numBlocks / 2), selector.get());
+    }
+
+    /**
+     * Retrieve the eviction algorithm to use for a block
+     *
+     * @param blockIndex index of the block
+     * @return the eviction algorithm
+     */
+    /*package*/ EvictionPolicy<Key, Value> evictionFor(int blockIndex) {
+        if (isFirstLeader(blockIndex)) {
+            return first;
+        } else if (isSecondLeader(blockIndex)) {
+            return second;
+        }
+        return isFirstSelected() ? first : second;
+    }
+
+    /**
+     * Record a miss on a block. Only the misses on the leader sets are changing the selection
+     *
+     * @param blockIndex index of the block
+     */
+    /*package*/ void recordMiss(int blockIndex) {
+        if (isFirstLeader(blockIndex)) {
+            selector.getAndUpdate(s -> s < MAX_SELECTOR ? s + 1 : s);
+        } else if (isSecondLeader(blockIndex)) {
+            selector.getAndUpdate(s -> s > 0 ? s - 1 : s);
+        }
+    }
+
+    /**
+     * Verify which algorithm is used by the follower sets
+     *
+     * @return true if the follower sets are using the first algorithm
+     */
+    /*package*/ boolean isFirstSelected() {
+        return selector.get() < MID_SELECTOR;
+    }
+
+    /**
+     * Verify if a block is a leader set of the first algorithm
+     *
+     * @param blockIndex index of the block
+     * @return true if the block always uses the first algorithm
+     */
+    /*package*/ boolean isFirstLeader(int blockIndex) {
+        return blockIndex < leaderSets * stride && blockIndex % stride == 0;
+    }
+
+    /**
+     * Verify if a block is a leader set of the second algorithm
+     *
+     * @param blockIndex index of the block
+     * @return true if the block always uses the second algorithm
+     */
+    /*package*/ boolean isSecondLeader(int blockIndex) {
+        return blockIndex < leaderSets * stride && blockIndex % stride == stride / 2;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("LeaderSets", leaderSets)
+                .add("Stride", stride)
+                .add("Selector", selector.get())
+                .toString();
+    }
+}
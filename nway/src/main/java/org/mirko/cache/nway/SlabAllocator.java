@@ -0,0 +1,240 @@
+package org.mirko.cache.nway;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Package accessible class that allocate the memory outside the heap for the values of the cache, with the same
+ * approach of memcached.</p>
+ * <p>The memory is reserved in slabs of {@code slabSize} bytes (direct {@link ByteBuffer}). Every slab belongs to
+ * a size class and is split in chunks of the same size: the size classes are the powers of two from
+ * {@link #MIN_CHUNK_SIZE} to {@code slabSize}. A value is copied in a free chunk of the smallest class that can hold
+ * it, and a freed chunk goes back in the free list of its class. A new slab is reserved only when a class has no free
+ * chunk and the total of the slabs stays under {@code maxBytes}: the slabs are never released and never move to
+ * another class.</p>
+ * <p>Every chunk has a generation, incremented when the chunk is freed: a {@link Handle} of a freed chunk does not
+ * read the value written after in the same chunk. Each size class has its own lock.</p>
+ * <br/><br/>Created by Mirko Bernardoni on 19/10/26.
+ *
+ * @author Mirko Bernardoni
+ * @version 1.0
+ * @since 1.0
+ */
+/*package*/ class SlabAllocator {
+    /*package*/ static final int MIN_CHUNK_SIZE = 64;
+    /*package*/ static final int DEFAULT_SLAB_SIZE = 1024 * 1024;
+
+    private final int slabSize;
+    private final long maxBytes;
+    private final AtomicLong reservedBytes = new AtomicLong();
+    private final SizeClass[] sizeClasses;
+
+    /**
+     * Create a new instance of SlabAllocator
+     *
+     * @param maxBytes max memory reserved by all the slabs
+     * @param slabSize size of a slab, it is also the max size of a value
+     * @throws java.lang.IllegalArgumentException if slabSize is not a power of two >= {@link #MIN_CHUNK_SIZE} or
+     *                                            maxBytes < slabSize
+     */
+    /*package*/ SlabAllocator(long maxBytes, int slabSize) {
+        Preconditions.checkArgument(slabSize >= MIN_CHUNK_SIZE && Integer.bitCount(slabSize) == 1,
+                "Slab size has to be a power of two of at least " + MIN_CHUNK_SIZE);
+        Preconditions.checkArgument(maxBytes >= slabSize, "Max bytes has to be at least the slab size");
+        this.slabSize = slabSize;
+        this.maxBytes = maxBytes;
+        this.sizeClasses = new SizeClass[Integer.numberOfTrailingZeros(slabSize / MIN_CHUNK_SIZE) + 1];
+        for (int i = 0; i < sizeClasses.length; i++) {
+            sizeClasses[i] = new SizeClass(i, MIN_CHUNK_SIZE << i);
+        }
+    }
+
+    /**
+     * Copy the data in a free chunk
+     *
+     * @param data data to copy
+     * @return the handle of the chunk, null if the data is bigger than a slab or there is no more memory
+     */
+    /*package*/ Handle allocate(byte[] data) {
+        Preconditions.checkNotNull(data, "Data cannot be null");
+        int sizeClass = sizeClassOf(data.length);
+        return sizeClass < 0 ? null : sizeClasses[sizeClass].allocate(data);
+    }
+
+    /**
+     * Copy the data out of a chunk
+     *
+     * @param handle handle returned by {@link #allocate(byte[])}
+     * @return the data, null if the chunk has been freed
+     */
+    /*package*/ byte[] read(Handle handle) {
+        return sizeClasses[handle.sizeClass].read(handle);
+    }
+
+    /**
+     * Free a chunk. Freeing a chunk already freed has no effect
+     *
+     * @param handle handle returned by {@link #allocate(byte[])}
+     */
+    /*package*/ void free(Handle handle) {
+        sizeClasses[handle.sizeClass].free(handle);
+    }
+
+    /**
+     * Retrieve the memory reserved by the slabs
+     *
+     * @return bytes reserved
+     */
+    /*package*/ long getReservedBytes() {
+        return reservedBytes.get();
+    }
+
+    /**
+     * Retrieve the memory of the chunks in use
+     *
+     * @return bytes in use
+     */
+    /*package*/ long getUsedBytes() {
+        long used = 0;
+        for (SizeClass sizeClass : sizeClasses) {
+            used += sizeClass.getUsedBytes();
+        }
+        return used;
+    }
+
+    /**
+     * Find the smallest size class for a length
+     *
+     * @param length length of the data
+     * @return index of the size class, -1 if the data is bigger than a slab
+     */
+    /*package*/ int sizeClassOf(int length) {
+        if (length > slabSize) {
+            return -1;
+        }
+        int chunkSize = Math.max(MIN_CHUNK_SIZE, Integer.highestOneBit(Math.max(1, length - 1)) << 1);
+        return Integer.numberOfTrailingZeros(chunkSize / MIN_CHUNK_SIZE);
+    }
+
+    /**
+     * Reserve the memory for a new slab if the limit is not reached
+     *
+     * @return true if the memory has been reserved
+     */
+    private boolean reserveSlab() {
+        long current;
+        do {
+            current = reservedBytes.get();
+            if (current + slabSize > maxBytes) {
+                return false;
+            }
+        } while (!reservedBytes.compareAndSet(current, current + slabSize));
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("SlabSize", slabSize)
+                .add("MaxBytes", maxBytes)
+                .add("ReservedBytes", reservedBytes.get())
+                .toString();
+    }
+
+    /**
+     * Reference to an allocated chunk
+     */
+    /*package*/ static final class Handle {
+        private final int sizeClass;
+        private final int chunk;
+        private final int generation;
+
+        private Handle(int sizeClass, int chunk, int generation) {
+            this.sizeClass = sizeClass;
+            this.chunk = chunk;
+            this.generation = generation;
+        }
+    }
+
+    /**
+     * Slabs and free chunks of a size class
+     */
+    private final class SizeClass {
+        private final int index;
+        private final int chunkSize;
+        private final int chunksPerSlab;
+        private final List<ByteBuffer> slabs = new ArrayList<>();
+        private int[] generations = new int[0];
+        private int[] lengths = new int[0];
+        private int[] freeChunks = new int[0];
+        private int freeCount;
+
+        private SizeClass(int index, int chunkSize) {
+            this.index = index;
+            this.chunkSize = chunkSize;
+            this.chunksPerSlab = slabSize / chunkSize;
+        }
+
+        private synchronized Handle allocate(byte[] data) {
+            if (freeCount == 0 && !addSlab()) {
+                return null;
+            }
+            int chunk = freeChunks[--freeCount];
+            ByteBuffer slab = slabs.get(chunk / chunksPerSlab);
+            ((Buffer) slab).position((chunk % chunksPerSlab) * chunkSize);
+            slab.put(data);
+            lengths[chunk] = data.length;
+            return new Handle(index, chunk, generations[chunk]);
+        }
+
+        private synchronized byte[] read(Handle handle) {
+            int chunk = handle.chunk;
+            if (generations[chunk] != handle.generation || lengths[chunk] < 0) {
+                return null;
+            }
+            byte[] data = new byte[lengths[chunk]];
+            ByteBuffer slab = slabs.get(chunk / chunksPerSlab);
+            ((Buffer) slab).position((chunk % chunksPerSlab) * chunkSize);
+            slab.get(data);
+            return data;
+        }
+
+        private synchronized void free(Handle handle) {
+            int chunk = handle.chunk;
+            if (generations[chunk] != handle.generation || lengths[chunk] < 0) {
+                return;
+            }
+            generations[chunk]++;
+            lengths[chunk] = -1;
+            freeChunks[freeCount++] = chunk;
+        }
+
+        private synchronized long getUsedBytes() {
+            return ((long) slabs.size() * chunksPerSlab - freeCount) * chunkSize;
+        }
+
+        private boolean addSlab() {
+            if (!reserveSlab()) {
+                return false;
+            }
+            slabs.add(ByteBuffer.allocateDirect(slabSize));
+            int total = slabs.size() * chunksPerSlab;
+            generations = Arrays.copyOf(generations, total);
+            lengths = Arrays.copyOf(lengths, total);
+            freeChunks = Arrays.copyOf(freeChunks, total);
+            // the lowest chunk is used first
+            for (int chunk = total - 1; chunk >= total - chunksPerSlab; chunk--) {
+                lengths[chunk] = -1;
+                freeChunks[freeCount++] = chunk;
+            }
+            return true;
+        }
+    }
+}
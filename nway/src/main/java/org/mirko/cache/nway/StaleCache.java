@@ -0,0 +1,183 @@
+package org.mirko.cache.nway;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>Package accessible class that keeps the last known value of the keys evicted from the cache, for serving them
+ * when the loader fails (stale while error).</p>
+ * <p>A value is kept for {@code gracePeriod} milliseconds after its eviction. When the loader of a key fails the
+ * stale value is returned instead of the exception and the key backs off: the next loads are skipped, and the stale
+ * value returned, for {@code retryBackoff} milliseconds, doubled at every failure up to the grace period. A load that
+ * succeeds discards the stale value.</p>
+ * <p>When the stale cache is full the oldest value is removed (FIFO). All the operations are protected by a single
+ * lock, as in the {@link VictimCache}.</p>
+ * <br/><br/>Created by Mirko Bernardoni on 19/10/26.
+ *
+ * @author Mirko Bernardoni
+ * @version 1.0
+ * @since 1.0
+ */
+/*package*/ class StaleCache<Key, Value> {
+    private final int capacity;
+    private final long gracePeriod;
+    private final long retryBackoff;
+    private final Map<Key, Stale<Value>> values;
+    private final Lock lock = new ReentrantLock();
+
+    /**
+     * Create a new instance of StaleCache
+     *
+     * @param capacity     max number of stale values
+     * @param gracePeriod  time in milliseconds a value is kept after its eviction
+     * @param retryBackoff time in milliseconds the loads are skipped after the first failure
+     * @throws java.lang.IllegalArgumentException if capacity < 1, gracePeriod < 1 or retryBackoff < 1
+     */
+    /*package*/ StaleCache(int capacity, long gracePeriod, long retryBackoff) {
+        Preconditions.checkArgument(capacity > 0, "Stale cache size has to be at least 1");
+        Preconditions.checkArgument(gracePeriod > 0, "Grace period has to be > 0");
+        Preconditions.checkArgument(retryBackoff > 0, "Retry backoff has to be > 0");
+        this.capacity = capacity;
+        this.gracePeriod = gracePeriod;
+        this.retryBackoff = retryBackoff;
+        this.values = new LinkedHashMap<>(capacity * 2);
+    }
+
+    /**
+     * Keep the value of an entry evicted from the cache
+     *
+     * @param key   key
+     * @param value last known value
+     * @param now   current time in milliseconds
+     */
+    /*package*/ void offer(Key key, Value value, long now) {
+        lock.lock();
+        try {
+            // the newest value of the key goes at the end
+            values.remove(key);
+            values.put(key, new Stale<>(value, now + gracePeriod));
+            if (values.size() > capacity) {
+                Iterator<Stale<Value>> oldest = values.values().iterator();
+                oldest.next();
+                oldest.remove();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Retrieve the stale value of a key that is backing off: the loader does not have to be called
+     *
+     * @param key key
+     * @param now current time in milliseconds
+     * @return the stale value, null if the key is not backing off
+     */
+    /*package*/ Value backingOff(Key key, long now) {
+        lock.lock();
+        try {
+            Stale<Value> stale = find(key, now);
+            return stale != null && now < stale.retryAt ? stale.value : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Record a failure of the loader and start the backoff of the key
+     *
+     * @param key key
+     * @param now current time in milliseconds
+     * @return the stale value to return instead of the exception, null if there is no stale value for the key
+     */
+    /*package*/ Value loadFailed(Key key, long now) {
+        lock.lock();
+        try {
+            Stale<Value> stale = find(key, now);
+            if (stale == null) {
+                return null;
+            }
+            long backoff = retryBackoff << Math.min(stale.failures, 30);
+            stale.failures++;
+            stale.retryAt = now + Math.min(gracePeriod, backoff < 0 ? Long.MAX_VALUE : backoff);
+            return stale.value;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Discard the stale value of a key, after a successful load or a remove
+     *
+     * @param key key
+     */
+    /*package*/ void invalidate(Key key) {
+        lock.lock();
+        try {
+            values.remove(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Retrieve the number of stale values
+     *
+     * @return number of values, including the ones over the grace period not removed yet
+     */
+    /*package*/ int size() {
+        lock.lock();
+        try {
+            return values.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Find the stale value of a key, removing it when it is over the grace period. The lock has to be owned
+     *
+     * @param key key
+     * @param now current time in milliseconds
+     * @return the stale value, null if not found or expired
+     */
+    private Stale<Value> find(Key key, long now) {
+        Stale<Value> stale = values.get(key);
+        if (stale != null && now > stale.expireAt) {
+            values.remove(key);
+            return null;
+        }
+        return stale;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("Capacity", capacity)
+                .add("GracePeriod", gracePeriod)
+                .add("RetryBackoff", retryBackoff)
+                .add("Size", size())
+                .toString();
+    }
+
+    /**
+     * Last known value of a key and its backoff. Changed only with the lock owned
+     */
+    private static final class Stale<Value> {
+        private final Value value;
+        private final long expireAt;
+        private int failures;
+        private long retryAt;
+
+        private Stale(Value value, long expireAt) {
+            this.value = value;
+            this.expireAt = expireAt;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package org.mirko.cache.nway;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Package accessible class that collects the statistics of a cache. The counters can be updated by more threads
+ * at the same time without contention.
+ * <br/><br/>Created by Mirko Bernardoni on 19/10/26.
+ *
+ * @author Mirko Bernardoni
+ * @version 1.0
+ * @since 1.0
+ */
+/*package*/ class StatsCounter {
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+    private final LongAdder overflowCount = new LongAdder();
+    private final LongAdder droppedNotificationCount = new LongAdder();
+    private final LongAdder uncompressedBytes = new LongAdder();
+    private final LongAdder compressedBytes = new LongAdder();
+    private final LongAdder compressionTime = new LongAdder();
+    private final LongAdder decompressionTime = new LongAdder();
+    private final LongAdder staleHitCount = new LongAdder();
+    private final LongAdder loadTimeoutCount = new LongAdder();
+    private final LongAdder rejectedLoadCount = new LongAdder();
+
+    /*package*/ void recordHit() {
+        hitCount.increment();
+    }
+
+    /*package*/ void recordMiss() {
+        missCount.increment();
+    }
+
+    /*package*/ void recordEviction() {
+        evictionCount.increment();
+    }
+
+    /*package*/ void recordOverflow() {
+        overflowCount.increment();
+    }
+
+    /*package*/ void recordDroppedNotification() {
+        droppedNotificationCount.increment();
+    }
+
+    /*package*/ void recordCompression(int uncompressed, int compressed, long nanos) {
+        uncompressedBytes.add(uncompressed);
+        compressedBytes.add(compressed);
+        compressionTime.add(nanos);
+    }
+
+    /*package*/ void recordDecompression(long nanos) {
+        decompressionTime.add(nanos);
+    }
+
+    /*package*/ void recordStaleHit() {
+        staleHitCount.increment();
+    }
+
+    /*package*/ void recordLoadTimeout() {
+        loadTimeoutCount.increment();
+    }
+
+    /*package*/ void recordRejectedLoad() {
+        rejectedLoadCount.increment();
+    }
+
+    /**
+     * Create a snapshot of the counters
+     *
+     * @return current statistics
+     */
+    /*package*/ CacheStats snapshot() {
+        return new CacheStats(hitCount.sum(), missCount.sum(), evictionCount.sum(), overflowCount.sum(),
+                droppedNotificationCount.sum(), uncompressedBytes.sum(), compressedBytes.sum(), compressionTime.sum(),
+                decompressionTime.sum(), staleHitCount.sum(), loadTimeoutCount.sum(), rejectedLoadCount.sum());
+    }
+}
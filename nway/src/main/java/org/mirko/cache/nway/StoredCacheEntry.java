@@ -0,0 +1,65 @@
+package org.mirko.cache.nway;
+
+/**
+ * <p>Package accessible entry that keeps its value in a {@link ValueStorage}: the entry holds only the object
+ * returned by the storage (for example a small handle of the off-heap memory) and the value is rebuilt on every
+ * read.</p>
+ * <br/><br/>Created by Mirko Bernardoni on 19/10/26.
+ *
+ * @author Mirko Bernardoni
+ * @version 1.0
+ * @since 1.0
+ */
+/*package*/ class StoredCacheEntry<Key, Value> extends CacheEntryImpl<Key, Value> {
+    private final ValueStorage<Value> storage;
+    private volatile Object stored;
+
+    /**
+     * Create a new instance of StoredCacheEntry
+     *
+     * @param storage storage of the value
+     */
+    /*package*/ StoredCacheEntry(ValueStorage<Value> storage) {
+        this.storage = storage;
+    }
+
+    /**
+     * Create a new instance of StoredCacheEntry with a given creation time
+     *
+     * @param storage      storage of the value
+     * @param creationTime creation time in milliseconds
+     */
+    /*package*/ StoredCacheEntry(ValueStorage<Value> storage, long creationTime) {
+        super(creationTime);
+        this.storage = storage;
+    }
+
+    /**
+     * Retrieve the value from the storage
+     *
+     * @return the value, null if the storage had no space for it or the value has been released
+     */
+    @Override
+    public Value getValue() {
+        Object current = stored;
+        return current == null ? null : storage.load(current);
+    }
+
+    @Override
+    /*package*/ void setValue(Value value) {
+        this.stored = storage.store(value);
+    }
+
+    @Override
+    /*package*/ boolean hasValue() {
+        return stored != null;
+    }
+
+    @Override
+    /*package*/ void release() {
+        Object current = stored;
+        if (current != null) {
+            storage.release(current);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package org.mirko.cache.nway;
+
+/**
+ * <p>Package accessible interface that define how the value of an entry is kept in the cache.</p>
+ * <p>The entry holds only the object returned by {@link #store(Object)} and asks the storage for the value on every
+ * read. When the entry leaves the cache its stored object is released: a read after the release can return null
+ * and the cache handles it as a miss.</p>
+ * <br/><br/>Created by Mirko Bernardoni on 19/10/26.
+ *
+ * @author Mirko Bernardoni
+ * @version 1.0
+ * @since 1.0
+ */
+/*package*/ interface ValueStorage<Value> {
+    /**
+     * Store a value
+     *
+     * @param value value
+     * @return the object kept by the entry, null if the storage has no space for the value
+     */
+    Object store(Value value);
+
+    /**
+     * Retrieve a value
+     *
+     * @param stored object returned by {@link #store(Object)}
+     * @return the value, null if the value has been released and its resources are not available anymore
+     */
+    Value load(Object stored);
+
+    /**
+     * Free the resources of a value that is no more in the cache. Can be called more than once for the same value:
+     * the calls after the first have no effect
+     *
+     * @param stored object returned by {@link #store(Object)}
+     */
+    void release(Object stored);
+}
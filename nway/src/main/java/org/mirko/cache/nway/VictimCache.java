@@ -0,0 +1,104 @@
+package org.mirko.cache.nway;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>Package accessible class that implement a small fully associative buffer for the entries evicted from the
+ * blocks (<a href="http://en.wikipedia.org/wiki/Victim_cache">victim cache</a>).</p>
+ * <p>The keys are mapped to the blocks by their hash code: few hot keys in the same block can evict each other
+ * (conflict misses) even if the rest of the cache is empty. The entries removed by the eviction policy are moved in
+ * the victim cache, shared by all the blocks, and the victim cache is checked before calling the loader: a hit moves
+ * the entry back in its block.</p>
+ * <p>When the victim cache is full the oldest entry is removed (FIFO). All the operations are protected by a single
+ * lock, so the victim cache has to stay small.</p>
+ * <br/><br/>Created by Mirko Bernardoni on 19/10/26.
+ *
+ * @author Mirko Bernardoni
+ * @version 1.0
+ * @since 1.0
+ */
+/*package*/ class VictimCache<Key, Value> {
+    private final int capacity;
+    private final Map<Key, CacheEntry<Key, Value>> entries;
+    private final Lock lock = new ReentrantLock();
+
+    /**
+     * Create a new instance of VictimCache
+     *
+     * @param capacity max number of entries
+     * @throws java.lang.IllegalArgumentException if capacity < 1
+     */
+    /*package*/ VictimCache(int capacity) {
+        Preconditions.checkArgument(capacity > 0, "Victim cache size has to be at least 1");
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<>(capacity * 2);
+    }
+
+    /**
+     * Add an entry evicted from a block
+     *
+     * @param entry entry evicted
+     * @return the entry removed from the victim cache for making space (or the old entry for the same key),
+     * null if nothing has been removed
+     */
+    /*package*/ CacheEntry<Key, Value> offer(CacheEntry<Key, Value> entry) {
+        Preconditions.checkNotNull(entry, "CacheEntry cannot be null");
+        lock.lock();
+        try {
+            CacheEntry<Key, Value> removed = entries.remove(entry.getKey());
+            entries.put(entry.getKey(), entry);
+            if (removed == null && entries.size() > capacity) {
+                Iterator<CacheEntry<Key, Value>> oldest = entries.values().iterator();
+                removed = oldest.next();
+                oldest.remove();
+            }
+            return removed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remove the entry of a key from the victim cache
+     *
+     * @param key key
+     * @return the entry or null if the key is not in the victim cache
+     */
+    /*package*/ CacheEntry<Key, Value> take(Key key) {
+        lock.lock();
+        try {
+            return entries.remove(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Retrieve the number of entries in the victim cache
+     *
+     * @return number of entries
+     */
+    /*package*/ int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("Capacity", capacity)
+                .add("Size", size())
+                .toString();
+    }
+}
@@ -0,0 +1,23 @@
+package org.mirko.cache.nway;
+
+/**
+ * Calculate the weight of the entries for a cache bounded by weight (see
+ * {@link NWayCacheBuilder#maximumWeight(Weigher, long)}). The weight is usually the size in bytes of the value, or
+ * any other cost that has to be bounded. The implementation has to be thread safe: it is called concurrently by all
+ * the threads that use the cache.
+ * <br/><br/>Created by Mirko Bernardoni on 19/10/26.
+ *
+ * @author Mirko Bernardoni
+ * @version 1.0
+ * @since 1.0
+ */
+public interface Weigher<Key, Value> {
+    /**
+     * Calculate the weight of an entry. Called every time an entry is added to a block
+     *
+     * @param key   key, never null
+     * @param value value, never null
+     * @return the weight of the entry, it cannot be negative
+     */
+    int weigh(Key key, Value value);
+}
@@ -0,0 +1,242 @@
+package org.mirko.cache.nway;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <p>Package accessible class that writes the changes of the cache in the backing store asynchronously.</p>
+ * <p>The changes are kept in a map by key: a key written or deleted again before the flush is written only once,
+ * with its last change. The map is flushed every {@code delay} milliseconds on the scheduler, and as soon as it holds
+ * {@code batchSize} keys, through {@link CacheWriter#writeAll(java.util.Map)} and
+ * {@link CacheWriter#deleteAll(java.util.Collection)} in batches of at most {@code batchSize} keys. A batch that
+ * fails is kept for the next flush, unless its keys have been changed again in the meanwhile.</p>
+ * <p>A single flush runs at a time. Before loading a missing key the cache calls {@link #flush(Object)}, so the
+ * loader never reads a value older than the last change.</p>
+ * <br/><br/>Created by Mirko Bernardoni on 19/10/26.
+ *
+ * @author Mirko Bernardoni
+ * @version 1.0
+ * @since 1.0
+ */
+/*package*/ class WriteBehindQueue<Key, Value> {
+    private static final Logger LOG = LoggerFactory.getLogger(WriteBehindQueue.class);
+    // change of a deleted key
+    private static final Object DELETE = new Object();
+
+    private final CacheWriter<Key, Value> writer;
+    private final ScheduledExecutorService scheduler;
+    private final int batchSize;
+    // last change of every key: the value or DELETE
+    private final ConcurrentMap<Key, Object> pending = new ConcurrentHashMap<>();
+    // keys of the batch that is being written
+    private final Set<Key> inFlight = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    /**
+     * Create a new instance of WriteBehindQueue and schedule the periodic flush
+     *
+     * @param writer    writer of the backing store
+     * @param scheduler scheduler of the flushes
+     * @param delay     time in milliseconds between two periodic flushes
+     * @param batchSize max keys written in a batch, and keys that trigger a flush
+     * @throws java.lang.NullPointerException     if writer or scheduler is null
+     * @throws java.lang.IllegalArgumentException if delay < 1 or batchSize < 1
+     */
+    /*package*/ WriteBehindQueue(CacheWriter<Key, Value> writer, ScheduledExecutorService scheduler, long delay,
+                                 int batchSize) {
+        Preconditions.checkNotNull(writer, "Writer cannot be null");
+        Preconditions.checkNotNull(scheduler, "Scheduler cannot be null");
+        Preconditions.checkArgument(delay > 0, "Delay has to be > 0");
+        Preconditions.checkArgument(batchSize > 0, "batchSize has to be at least 1");
+        this.writer = writer;
+        this.scheduler = scheduler;
+        this.batchSize = batchSize;
+        scheduler.scheduleWithFixedDelay(this::flushQuietly, delay, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queue the write of an entry
+     *
+     * @param key   key
+     * @param value new value
+     */
+    /*package*/ void write(Key key, Value value) {
+        pending.put(key, value);
+        schedule();
+    }
+
+    /**
+     * Queue the delete of an entry
+     *
+     * @param key key
+     */
+    /*package*/ void delete(Key key) {
+        pending.put(key, DELETE);
+        schedule();
+    }
+
+    /**
+     * Retrieve the number of keys waiting to be written
+     *
+     * @return keys with a change not written
+     */
+    /*package*/ int pending() {
+        return pending.size();
+    }
+
+    /**
+     * Write all the changes queued
+     *
+     * @throws org.mirko.cache.nway.CacheWriterException if a batch cannot be written, after trying all the batches
+     */
+    @SuppressWarnings("unchecked")
+    /*package*/ synchronized void flush() {
+        CacheWriterException failure = null;
+        Iterator<Map.Entry<Key, Object>> changes = pending.entrySet().iterator();
+        while (changes.hasNext()) {
+            Map<Key, Value> writes = new LinkedHashMap<>();
+            List<Key> deletes = new ArrayList<>();
+            while (changes.hasNext() && writes.size() + deletes.size() < batchSize) {
+                Map.Entry<Key, Object> change = changes.next();
+                Key key = change.getKey();
+                Object value = change.getValue();
+                inFlight.add(key);
+                if (!pending.remove(key, value)) {
+                    // changed again: the new change is written by the next flush
+                    inFlight.remove(key);
+                } else if (value == DELETE) {
+                    deletes.add(key);
+                } else {
+                    writes.put(key, (Value) value);
+                }
+            }
+            try {
+                write(writes, deletes);
+            } catch (CacheWriterException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Write the change queued for a key, waiting for the batch that is writing it
+     *
+     * @param key key
+     * @throws org.mirko.cache.nway.CacheWriterException if the change cannot be written
+     */
+    @SuppressWarnings("unchecked")
+    /*package*/ void flush(Key key) {
+        if (!pending.containsKey(key) && !inFlight.contains(key)) {
+            return;
+        }
+        synchronized (this) {
+            inFlight.add(key);
+            Object value = pending.remove(key);
+            if (value == null) {
+                // written by the flush that was holding the lock
+                inFlight.remove(key);
+                return;
+            }
+            if (value == DELETE) {
+                write(Collections.emptyMap(), Collections.singletonList(key));
+            } else {
+                write(Collections.singletonMap(key, (Value) value), Collections.emptyList());
+            }
+        }
+    }
+
+    /**
+     * Write a batch. The changes that fail are queued again, unless their keys have been changed again
+     *
+     * @param writes  entries to write
+     * @param deletes keys to delete
+     * @throws org.mirko.cache.nway.CacheWriterException if the writer throws an exception
+     */
+    private void write(Map<Key, Value> writes, List<Key> deletes) {
+        Exception failure = null;
+        if (!writes.isEmpty()) {
+            try {
+                writer.writeAll(writes);
+            } catch (Exception e) {
+                failure = e;
+                writes.forEach(pending::putIfAbsent);
+            }
+        }
+        if (!deletes.isEmpty()) {
+            try {
+                writer.deleteAll(deletes);
+            } catch (Exception e) {
+                failure = e;
+                deletes.forEach(key -> pending.putIfAbsent(key, DELETE));
+            }
+        }
+        inFlight.removeAll(writes.keySet());
+        inFlight.removeAll(deletes);
+        if (failure != null) {
+            throw new CacheWriterException("Exception during the write of " + (writes.size() + deletes.size())
+                    + " entries", failure);
+        }
+    }
+
+    /**
+     * Flush on the scheduler when the batch is full
+     */
+    private void schedule() {
+        if (pending.size() >= batchSize && scheduled.compareAndSet(false, true)) {
+            try {
+                scheduler.execute(() -> {
+                    try {
+                        flushQuietly();
+                    } finally {
+                        scheduled.set(false);
+                    }
+                });
+            } catch (RuntimeException e) {
+                scheduled.set(false);
+                if (LOG.isWarnEnabled()) {
+                    LOG.warn("Cannot submit the flush to the scheduler", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Flush from the scheduler: an exception would cancel the periodic flush
+     */
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            if (LOG.isWarnEnabled()) {
+                LOG.warn("Write behind failed, the changes are retried by the next flush", e);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("Writer", writer)
+                .add("BatchSize", batchSize)
+                .add("Pending", pending.size())
+                .toString();
+    }
+}
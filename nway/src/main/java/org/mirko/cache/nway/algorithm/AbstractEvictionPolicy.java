@@ -0,0 +1,41 @@
+package org.mirko.cache.nway.algorithm;
+
+import org.mirko.cache.nway.CacheEntry;
+import org.mirko.cache.nway.CacheEntryStatus;
+import org.mirko.cache.nway.CacheEviction;
+import org.mirko.cache.nway.EvictionPolicy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Base class for the provided algorithms: the algorithm is implemented once in
+ * {@link EvictionPolicy#selectVictims(org.mirko.cache.nway.CacheSetView, int[])} and
+ * {@link #eviction(java.util.List)} marks for deletion the selected victims of the list.
+ * <br/><br/>Created by Mirko Bernardoni on 19/10/26.
+ *
+ * @author Mirko Bernardoni
+ * @version 1.0
+ * @since 1.0
+ */
+public abstract class AbstractEvictionPolicy<Key, Value> implements CacheEviction<Key, Value>, EvictionPolicy<Key, Value> {
+
+    /**
+     * Mark for deletion the entries chosen by {@link #selectVictims(org.mirko.cache.nway.CacheSetView, int[])}
+     *
+     * @param block the block to analise
+     */
+    @Override
+    public void eviction(List<CacheEntry<Key, Value>> block) {
+        List<CacheEntry<Key, Value>> randomAccessBlock = block;
+        if (!(block instanceof RandomAccess)) {
+            randomAccessBlock = new ArrayList<>(block);
+        }
+        int[] victims = new int[randomAccessBlock.size()];
+        int count = selectVictims(new BlockView<>(randomAccessBlock), victims);
+        for (int i = 0; i < count; i++) {
+            randomAccessBlock.get(victims[i]).setStatus(CacheEntryStatus.DELETED);
+        }
+    }
+}
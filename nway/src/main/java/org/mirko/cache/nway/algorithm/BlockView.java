@@ -0,0 +1,75 @@
+package org.mirko.cache.nway.algorithm;
+
+import org.mirko.cache.nway.CacheEntry;
+import org.mirko.cache.nway.CacheEntryStatus;
+import org.mirko.cache.nway.CacheSetView;
+
+import java.util.List;
+
+/**
+ * Package accessible {@link CacheSetView} on a block given as a list. It is used for running the
+ * {@link org.mirko.cache.nway.EvictionPolicy} implementations from {@link org.mirko.cache.nway.CacheEviction#eviction(List)}
+ * <br/><br/>Created by Mirko Bernardoni on 19/10/26.
+ *
+ * @author Mirko Bernardoni
+ * @version 1.0
+ * @since 1.0
+ */
+/*package*/ class BlockView<Key, Value> implements CacheSetView<Key, Value> {
+    private final List<CacheEntry<Key, Value>> block;
+    private final Object state;
+
+    /*package*/ BlockView(List<CacheEntry<Key, Value>> block) {
+        this(block, null);
+    }
+
+    /*package*/ BlockView(List<CacheEntry<Key, Value>> block, Object state) {
+        this.block = block;
+        this.state = state;
+    }
+
+    @Override
+    public int size() {
+        return block.size();
+    }
+
+    @Override
+    public CacheEntry<Key, Value> getEntry(int slot) {
+        return block.get(slot);
+    }
+
+    @Override
+    public boolean isActive(int slot) {
+        return block.get(slot).getStatus() == CacheEntryStatus.ACTIVE;
+    }
+
+    @Override
+    public long getAccessTime(int slot) {
+        return block.get(slot).getAccessTime();
+    }
+
+    @Override
+    public long getCreationTime(int slot) {
+        return block.get(slot).getCreationTime();
+    }
+
+    @Override
+    public int getHitCount(int slot) {
+        return block.get(slot).getHitCount();
+    }
+
+    @Override
+    public void resetHitCount(int slot) {
+        block.get(slot).resetHitCount();
+    }
+
+    @Override
+    public long getWeight(int slot) {
+        return 1;
+    }
+
+    @Override
+    public Object getState() {
+        return state;
+    }
+}
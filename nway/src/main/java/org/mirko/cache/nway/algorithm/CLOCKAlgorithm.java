@@ -0,0 +1,108 @@
+package org.mirko.cache.nway.algorithm;
+
+import org.mirko.cache.nway.CacheSetView;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+
+/**
+ * Implementation of the <a href="http://en.wikipedia.org/wiki/Page_replacement_algorithm#Clock">CLOCK</a> (second
+ * chance) algorithm.<br/>
+ * Every block has its own state: a reference bit for every slot and the clock hand. A hit sets the reference bit of
+ * the entry, a new entry starts without reference bit. The eviction moves the hand over the block: the entries with
+ * the reference bit get a second chance (the bit is cleared), the first entry without reference bit is deleted.
+ * <br/><br/>
+ * Without a block state (for example calling {@link CLOCKAlgorithm#eviction(java.util.List)}) the algorithm deletes
+ * the oldest entry like {@link LRUAlgorithm}.
+ * <br/><br/>Created by Mirko Bernardoni on 19/10/26.
+ * @author Mirko Bernardoni
+ * @since 1.0
+ * @version 1.0
+ */
+public class CLOCKAlgorithm<Key, Value> extends AbstractEvictionPolicy<Key, Value> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CLOCKAlgorithm.class);
+
+    /**
+     * Select the first entry without reference bit starting from the hand
+     *
+     * @param set     the block to analise
+     * @param victims array where the victim slots are written
+     * @return number of victims
+     */
+    @Override
+    public int selectVictims(CacheSetView<Key, Value> set, int[] victims) {
+        int size = set.size();
+        if (size == 0) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("CLOCK called for empty block");
+            }
+            return 0;
+        }
+        ClockState state = (ClockState) set.getState();
+        int hand = state == null ? 0 : state.hand % size;
+        // two rounds are enough: the first one clears all the reference bits
+        for (int i = 0; i < size * 2; i++) {
+            int slot = (hand + i) % size;
+            if (!set.isActive(slot)) {
+                continue;
+            }
+            if (state != null && state.referenced[slot]) {
+                state.referenced[slot] = false;
+                continue;
+            }
+            if (state != null) {
+                // the next entry moves in this slot after the removal
+                state.hand = slot;
+            }
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("CLOCK mark for deletion {}", set.getEntry(slot));
+            }
+            victims[0] = slot;
+            return 1;
+        }
+        return 0;
+    }
+
+    @Override
+    public Object createSetState(int capacity) {
+        return new ClockState(capacity);
+    }
+
+    @Override
+    public void onHit(CacheSetView<Key, Value> set, int slot) {
+        ((ClockState) set.getState()).referenced[slot] = true;
+    }
+
+    @Override
+    public void onInsert(CacheSetView<Key, Value> set, int slot) {
+        ClockState state = (ClockState) set.getState();
+        if (slot >= state.referenced.length) {
+            // the block can be bigger than expected when an eviction did not free any slot
+            state.referenced = Arrays.copyOf(state.referenced, slot + 1);
+        }
+        state.referenced[slot] = false;
+    }
+
+    @Override
+    public void onRemove(CacheSetView<Key, Value> set, int slot) {
+        ClockState state = (ClockState) set.getState();
+        System.arraycopy(state.referenced, slot + 1, state.referenced, slot, set.size() - slot - 1);
+        if (state.hand > slot) {
+            state.hand--;
+        }
+    }
+
+    /**
+     * State of a block: reference bits and hand
+     */
+    private static class ClockState {
+        private boolean[] referenced;
+        private int hand;
+
+        private ClockState(int capacity) {
+            this.referenced = new boolean[capacity];
+        }
+    }
+}
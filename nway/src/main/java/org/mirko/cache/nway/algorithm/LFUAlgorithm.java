@@ -0,0 +1,83 @@
+package org.mirko.cache.nway.algorithm;
+
+import com.google.common.base.Preconditions;
+import org.mirko.cache.nway.CacheSetView;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Implementation of a basic <a href="http://en.wikipedia.org/wiki/Least_frequently_used">LFU</a> algorithm.<br/>
+ * Mark for deletion {@link LFUAlgorithm#entriesToDelete} entries with the lowest hit count in the block. <br/>
+ * Entries with the same hit count are deleted following the access time (the older first).
+ * <br/><br/>
+ * {@link LFUAlgorithm#entriesToDelete} Cannot be < 1 otherwise an {@link java.lang.IllegalArgumentException} is raised
+ * when the method {@link LFUAlgorithm#eviction(java.util.List)} is called.
+ * <br/><br/>Created by Mirko Bernardoni on 19/10/26.
+ * @author Mirko Bernardoni
+ * @since 1.0
+ * @version 1.0
+ */
+public class LFUAlgorithm<Key, Value> extends AbstractEvictionPolicy<Key, Value> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LFUAlgorithm.class);
+    private int entriesToDelete;
+
+    /**
+     * Select the <code>entriesToDelete</code> least frequently used entries
+     *
+     * @param set     the block to analise
+     * @param victims array where the victim slots are written
+     * @return number of victims
+     * @throws java.lang.IllegalArgumentException in case <code>entriesToDelete</code> is < 1
+     */
+    @Override
+    public int selectVictims(CacheSetView<Key, Value> set, int[] victims) {
+        Preconditions.checkArgument(entriesToDelete > 0, "At least 1 entry has to be deleted");
+        if (set.size() == 0) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("LFU called for empty block");
+            }
+            return 0;
+        }
+        int count = 0;
+        while (count < entriesToDelete) {
+            int victim = -1;
+            for (int slot = 0; slot < set.size(); slot++) {
+                if (set.isActive(slot) && !isSelected(victims, count, slot) && (victim < 0
+                        || set.getHitCount(slot) < set.getHitCount(victim)
+                        || (set.getHitCount(slot) == set.getHitCount(victim) && set.getAccessTime(slot) < set.getAccessTime(victim)))) {
+                    victim = slot;
+                }
+            }
+            if (victim < 0) {
+                // Nothing left to delete
+                break;
+            }
+            victims[count++] = victim;
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("LFU mark for deletion {}", set.getEntry(victim));
+            }
+        }
+        return count;
+    }
+
+    private static boolean isSelected(int[] victims, int count, int slot) {
+        for (int i = 0; i < count; i++) {
+            if (victims[i] == slot) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Define how many least frequently used entries will be deleted for each eviction.
+     *
+     * @param entriesToDelete entries to the delete. Must be > 1
+     * @throws java.lang.IllegalArgumentException in case <code>entriesToDelete</code> is < 1
+     */
+    public void setEntriesToDelete(int entriesToDelete) {
+        Preconditions.checkArgument(entriesToDelete > 0, "At least 1 entry has to be deleted");
+        this.entriesToDelete = entriesToDelete;
+    }
+}
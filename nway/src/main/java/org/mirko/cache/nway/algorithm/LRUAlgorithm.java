@@ -1,14 +1,10 @@
 package org.mirko.cache.nway.algorithm;
 
 import com.google.common.base.Preconditions;
-import org.mirko.cache.nway.CacheEntry;
-import org.mirko.cache.nway.CacheEntryStatus;
-import org.mirko.cache.nway.CacheEviction;
+import org.mirko.cache.nway.CacheSetView;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.List;
-
 /**
  * Implementation of a basic <a href="http://en.wikipedia.org/wiki/Cache_algorithms#LRU">LRU</a> algorithm.<br/>
  * Mark for deletion {@link LRUAlgorithm#entriesToDelete} oldest entries in the cache. <br/>
@@ -22,27 +18,35 @@ import java.util.List;
  * @since 1.0
  * @version 1.0
  */
-public class LRUAlgorithm<Key, Value> implements CacheEviction<Key, Value> {
+public class LRUAlgorithm<Key, Value> extends AbstractEvictionPolicy<Key, Value> {
 
     private static final Logger LOG = LoggerFactory.getLogger(LRUAlgorithm.class);
     private int entriesToDelete;
 
     /**
-     * Mark for deletion the oldest <code>entriesToDelete</code> entries
+     * Select the oldest <code>entriesToDelete</code> active entries
      *
-     * @param block the block to analise
+     * @param set     the block to analise
+     * @param victims array where the victim slots are written
+     * @return number of victims
      * @throws java.lang.IllegalArgumentException in case <code>entriesToDelete</code> is < 1
      */
     @Override
-    public void eviction(List<CacheEntry<Key, Value>> block) {
+    public int selectVictims(CacheSetView<Key, Value> set, int[] victims) {
         Preconditions.checkArgument(entriesToDelete > 0, "At least 1 entry has to be deleted");
-        if (block.isEmpty()) {
+        if (set.size() == 0) {
             if (LOG.isDebugEnabled()) {
                 LOG.debug("LRU called for empty block");
             }
-            return;
+            return 0;
+        }
+        int count = 0;
+        for (int slot = 0; slot < set.size() && count < entriesToDelete; slot++) {
+            if (set.isActive(slot)) {
+                victims[count++] = slot;
+            }
         }
-        block.stream().limit(entriesToDelete).forEach(e -> e.setStatus(CacheEntryStatus.DELETED));
+        return count;
     }
 
     /**
@@ -55,4 +59,4 @@ public class LRUAlgorithm<Key, Value> implements CacheEviction<Key, Value> {
         Preconditions.checkArgument(entriesToDelete > 0, "At least 1 entry has to be deleted");
         this.entriesToDelete = entriesToDelete;
     }
-}
\ No newline at end of file
+}
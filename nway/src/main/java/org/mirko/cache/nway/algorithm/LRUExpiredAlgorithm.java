@@ -1,15 +1,10 @@
 package org.mirko.cache.nway.algorithm;
 
 import com.google.common.base.Preconditions;
-import org.mirko.cache.nway.CacheEntry;
-import org.mirko.cache.nway.CacheEntryStatus;
-import org.mirko.cache.nway.CacheEviction;
+import org.mirko.cache.nway.CacheSetView;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Iterator;
-import java.util.List;
-
 /**
  * Implementation of the <a href="http://en.wikipedia.org/wiki/Cache_algorithms#LRU">LRU</a> algorithm based on the access time.<br/>
  * Mark for deletion all the entries that are not used for {@code expiration} milliseconds following the below calculation.<br/>
@@ -30,57 +25,59 @@ import java.util.List;
  * @since 1.0
  * @version 1.0
  */
-public class LRUExpiredAlgorithm<Key, Value> implements CacheEviction<Key, Value> {
+public class LRUExpiredAlgorithm<Key, Value> extends AbstractEvictionPolicy<Key, Value> {
     private static final Logger LOG = LoggerFactory.getLogger(LRUExpiredAlgorithm.class);
     private long expiration;
 
     /**
-     * Mark for deletion all the entries that are not used for {@code expiration} milliseconds.
+     * Select all the entries that are not used for {@code expiration} milliseconds.
      *
-     * @param block the block to analise
+     * @param set     the block to analise
+     * @param victims array where the victim slots are written
+     * @return number of victims
      * @throws java.lang.IllegalArgumentException in case <code>expiration</code> is < 1
      */
     @Override
-    public void eviction(List<CacheEntry<Key, Value>> block) {
+    public int selectVictims(CacheSetView<Key, Value> set, int[] victims) {
         Preconditions.checkArgument(expiration > 0, "Expiration time not set");
 
-        if (block.isEmpty()) {
+        if (set.size() == 0) {
             if (LOG.isDebugEnabled()) {
                 LOG.debug("LRU Expired called for empty block");
             }
-            return;
+            return 0;
         }
 
-        Iterator<CacheEntry<Key, Value>> iterator = block.iterator();
         long now = System.currentTimeMillis();
-        boolean atLeasOneDeletion = false;
-        long oldTime = Long.MIN_VALUE;
-        CacheEntry<Key, Value> older = null;
-        while (iterator.hasNext()) {
-            CacheEntry<Key, Value> entry = iterator.next();
-            long entryTime = entry.getAccessTime();
+        int count = 0;
+        int older = -1;
+        long oldTime = Long.MAX_VALUE;
+        for (int slot = 0; slot < set.size(); slot++) {
+            if (!set.isActive(slot)) {
+                continue;
+            }
+            long entryTime = set.getAccessTime(slot);
             long expireAt = entryTime + expiration;
             if (now > expireAt) {
-                entry.setStatus(CacheEntryStatus.DELETED);
-                atLeasOneDeletion = true;
+                victims[count++] = slot;
                 if (LOG.isDebugEnabled()) {
-                    LOG.debug("LRU Expired: Mark to delete {}", entry);
+                    LOG.debug("LRU Expired: Mark to delete {}", set.getEntry(slot));
                 }
             }
-            // Find the oldest  entry
-            if (!atLeasOneDeletion && oldTime < entryTime) {
-                older = entry;
+            // Find the oldest entry
+            if (older < 0 || entryTime < oldTime) {
+                older = slot;
                 oldTime = entryTime;
             }
         }
         // Nothing expired but remove the older used
-        if (!atLeasOneDeletion) {
+        if (count == 0 && older >= 0) {
             if (LOG.isDebugEnabled()) {
-                LOG.debug("No entry expired, mark to delete the oldest {}", older);
+                LOG.debug("No entry expired, mark to delete the oldest {}", set.getEntry(older));
             }
-            //noinspection ConstantConditions
-            older.setStatus(CacheEntryStatus.DELETED);
+            victims[count++] = older;
         }
+        return count;
     }
 
     /**
@@ -1,15 +1,10 @@
 package org.mirko.cache.nway.algorithm;
 
 import com.google.common.base.Preconditions;
-import org.mirko.cache.nway.CacheEntry;
-import org.mirko.cache.nway.CacheEntryStatus;
-import org.mirko.cache.nway.CacheEviction;
+import org.mirko.cache.nway.CacheSetView;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.List;
-import java.util.ListIterator;
-
 /**
  * Implementation of a basic <a href="http://en.wikipedia.org/wiki/Cache_algorithms#LRU">MRU</a> algorithm.<br/>
  * Mark for deletion {@link MRUAlgorithm#entriesToDelete} youngest entries in the cache. <br/>
@@ -24,35 +19,37 @@ import java.util.ListIterator;
  * @since 1.0
  * @version 1.0
  */
-public class MRUAlgorithm<Key, Value> implements CacheEviction<Key, Value> {
+public class MRUAlgorithm<Key, Value> extends AbstractEvictionPolicy<Key, Value> {
 
     private int entriesToDelete;
     private static final Logger LOG = LoggerFactory.getLogger(MRUAlgorithm.class);
     /**
-     * Mark for deletion the youngest <code>entriesToDelete</code> entries
+     * Select the youngest <code>entriesToDelete</code> active entries
      *
-     * @param block the block to analise
+     * @param set     the block to analise
+     * @param victims array where the victim slots are written
+     * @return number of victims
      * @throws java.lang.IllegalArgumentException in case <code>entriesToDelete</code> is < 1
      */
     @Override
-    public void eviction(List<CacheEntry<Key, Value>> block) {
+    public int selectVictims(CacheSetView<Key, Value> set, int[] victims) {
         Preconditions.checkArgument(entriesToDelete > 0, "At least 1 entry has to be deleted");
-        if (block.isEmpty()) {
+        if (set.size() == 0) {
             if(LOG.isDebugEnabled()) {
                 LOG.debug("MRU called for empty block");
             }
-            return;
+            return 0;
         }
-        ListIterator<CacheEntry<Key, Value>> iterator = block.listIterator(block.size());
-        int i = 0;
-        while (iterator.hasPrevious() && i < entriesToDelete) {
-            CacheEntry<Key, Value> entry = iterator.previous();
-            entry.setStatus(CacheEntryStatus.DELETED);
-            if(LOG.isDebugEnabled()) {
-                LOG.debug("MRU mark for deletion {}", entry);
+        int count = 0;
+        for (int slot = set.size() - 1; slot >= 0 && count < entriesToDelete; slot--) {
+            if (set.isActive(slot)) {
+                victims[count++] = slot;
+                if(LOG.isDebugEnabled()) {
+                    LOG.debug("MRU mark for deletion {}", set.getEntry(slot));
+                }
             }
-            i++;
         }
+        return count;
     }
     /**
      * Define how many younger entries will be deleted for each eviction.
@@ -64,4 +61,4 @@ public class MRUAlgorithm<Key, Value> implements CacheEviction<Key, Value> {
         Preconditions.checkArgument(entriesToDelete > 0, "At least 1 entry has to be deleted");
         this.entriesToDelete = entriesToDelete;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,101 @@
+package org.mirko.cache.nway.algorithm;
+
+import com.google.common.base.Preconditions;
+import org.mirko.cache.nway.CacheSetView;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Implementation of the <a href="http://en.wikipedia.org/wiki/Cache_algorithms#Segmented_LRU">Segmented LRU</a> algorithm.<br/>
+ * The block is split in two segments:
+ * <ul>
+ * <li><b>probationary</b>: the new entries, never retrieved from the cache after their creation</li>
+ * <li><b>protected</b>: the entries retrieved at least once after their creation (so used at least twice).
+ * The segment can hold at most {@code block size * protectedFraction} entries, the least recently used entries
+ * exceeding the limit are demoted to the probationary segment</li>
+ * </ul>
+ * Every eviction marks for deletion the least recently used (access time) entry of the probationary segment, the
+ * protected segment is evicted only when the probationary segment is empty. A demoted entry has its hit count reset
+ * (see {@link org.mirko.cache.nway.CacheSetView#resetHitCount(int)}), then it is promoted again by its next hit.
+ * A scan of new keys is then evicting only the entries created by the scan itself, leaving the working set untouched.
+ * <br/><br/>
+ * {@link SLRUAlgorithm#protectedFraction} has to be in the interval (0, 1) otherwise an
+ * {@link java.lang.IllegalArgumentException} is raised when the method {@link SLRUAlgorithm#eviction(java.util.List)} is called.
+ *
+ * <br/><br/>Created by Mirko Bernardoni on 19/10/26.
+ * @author Mirko Bernardoni
+ * @since 1.0
+ * @version 1.0
+ */
+public class SLRUAlgorithm<Key, Value> extends AbstractEvictionPolicy<Key, Value> {
+    private static final Logger LOG = LoggerFactory.getLogger(SLRUAlgorithm.class);
+    private double protectedFraction;
+
+    /**
+     * Select the least recently used entry of the probationary segment
+     *
+     * @param set     the block to analise
+     * @param victims array where the victim slots are written
+     * @return number of victims
+     * @throws java.lang.IllegalArgumentException in case <code>protectedFraction</code> is not in (0, 1)
+     */
+    @Override
+    public int selectVictims(CacheSetView<Key, Value> set, int[] victims) {
+        Preconditions.checkArgument(protectedFraction > 0 && protectedFraction < 1, "Protected fraction not set");
+        if (set.size() == 0) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("SLRU called for empty block");
+            }
+            return 0;
+        }
+
+        int probationVictim = -1;
+        int protectedVictim = -1;
+        int protectedEntries = 0;
+        int active = 0;
+        for (int slot = 0; slot < set.size(); slot++) {
+            if (!set.isActive(slot)) {
+                continue;
+            }
+            active++;
+            if (set.getHitCount(slot) > 0) {
+                protectedEntries++;
+                if (protectedVictim < 0 || set.getAccessTime(slot) < set.getAccessTime(protectedVictim)) {
+                    protectedVictim = slot;
+                }
+            } else if (probationVictim < 0 || set.getAccessTime(slot) < set.getAccessTime(probationVictim)) {
+                probationVictim = slot;
+            }
+        }
+
+        // The least recently used protected entry is demoted when the protected segment is over its size
+        int protectedSize = (int) (active * protectedFraction);
+        if (probationVictim >= 0 && protectedEntries > protectedSize) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("SLRU demote {}", set.getEntry(protectedVictim));
+            }
+            set.resetHitCount(protectedVictim);
+        }
+        // The protected segment is evicted only when the probationary segment is empty
+        int victim = probationVictim >= 0 ? probationVictim : protectedVictim;
+        if (victim < 0) {
+            return 0;
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("SLRU mark for deletion {}", set.getEntry(victim));
+        }
+        victims[0] = victim;
+        return 1;
+    }
+
+    /**
+     * Define the fraction of the block reserved to the protected segment.
+     *
+     * @param protectedFraction fraction of the block for the entries hit at least once. Must be in (0, 1)
+     * @throws java.lang.IllegalArgumentException in case <code>protectedFraction</code> is not in (0, 1)
+     */
+    public void setProtectedFraction(double protectedFraction) {
+        Preconditions.checkArgument(protectedFraction > 0 && protectedFraction < 1, "Protected fraction has to be in (0, 1)");
+        this.protectedFraction = protectedFraction;
+    }
+}
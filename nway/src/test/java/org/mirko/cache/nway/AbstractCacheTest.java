@@ -5,6 +5,7 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -362,6 +363,62 @@ public class AbstractCacheTest {
         Assert.assertEquals(1, missListener1.called);
         Assert.assertEquals(1, missListener2.called);
     }
+
+    @Test
+    public void testFireAsyncListeners() throws Exception {
+        List<Runnable> tasks = new ArrayList<>();
+        cache.setNotificationDispatcher(new NotificationDispatcher(tasks::add, 10, NotificationOverflow.DROP,
+                cache.statsCounter));
+        MissListenerWrapper missListener = new MissListenerWrapper();
+        cache.getMissListeners().add(missListener);
+        RemovalListenerWrapper removalListener = new RemovalListenerWrapper();
+        cache.getRemovalListeners().add(removalListener);
+
+        cache.fireMissListener(10);
+        CacheEntryImpl<Integer, String> entry = new CacheEntryImpl<>();
+        entry.setKey(10);
+        entry.setValue("Test");
+        cache.fireRemovalListener(entry, RemovalCause.USER);
+        Assert.assertEquals(0, missListener.called);
+        Assert.assertEquals(0, removalListener.called);
+        Assert.assertEquals(1, tasks.size());
+
+        tasks.get(0).run();
+        Assert.assertEquals(1, missListener.called);
+        Assert.assertEquals(1, removalListener.called);
+    }
+
+    @Test
+    public void testHoldNotifications() throws Exception {
+        List<Runnable> tasks = new ArrayList<>();
+        cache.setNotificationDispatcher(new NotificationDispatcher(tasks::add, 10, NotificationOverflow.BLOCK,
+                cache.statsCounter));
+        MissListenerWrapper missListener = new MissListenerWrapper();
+        cache.getMissListeners().add(missListener);
+
+        cache.holdNotifications();
+        cache.holdNotifications();
+        cache.fireMissListener(10);
+        cache.releaseNotifications();
+        // still held by the outer call
+        Assert.assertEquals(0, tasks.size());
+        cache.releaseNotifications();
+        Assert.assertEquals(1, tasks.size());
+
+        tasks.get(0).run();
+        Assert.assertEquals(1, missListener.called);
+    }
+
+    @Test
+    public void testListenerRemovedDuringNotification() throws Exception {
+        MissListenerWrapper missListener = new MissListenerWrapper();
+        cache.addMissListener(key -> cache.removeMissListener(missListener));
+        cache.addMissListener(missListener);
+
+        cache.fireMissListener(10);
+        cache.fireMissListener(10);
+        Assert.assertEquals(1, missListener.called);
+    }
     ////////////////////////////////////////////////////////////////////////////////////////////////////////////
     // Other class tests
     ////////////////////////////////////////////////////////////////////////////////////////////////////////////
@@ -0,0 +1,71 @@
+package org.mirko.cache.nway;
+
+import org.mirko.cache.nway.algorithm.LRUAlgorithm;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+/**
+ * Test class for {@link CacheEvictionAdapter}
+ * <br/><br/>Created by Mirko Bernardoni on 19/10/26.
+ *
+ * @author Mirko Bernardoni
+ * @version 1.0
+ * @since 1.0
+ */
+public class CacheEvictionAdapterTest {
+    private CacheBag<Integer, String> bag;
+
+    @Before
+    public void setUp() throws Exception {
+        bag = new CacheBag<>(new ArrayList<>(), 0);
+        for (int i = 0; i < 5; i++) {
+            CacheEntryImpl<Integer, String> entry = new CacheEntryImpl<>();
+            entry.setKey(i);
+            entry.setValue("Value " + i);
+            entry.setStatus(CacheEntryStatus.ACTIVE);
+            bag.getBlock().add(entry);
+        }
+    }
+
+    @Test
+    public void testAdaptNull() {
+        Assert.assertNull(CacheEvictionAdapter.adapt(null));
+    }
+
+    @Test
+    public void testAdaptPolicy() {
+        LRUAlgorithm<Integer, String> lru = new LRUAlgorithm<>();
+        Assert.assertSame(lru, CacheEvictionAdapter.adapt(lru));
+    }
+
+    @Test
+    public void testSelectVictims() {
+        EvictionPolicy<Integer, String> policy = CacheEvictionAdapter.adapt(block -> {
+            block.get(1).setStatus(CacheEntryStatus.DELETED);
+            block.get(3).setStatus(CacheEntryStatus.DELETED);
+        });
+        int[] victims = bag.getVictims();
+        Assert.assertEquals(2, policy.selectVictims(bag, victims));
+        Assert.assertEquals(1, victims[0]);
+        Assert.assertEquals(3, victims[1]);
+        // the cache marks the victims itself
+        Assert.assertEquals(CacheEntryStatus.ACTIVE, bag.getEntry(1).getStatus());
+        Assert.assertEquals(CacheEntryStatus.ACTIVE, bag.getEntry(3).getStatus());
+    }
+
+    @Test
+    public void testSelectNoVictims() {
+        EvictionPolicy<Integer, String> policy = CacheEvictionAdapter.adapt(block -> {
+        });
+        Assert.assertEquals(0, policy.selectVictims(bag, bag.getVictims()));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testImmutableBlock() {
+        EvictionPolicy<Integer, String> policy = CacheEvictionAdapter.adapt(block -> block.remove(0));
+        policy.selectVictims(bag, bag.getVictims());
+    }
+}
@@ -0,0 +1,155 @@
+package org.mirko.cache.nway;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Test class for {@link CacheSnapshot}
+ * <br/><br/>Created by Mirko Bernardoni on 19/10/26.
+ *
+ * @author Mirko Bernardoni
+ * @version 1.0
+ * @since 1.0
+ */
+public class CacheSnapshotTest {
+    private static final int BLOCKS = 300;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path file;
+    private CacheSnapshot<String, String> snapshot;
+    private List<CacheBag<String, String>> bags;
+
+    @Before
+    public void setUp() throws Exception {
+        file = folder.getRoot().toPath().resolve("snapshot.bin");
+        snapshot = new CacheSnapshot<>(new StringSerializer(), new StringSerializer());
+        bags = new ArrayList<>();
+        for (int i = 0; i < BLOCKS; i++) {
+            bags.add(new CacheBag<>(new ArrayList<>(), i));
+        }
+        bags.get(0).add(entry("a", "1", 1000L));
+        bags.get(0).add(entry("b", "2", 2000L));
+        bags.get(299).add(entry("c", "3", 3000L));
+        CacheEntryImpl<String, String> deleted = entry("d", "4", 4000L);
+        deleted.setStatus(CacheEntryStatus.DELETED);
+        bags.get(299).add(deleted);
+    }
+
+    @Test
+    public void testWriteAndRead() throws Exception {
+        Assert.assertEquals(3, snapshot.write(file, bags, false));
+        Map<String, Long> restored = read();
+        Assert.assertEquals(3, restored.size());
+        Assert.assertEquals(Long.valueOf(2000L), restored.get("b2"));
+        Assert.assertEquals(Long.valueOf(3000L), restored.get("c3"));
+    }
+
+    @Test
+    public void testParallel() throws Exception {
+        Assert.assertEquals(3, snapshot.write(file, bags, true));
+        Map<String, Long> restored = read();
+        Assert.assertEquals(3, restored.size());
+        Assert.assertEquals(Long.valueOf(1000L), restored.get("a1"));
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        Assert.assertEquals(0, snapshot.write(file, bags.subList(1, 299), false));
+        Assert.assertTrue(read().isEmpty());
+    }
+
+    @Test
+    public void testFailedWriteKeepsPrevious() throws Exception {
+        snapshot.write(file, bags, false);
+        CacheSnapshot<String, String> failing = new CacheSnapshot<>(new StringSerializer(), new Serializer<String>() {
+            @Override
+            public byte[] serialize(String value) {
+                throw new IllegalStateException("Serializer failure");
+            }
+
+            @Override
+            public String deserialize(byte[] bytes) {
+                return null;
+            }
+        });
+        try {
+            failing.write(file, bags, false);
+            Assert.fail("The serializer failure is expected");
+        } catch (IllegalStateException e) {
+            // the previous snapshot is untouched and the temporary file is deleted
+            Assert.assertEquals(3, read().size());
+            try (Stream<Path> files = Files.list(folder.getRoot().toPath())) {
+                Assert.assertEquals(1, files.count());
+            }
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testNotSnapshot() throws Exception {
+        Files.write(file, "not a snapshot".getBytes(StandardCharsets.UTF_8));
+        read();
+    }
+
+    @Test(expected = IOException.class)
+    public void testCorrupted() throws Exception {
+        snapshot.write(file, bags, false);
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length - 1]++;
+        Files.write(file, bytes);
+        read();
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncated() throws Exception {
+        snapshot.write(file, bags, false);
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 3));
+        read();
+    }
+
+    private Map<String, Long> read() throws IOException {
+        Map<String, Long> restored = new HashMap<>();
+        snapshot.read(file, (key, value, creationTime, accessTime) -> {
+            Assert.assertEquals(creationTime + 10, accessTime);
+            restored.put(key + value, creationTime);
+            return true;
+        });
+        return restored;
+    }
+
+    private static CacheEntryImpl<String, String> entry(String key, String value, long creationTime) {
+        CacheEntryImpl<String, String> entry = new CacheEntryImpl<>(creationTime);
+        entry.setKey(key);
+        entry.setValue(value);
+        entry.setAccessTime(creationTime + 10);
+        return entry;
+    }
+
+    private static class StringSerializer implements Serializer<String> {
+        @Override
+        public byte[] serialize(String value) {
+            return value.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String deserialize(byte[] bytes) {
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package org.mirko.cache.nway;
+
+import com.google.common.base.Strings;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Test class for {@link CompressedStorage}
+ * <br/><br/>Created by Mirko Bernardoni on 19/10/26.
+ *
+ * @author Mirko Bernardoni
+ * @version 1.0
+ * @since 1.0
+ */
+public class CompressedStorageTest {
+    private static final int THRESHOLD = 100;
+    private static final String BIG = Strings.repeat("{\"name\":\"value\"}", 100);
+
+    private StatsCounter statsCounter;
+    private CompressedStorage<String> storage;
+
+    @Before
+    public void setUp() throws Exception {
+        statsCounter = new StatsCounter();
+        storage = new CompressedStorage<>(new StringSerializer(), THRESHOLD, 0, statsCounter);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testThreshold() {
+        new CompressedStorage<>(new StringSerializer(), 0, 0, statsCounter);
+    }
+
+    @Test
+    public void testSmallValue() {
+        String value = Strings.repeat("a", THRESHOLD - 1);
+        Assert.assertSame(value, storage.store(value));
+        Assert.assertSame(value, storage.load(value));
+        Assert.assertEquals(1, statsCounter.snapshot().getCompressionRatio(), 0);
+    }
+
+    @Test
+    public void testBigValue() {
+        Object stored = storage.store(BIG);
+        Assert.assertNotSame(BIG, stored);
+        Assert.assertEquals(BIG, storage.load(stored));
+        Assert.assertNotSame(storage.load(stored), storage.load(stored));
+        CacheStats stats = statsCounter.snapshot();
+        Assert.assertTrue(stats.toString(), stats.getCompressionRatio() > 10);
+        Assert.assertTrue(stats.getCompressionTime() > 0);
+        Assert.assertTrue(stats.getDecompressionTime() > 0);
+    }
+
+    @Test
+    public void testIncompressibleValue() {
+        byte[] random = new byte[THRESHOLD * 2];
+        new Random(42).nextBytes(random);
+        String value = new String(random, StandardCharsets.ISO_8859_1);
+        storage = new CompressedStorage<>(new Latin1Serializer(), THRESHOLD, 0, statsCounter);
+        Assert.assertSame(value, storage.store(value));
+        Assert.assertEquals(1, statsCounter.snapshot().getCompressionRatio(), 0);
+    }
+
+    @Test
+    public void testSideCache() {
+        storage = new CompressedStorage<>(new StringSerializer(), THRESHOLD, 3, statsCounter);
+        Object stored = storage.store(BIG);
+        String value = storage.load(stored);
+        Assert.assertEquals(BIG, value);
+        // decompressed once
+        Assert.assertSame(value, storage.load(stored));
+        storage.release(stored);
+        Assert.assertNotSame(value, storage.load(stored));
+        Assert.assertEquals(BIG, storage.load(stored));
+    }
+
+    private static class StringSerializer implements Serializer<String> {
+        @Override
+        public byte[] serialize(String value) {
+            return value.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String deserialize(byte[] bytes) {
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static class Latin1Serializer implements Serializer<String> {
+        @Override
+        public byte[] serialize(String value) {
+            return value.getBytes(StandardCharsets.ISO_8859_1);
+        }
+
+        @Override
+        public String deserialize(byte[] bytes) {
+            return new String(bytes, StandardCharsets.ISO_8859_1);
+        }
+    }
+}
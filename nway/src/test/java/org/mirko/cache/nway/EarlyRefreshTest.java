@@ -0,0 +1,75 @@
+package org.mirko.cache.nway;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test class for {@link EarlyRefresh}
+ * <br/><br/>Created by Mirko Bernardoni on 19/10/26.
+ *
+ * @author Mirko Bernardoni
+ * @version 1.0
+ * @since 1.0
+ */
+public class EarlyRefreshTest {
+    private static final long REFRESH_AFTER = 1000;
+
+    private List<Runnable> tasks;
+    private EarlyRefresh<Integer> earlyRefresh;
+
+    @Before
+    public void setUp() throws Exception {
+        tasks = new ArrayList<>();
+        earlyRefresh = new EarlyRefresh<>(REFRESH_AFTER, 1, tasks::add, 16);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBeta() {
+        new EarlyRefresh<Integer>(REFRESH_AFTER, 0, tasks::add, 16);
+    }
+
+    @Test
+    public void testNoCost() {
+        // without a load time the entry is refreshed only when it is old
+        for (int i = 0; i < 100; i++) {
+            Assert.assertFalse(earlyRefresh.shouldRefresh(1, 0, REFRESH_AFTER - 1));
+        }
+        Assert.assertTrue(earlyRefresh.shouldRefresh(1, 0, REFRESH_AFTER));
+    }
+
+    @Test
+    public void testCost() {
+        // a load of 1 second: refreshed about 37% (1/e) of the times 1 second before the expiration, rarely 10 seconds before
+        earlyRefresh.recordLoad(1, TimeUnit.SECONDS.toNanos(1));
+        int close = 0;
+        int far = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (earlyRefresh.shouldRefresh(1, 0, 0)) {
+                close++;
+            }
+            if (earlyRefresh.shouldRefresh(1, 10 * REFRESH_AFTER, 0)) {
+                far++;
+            }
+        }
+        Assert.assertTrue("Close refreshes " + close, close > 250 && close < 500);
+        Assert.assertTrue("Far refreshes " + far, far < 10);
+    }
+
+    @Test
+    public void testOneRefreshByKey() {
+        int[] runs = {0};
+        earlyRefresh.refresh(1, () -> runs[0]++);
+        earlyRefresh.refresh(1, () -> runs[0]++);
+        earlyRefresh.refresh(2, () -> runs[0]++);
+        Assert.assertEquals(2, tasks.size());
+        tasks.get(0).run();
+        earlyRefresh.refresh(1, () -> runs[0]++);
+        Assert.assertEquals(3, tasks.size());
+        Assert.assertEquals(1, runs[0]);
+    }
+}
@@ -0,0 +1,126 @@
+package org.mirko.cache.nway;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Test class for {@link LoadGuard}
+ * <br/><br/>Created by Mirko Bernardoni on 19/10/26.
+ *
+ * @author Mirko Bernardoni
+ * @version 1.0
+ * @since 1.0
+ */
+public class LoadGuardTest {
+    private ExecutorService executor;
+    private StatsCounter statsCounter;
+    private CountDownLatch started;
+    private CountDownLatch release;
+    private CacheLoader<Integer, String> blockingLoader;
+
+    @Before
+    public void setUp() throws Exception {
+        executor = Executors.newCachedThreadPool();
+        statsCounter = new StatsCounter();
+        started = new CountDownLatch(1);
+        release = new CountDownLatch(1);
+        blockingLoader = key -> {
+            started.countDown();
+            // not interruptible, as a slow query
+            while (true) {
+                try {
+                    release.await();
+                    return "v" + key;
+                } catch (InterruptedException e) {
+                    // ignored
+                }
+            }
+        };
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        release.countDown();
+        executor.shutdownNow();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeLoads() {
+        new LoadGuard(-1, LoadOverflow.FAIL, 0, null, statsCounter);
+    }
+
+    @Test
+    public void testNoLimit() throws Exception {
+        LoadGuard guard = new LoadGuard(0, null, 0, null, statsCounter);
+        Assert.assertEquals("v1", guard.load(key -> "v" + key, 1));
+    }
+
+    @Test(expected = IOException.class)
+    public void testLoaderException() throws Exception {
+        LoadGuard guard = new LoadGuard(1, LoadOverflow.FAIL, 1000, executor, statsCounter);
+        guard.load(key -> {
+            throw new IOException("Database not available");
+        }, 1);
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        LoadGuard guard = new LoadGuard(1, LoadOverflow.FAIL, 50, executor, statsCounter);
+        try {
+            guard.load(blockingLoader, 1);
+            Assert.fail("Exception expected");
+        } catch (TimeoutException e) {
+            Assert.assertEquals(1, statsCounter.snapshot().getLoadTimeoutCount());
+        }
+        // the loader that ignores the interruption still holds the permit
+        try {
+            guard.load(key -> "v" + key, 2);
+            Assert.fail("Exception expected");
+        } catch (RejectedExecutionException e) {
+            Assert.assertEquals(1, statsCounter.snapshot().getRejectedLoadCount());
+        }
+        release.countDown();
+        long end = System.currentTimeMillis() + 10000;
+        String value = null;
+        while (value == null && System.currentTimeMillis() < end) {
+            try {
+                value = guard.load(key -> "v" + key, 2);
+            } catch (RejectedExecutionException e) {
+                Thread.sleep(10);
+            }
+        }
+        Assert.assertEquals("v2", value);
+    }
+
+    @Test
+    public void testWait() throws Exception {
+        LoadGuard guard = new LoadGuard(1, LoadOverflow.WAIT, 0, null, statsCounter);
+        Future<String> first = executor.submit(() -> guard.load(blockingLoader, 1));
+        Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+        Future<String> second = executor.submit(() -> guard.load(key -> "v" + key, 2));
+        Thread.sleep(50);
+        Assert.assertFalse(second.isDone());
+        release.countDown();
+        Assert.assertEquals("v1", first.get(10, TimeUnit.SECONDS));
+        Assert.assertEquals("v2", second.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test(expected = TimeoutException.class)
+    public void testWaitTimeout() throws Exception {
+        LoadGuard guard = new LoadGuard(1, LoadOverflow.WAIT, 50, executor, statsCounter);
+        executor.submit(() -> guard.load(blockingLoader, 1));
+        Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+        guard.load(key -> "v" + key, 2);
+    }
+}
@@ -0,0 +1,79 @@
+package org.mirko.cache.nway;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>JMH benchmark of the hits of {@link LongCache} against the generic cache with {@link Long} keys.</p>
+ * <p>It is not run by the unit tests: run the {@link #main(String[])} method with the test classpath.</p>
+ * <br/><br/>Created by Mirko Bernardoni on 19/10/26.
+ *
+ * @author Mirko Bernardoni
+ * @version 1.0
+ * @since 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LongCacheBenchmark {
+    private static final int BLOCKS = 1024;
+    private static final int NWAY = 8;
+    // all the keys fit in the cache: only hits are measured
+    private static final int KEYS = BLOCKS * NWAY / 2;
+
+    private Cache<Long, String> genericCache;
+    private LongCache<String> longCache;
+    private long next;
+
+    @Setup
+    public void setup() throws Exception {
+        genericCache = new NWayCacheBuilder<Long, String>()
+                .blocks(BLOCKS)
+                .nWay(NWAY)
+                .build(key -> "Value for " + key);
+        longCache = new NWayCacheBuilder<Long, String>()
+                .blocks(BLOCKS)
+                .nWay(NWAY)
+                .buildLong(key -> "Value for " + key);
+        for (long key = 0; key < KEYS; key++) {
+            genericCache.get(key);
+            longCache.get(key);
+        }
+    }
+
+    @Benchmark
+    public String genericGet() throws Exception {
+        // the key is boxed by the caller as in the generic API
+        return genericCache.get(nextKey());
+    }
+
+    @Benchmark
+    public String longGet() throws Exception {
+        return longCache.get(nextKey());
+    }
+
+    private long nextKey() {
+        // values over 127 are not in the Long cache: the boxing allocates
+        next = (next + 7919) % KEYS;
+        return next;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(LongCacheBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,110 @@
+package org.mirko.cache.nway;
+
+import org.mirko.cache.nway.algorithm.LRUAlgorithm;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Test class for {@link LongNWayCache}
+ * <br/><br/>Created by Mirko Bernardoni on 19/10/26.
+ *
+ * @author Mirko Bernardoni
+ * @version 1.0
+ * @since 1.0
+ */
+public class LongNWayCacheTest {
+    private static final int BUCKETS = 8;
+    private static final int NWAY = 2;
+    private static final String VALUE = "Value for ";
+
+    private LongNWayCache<String> cache;
+    private List<Long> loaded;
+
+    @Before
+    public void setUp() throws Exception {
+        cache = new LongNWayCache<>(BUCKETS, NWAY, NWAY * 2);
+        LRUAlgorithm<Long, String> eviction = new LRUAlgorithm<>();
+        eviction.setEntriesToDelete(1);
+        cache.setEvictionPolicy(eviction);
+        loaded = new ArrayList<>();
+        cache.setCacheLoader(key -> {
+            loaded.add(key);
+            return VALUE + key;
+        });
+    }
+
+    @Test
+    public void testGetLoadsOnce() throws Exception {
+        Assert.assertEquals(VALUE + 5, cache.get(5L));
+        Assert.assertEquals(VALUE + 5, cache.get(5L));
+        Assert.assertEquals(VALUE + 5, cache.get(Long.valueOf(5)));
+        Assert.assertEquals(1, loaded.size());
+        Assert.assertEquals(2, cache.stats().getHitCount());
+        Assert.assertEquals(1, cache.stats().getMissCount());
+    }
+
+    @Test
+    public void testSameBagOfBoxedKey() throws Exception {
+        long key = -123456789012L;
+        cache.put(Long.valueOf(key), "Test");
+        Assert.assertEquals("Test", cache.get(key));
+        Assert.assertTrue(loaded.isEmpty());
+    }
+
+    @Test
+    public void testPutRemove() throws Exception {
+        cache.put(3L, "Test");
+        Assert.assertEquals("Test", cache.get(3L));
+        cache.put(3L, "Test 2");
+        Assert.assertEquals("Test 2", cache.get(3L));
+        cache.remove(3L);
+        Assert.assertFalse(cache.exist(3L));
+        Assert.assertEquals(VALUE + 3, cache.get(3L));
+    }
+
+    @Test
+    public void testEvictionAndListeners() throws Exception {
+        List<RemovalNotification<Long, String>> removed = new ArrayList<>();
+        cache.addRemovalListener(removed::add);
+        List<Long> cached = new ArrayList<>();
+        cache.addCachedListener(n -> cached.add(n.getKey()));
+        // 0, 8 and 16 are in the same block
+        cache.get(0L);
+        cache.get(8L);
+        cache.get(16L);
+        Assert.assertFalse(cache.exist(0L));
+        Assert.assertEquals(1, removed.size());
+        Assert.assertEquals(RemovalCause.EVICTION, removed.get(0).getCause());
+        cache.get(16L);
+        Assert.assertEquals(1, cached.size());
+        Assert.assertEquals(16L, (long) cached.get(0));
+    }
+
+    @Test
+    public void testBuilder() throws Exception {
+        LongCache<String> built = new NWayCacheBuilder<Long, String>()
+                .SLRUEviction()
+                .buildLong(key -> VALUE + key);
+        Assert.assertEquals(VALUE + 42, built.get(42L));
+        Assert.assertEquals(VALUE + 42, built.get(42L));
+        Assert.assertEquals(1, built.stats().getHitCount());
+    }
+
+    @Test
+    public void testEarlyRefresh() throws Exception {
+        int[] loads = {0};
+        LongCache<String> built = new NWayCacheBuilder<Long, String>()
+                .earlyRefresh(50, 1, Runnable::run)
+                .buildLong(key -> VALUE + key + "-" + ++loads[0]);
+        Assert.assertEquals(VALUE + "1-1", built.get(1L));
+        Thread.sleep(60);
+        // the primitive hit path refreshes the entry as well
+        Assert.assertEquals(VALUE + "1-1", built.get(1L));
+        Assert.assertEquals(VALUE + "1-2", built.get(1L));
+        Assert.assertEquals(2, loads[0]);
+    }
+}
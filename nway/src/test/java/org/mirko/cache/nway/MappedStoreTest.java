@@ -0,0 +1,157 @@
+package org.mirko.cache.nway;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Test class for {@link MappedStore}
+ * <br/><br/>Created by Mirko Bernardoni on 19/10/26.
+ *
+ * @author Mirko Bernardoni
+ * @version 1.0
+ * @since 1.0
+ */
+public class MappedStoreTest {
+    private static final int BLOCKS = 4;
+    private static final int NWAY = 2;
+    private static final int MAX_ENTRY_SIZE = 32;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path file;
+    private MappedStore<String, String> store;
+
+    @Before
+    public void setUp() throws Exception {
+        file = folder.getRoot().toPath().resolve("cache.bin");
+        store = open(BLOCKS);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        store.close();
+    }
+
+    @Test
+    public void testWriteAndLoad() throws Exception {
+        store.write(1, entry("a", "1"));
+        store.write(1, entry("b", "2"));
+        store.write(3, entry("c", "3"));
+        Assert.assertEquals(3, store.size());
+        Map<String, String> restored = reopen(BLOCKS);
+        Assert.assertEquals(3, restored.size());
+        Assert.assertEquals("2", restored.get("b"));
+        Assert.assertEquals(3, store.size());
+    }
+
+    @Test
+    public void testErase() throws Exception {
+        CacheEntry<String, String> entry = entry("a", "1");
+        store.write(0, entry);
+        // written only once
+        store.write(0, entry);
+        Assert.assertEquals(1, store.size());
+        store.erase(0, entry);
+        store.write(0, entry("b", "2"));
+        Map<String, String> restored = reopen(BLOCKS);
+        Assert.assertEquals(1, restored.size());
+        Assert.assertEquals("2", restored.get("b"));
+    }
+
+    @Test
+    public void testBlockFull() throws Exception {
+        for (int i = 0; i < NWAY + 1; i++) {
+            store.write(0, entry("k" + i, "v"));
+        }
+        Assert.assertEquals(NWAY, store.size());
+    }
+
+    @Test
+    public void testTooBig() throws Exception {
+        store.write(0, entry("a", new String(new char[MAX_ENTRY_SIZE])));
+        Assert.assertEquals(0, store.size());
+    }
+
+    @Test
+    public void testCorruptedSlot() throws Exception {
+        store.write(2, entry("a", "1"));
+        store.write(2, entry("b", "2"));
+        int slot = 2 * NWAY;
+        ByteBuffer region = store.region(slot);
+        int offset = store.offset(slot) + MappedStore.SLOT_HEADER_SIZE;
+        region.put(offset, (byte) (region.get(offset) + 1));
+        Map<String, String> restored = reopen(BLOCKS);
+        Assert.assertEquals(1, restored.size());
+        Assert.assertEquals("2", restored.get("b"));
+        Assert.assertEquals(1, store.size());
+    }
+
+    @Test
+    public void testDifferentGeometry() throws Exception {
+        store.write(0, entry("a", "1"));
+        Assert.assertTrue(reopen(BLOCKS * 2).isEmpty());
+        Assert.assertEquals(0, store.size());
+    }
+
+    @Test
+    public void testRefusedEntry() throws Exception {
+        store.write(0, entry("a", "1"));
+        store.close();
+        store = open(BLOCKS);
+        Assert.assertEquals(0, store.load((block, slot, key, value, accessTime) -> false));
+        Assert.assertTrue(reopen(BLOCKS).isEmpty());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testFileLocked() throws Exception {
+        open(BLOCKS);
+    }
+
+    private MappedStore<String, String> open(int blocks) throws IOException {
+        return new MappedStore<>(file, blocks, NWAY, MAX_ENTRY_SIZE, new StringSerializer(), new StringSerializer());
+    }
+
+    private Map<String, String> reopen(int blocks) throws IOException {
+        store.close();
+        store = open(blocks);
+        Map<String, String> restored = new HashMap<>();
+        store.load((block, slot, key, value, accessTime) -> {
+            CacheEntry<String, String> entry = entry(key, value);
+            store.attach(slot, entry);
+            restored.put(key, value);
+            return true;
+        });
+        return restored;
+    }
+
+    private static CacheEntry<String, String> entry(String key, String value) {
+        CacheEntryImpl<String, String> entry = new CacheEntryImpl<>();
+        entry.setKey(key);
+        entry.setValue(value);
+        return entry;
+    }
+
+    private static class StringSerializer implements Serializer<String> {
+        @Override
+        public byte[] serialize(String value) {
+            return value.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String deserialize(byte[] bytes) {
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package org.mirko.cache.nway;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test class for {@link MissBatcher}
+ * <br/><br/>Created by Mirko Bernardoni on 19/10/26.
+ *
+ * @author Mirko Bernardoni
+ * @version 1.0
+ * @since 1.0
+ */
+public class MissBatcherTest {
+    private static final long LONG_WINDOW = TimeUnit.SECONDS.toMillis(30);
+
+    private ExecutorService executor;
+    private RecordingLoader loader;
+
+    @Before
+    public void setUp() throws Exception {
+        executor = Executors.newCachedThreadPool();
+        loader = new RecordingLoader();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMaxBatch() {
+        new MissBatcher<Integer, String>(10, 1);
+    }
+
+    @Test
+    public void testSingleMiss() throws Exception {
+        MissBatcher<Integer, String> batcher = new MissBatcher<>(5, 10);
+        Assert.assertEquals("v1", batcher.load(loader, 1));
+        Assert.assertEquals(1, loader.batches.size());
+    }
+
+    @Test
+    public void testFullBatch() throws Exception {
+        // loaded as soon as the batch is full, long before the end of the window
+        MissBatcher<Integer, String> batcher = new MissBatcher<>(LONG_WINDOW, 4);
+        List<Future<String>> values = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            int key = i;
+            values.add(executor.submit(() -> batcher.load(loader, key)));
+        }
+        for (int i = 0; i < 4; i++) {
+            Assert.assertEquals("v" + i, values.get(i).get(10, TimeUnit.SECONDS));
+        }
+        Assert.assertEquals(1, loader.batches.size());
+        Assert.assertEquals(4, loader.batches.get(0).size());
+    }
+
+    @Test
+    public void testSameKey() throws Exception {
+        MissBatcher<Integer, String> batcher = new MissBatcher<>(500, 10);
+        List<Future<String>> values = new ArrayList<>();
+        for (int key : new int[]{1, 1, 2, 3}) {
+            values.add(executor.submit(() -> batcher.load(loader, key)));
+        }
+        Assert.assertEquals("v1", values.get(0).get(10, TimeUnit.SECONDS));
+        Assert.assertEquals("v1", values.get(1).get(10, TimeUnit.SECONDS));
+        Assert.assertEquals("v3", values.get(3).get(10, TimeUnit.SECONDS));
+        Assert.assertEquals(1, loader.batches.size());
+        Assert.assertEquals(3, loader.batches.get(0).size());
+    }
+
+    @Test
+    public void testMissingKey() throws Exception {
+        MissBatcher<Integer, String> batcher = new MissBatcher<>(5, 10);
+        loader.skipped = 1;
+        Assert.assertEquals("v1", batcher.load(loader, 1));
+        Assert.assertEquals(1, loader.single);
+    }
+
+    @Test
+    public void testException() throws Exception {
+        MissBatcher<Integer, String> batcher = new MissBatcher<>(LONG_WINDOW, 2);
+        loader.fail = true;
+        Future<String> first = executor.submit(() -> batcher.load(loader, 1));
+        Future<String> second = executor.submit(() -> batcher.load(loader, 2));
+        for (Future<String> value : Arrays.asList(first, second)) {
+            try {
+                value.get(10, TimeUnit.SECONDS);
+                Assert.fail("Exception expected");
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof IOException);
+            }
+        }
+    }
+
+    private static class RecordingLoader implements CacheLoader<Integer, String> {
+        private final List<Collection<Integer>> batches = new ArrayList<>();
+        private volatile boolean fail;
+        private volatile int skipped = -1;
+        private volatile int single;
+
+        @Override
+        public String load(Integer key) {
+            single++;
+            return "v" + key;
+        }
+
+        @Override
+        public synchronized Map<Integer, String> loadAll(Collection<Integer> keys) throws Exception {
+            batches.add(new ArrayList<>(keys));
+            if (fail) {
+                throw new IOException("Database not available");
+            }
+            Map<Integer, String> values = new HashMap<>();
+            for (Integer key : keys) {
+                if (key != skipped) {
+                    values.put(key, "v" + key);
+                }
+            }
+            return values;
+        }
+    }
+}
@@ -29,7 +29,7 @@ import java.util.stream.Collectors;
         this.nWay = nWay;
         List<CacheBag<Key, Value>> buckets = new ArrayList<>(numBuckets);
         for (int i = 0; i < numBuckets; i++) {
-            CacheBag<Key, Value> blocks = new CacheBag<>(new LinkedList<>());
+            CacheBag<Key, Value> blocks = new CacheBag<>(new LinkedList<>(), i);
             buckets.add(blocks);
         }
         this.buckets = ImmutableList.copyOf(buckets);
@@ -1,12 +1,34 @@
 package org.mirko.cache.nway;
 
+import com.google.common.base.Strings;
+import org.mirko.cache.nway.algorithm.CLOCKAlgorithm;
+import org.mirko.cache.nway.algorithm.LFUAlgorithm;
 import org.mirko.cache.nway.algorithm.LRUAlgorithm;
+import org.mirko.cache.nway.algorithm.MRUAlgorithm;
+import org.mirko.cache.nway.algorithm.SLRUAlgorithm;
 import org.junit.Assert;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Test class for {@link NWayCache}
@@ -21,6 +43,9 @@ public class NWayCacheTest {
     private static final int NWAY = 2;
     private static final String VALUE = "Value for ";
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     private NWayCache<Integer, String> cache;
     private MockLoader loader;
 
@@ -52,7 +77,7 @@ public class NWayCacheTest {
         Assert.fail();
     }
 
-    @Test(expected = OutOfMemoryError.class)
+    @Test
     public void testPutTooManyEntries() throws Exception {
         cache = new NWayCache<>(1, 2, 4);
         cache.setEviction(block -> {
@@ -62,7 +87,28 @@ public class NWayCacheTest {
         cache.put(2, "Test bucket 0, nway 2");
         cache.put(3, "Test bucket 0, nway 3");
         cache.put(4, "Test bucket 0, nway 4");
-        Assert.fail();
+        // the block is bounded: the oldest entries are evicted anyway
+        Assert.assertEquals(2, cache.findBag(0).getBlock().size());
+        Assert.assertTrue(cache.exist(3));
+        Assert.assertTrue(cache.exist(4));
+        Assert.assertFalse(cache.exist(0));
+        Assert.assertEquals(3, cache.stats().getOverflowCount());
+        Assert.assertEquals(3, cache.stats().getEvictionCount());
+    }
+
+    @Test
+    public void testStats() throws Exception {
+        cache.setCacheLoader(loader);
+        cache.get(0);
+        cache.get(0);
+        cache.get(0);
+        cache.get(1);
+        CacheStats stats = cache.stats();
+        Assert.assertEquals(2, stats.getHitCount());
+        Assert.assertEquals(2, stats.getMissCount());
+        Assert.assertEquals(0.5, stats.getHitRate(), 0.0001);
+        Assert.assertEquals(0, stats.getEvictionCount());
+        Assert.assertEquals(0, stats.getOverflowCount());
     }
 
     @Test
@@ -209,6 +255,865 @@ public class NWayCacheTest {
         cache.get(1);
     }
 
+    @Test
+    public void testSLRUScanResistance() throws Exception {
+        cache = new NWayCache<>(1, 4, 8);
+        SLRUAlgorithm<Integer, String> slru = new SLRUAlgorithm<>();
+        slru.setProtectedFraction(0.5);
+        cache.setEviction(slru);
+        cache.setCacheLoader(loader);
+        cache.get(0);
+        cache.get(0); // hit: key 0 is now protected
+        for (int i = 1; i < 20; i++) {
+            cache.get(i);
+        }
+        Assert.assertTrue(cache.exist(0));
+        Assert.assertTrue(cache.exist(19));
+        Assert.assertFalse(cache.exist(1));
+    }
+
+    @Test
+    public void testAdaptiveEviction() throws Exception {
+        MRUAlgorithm<Integer, String> mru = new MRUAlgorithm<>();
+        mru.setEntriesToDelete(1);
+        LFUAlgorithm<Integer, String> lfu = new LFUAlgorithm<>();
+        lfu.setEntriesToDelete(1);
+        cache.setSetDueling(new SetDueling<>(mru, lfu, BUCKETS, 1));
+        cache.setCacheLoader(loader);
+        // Bucket 0 is a MRU leader
+        cache.get(0);
+        cache.get(8);
+        cache.get(16);
+        Assert.assertTrue(cache.exist(0));
+        Assert.assertFalse(cache.exist(8));
+        Assert.assertTrue(cache.exist(16));
+        // 3 misses on the MRU leader: the followers are using LFU
+        Assert.assertFalse(cache.getSetDueling().isFirstSelected());
+
+        // the leader sets follow the new blocks
+        cache.setMigrationExecutor(Runnable::run);
+        cache.resize(BUCKETS * 2);
+        Assert.assertTrue(cache.getSetDueling().isSecondLeader(BUCKETS));
+        Assert.assertFalse(cache.getSetDueling().isFirstSelected());
+    }
+
+    @Test
+    public void testStatefulEviction() throws Exception {
+        cache = new NWayCache<>(1, 3, 6);
+        cache.setEvictionPolicy(new CLOCKAlgorithm<>());
+        cache.setCacheLoader(loader);
+        cache.get(0);
+        cache.get(1);
+        cache.get(2);
+        cache.get(0); // hit: key 0 has a second chance
+        cache.get(3);
+        Assert.assertTrue(cache.exist(0));
+        Assert.assertFalse(cache.exist(1));
+        cache.get(4);
+        Assert.assertFalse(cache.exist(2));
+        Assert.assertTrue(cache.exist(3));
+    }
+
+    @Test
+    public void testVictimCache() throws Exception {
+        cache.setVictimCache(new VictimCache<>(2));
+        List<Integer> loaded = new ArrayList<>();
+        cache.setCacheLoader(key -> {
+            loaded.add(key);
+            return VALUE + key;
+        });
+        List<RemovalNotification<Integer, String>> removed = new ArrayList<>();
+        cache.addRemovalListener(removed::add);
+        // 0, 8 and 16 are in the same block
+        cache.get(0);
+        cache.get(8);
+        cache.get(16);
+        Assert.assertFalse(cache.exist(0));
+        Assert.assertTrue(removed.isEmpty());
+        // conflict miss served by the victim cache
+        Assert.assertEquals(VALUE + 0, cache.get(0));
+        Assert.assertTrue(cache.exist(0));
+        Assert.assertFalse(cache.exist(8));
+        Assert.assertEquals(3, loaded.size());
+        // the entry in the victim cache is removed as the others
+        cache.remove(8);
+        Assert.assertEquals(1, removed.size());
+        Assert.assertEquals(RemovalCause.USER, removed.get(0).getCause());
+        Assert.assertEquals(VALUE + 8, cache.get(8));
+        Assert.assertEquals(4, loaded.size());
+    }
+
+    @Test
+    public void testSecondLevel() throws Exception {
+        NWayCache<Integer, String> secondLevel = new NWayCache<>(1, NWAY, NWAY);
+        LRUAlgorithm<Integer, String> eviction = new LRUAlgorithm<>();
+        eviction.setEntriesToDelete(1);
+        secondLevel.setEvictionPolicy(eviction);
+        cache.setSecondLevel(secondLevel);
+        List<Integer> loaded = new ArrayList<>();
+        cache.setCacheLoader(key -> {
+            loaded.add(key);
+            return VALUE + key;
+        });
+        List<RemovalNotification<Integer, String>> removed = new ArrayList<>();
+        cache.addRemovalListener(removed::add);
+        // 0, 8, 16, 24 and 32 are in the same block
+        cache.put(0, VALUE + 0);
+        cache.put(8, VALUE + 8);
+        cache.put(16, VALUE + 16);
+        cache.put(24, VALUE + 24);
+        Assert.assertTrue(removed.isEmpty());
+        Assert.assertTrue(secondLevel.exist(0));
+        Assert.assertTrue(secondLevel.exist(8));
+        // the second level is full: 0 is evicted from both the levels
+        cache.put(32, VALUE + 32);
+        Assert.assertEquals(1, removed.size());
+        Assert.assertEquals(Integer.valueOf(0), removed.get(0).getKey());
+        Assert.assertEquals(RemovalCause.EVICTION, removed.get(0).getCause());
+        Assert.assertEquals(1, cache.stats().getEvictionCount());
+
+        // promoted without loading
+        Assert.assertEquals(VALUE + 8, cache.get(8));
+        Assert.assertTrue(loaded.isEmpty());
+        Assert.assertTrue(cache.exist(8));
+        Assert.assertFalse(secondLevel.exist(8));
+        Assert.assertTrue(secondLevel.exist(24));
+
+        cache.remove(16);
+        Assert.assertEquals(RemovalCause.USER, removed.get(1).getCause());
+        Assert.assertFalse(secondLevel.exist(16));
+        cache.put(24, "Other");
+        Assert.assertEquals(RemovalCause.REPLACED, removed.get(2).getCause());
+        Assert.assertEquals(VALUE + 24, removed.get(2).getValue());
+        Assert.assertFalse(secondLevel.exist(24));
+        Assert.assertEquals(VALUE + 0, cache.get(0));
+        Assert.assertEquals(1, loaded.size());
+    }
+
+    @Test
+    public void testWeakKeys() throws Exception {
+        cache.setReferences(true, false);
+        List<RemovalNotification<Integer, String>> removed = new ArrayList<>();
+        cache.addRemovalListener(removed::add);
+        // a new instance that is referenced only by the cache
+        cache.put(Integer.valueOf(100000), VALUE);
+        cache.put(1, VALUE + 1);
+        Assert.assertTrue(cache.exist(100000));
+        for (int i = 0; i < 50 && removed.isEmpty(); i++) {
+            System.gc();
+            Thread.sleep(10);
+            cache.purgeCollected();
+        }
+        Assert.assertEquals(1, removed.size());
+        Assert.assertEquals(RemovalCause.COLLECTED, removed.get(0).getCause());
+        Assert.assertNull(removed.get(0).getKey());
+        Assert.assertFalse(cache.exist(100000));
+        Assert.assertTrue(cache.exist(1));
+    }
+
+    @Test
+    public void testSoftValues() throws Exception {
+        cache.setReferences(false, true);
+        cache.setCacheLoader(loader);
+        List<RemovalNotification<Integer, String>> removed = new ArrayList<>();
+        cache.addRemovalListener(removed::add);
+        cache.put(1, "Other");
+        Assert.assertEquals("Other", cache.get(1));
+        CacheEntry<Integer, String> entry = cache.findEntry(1, cache.findBag(1)).get(0);
+        Assert.assertTrue(entry instanceof ReferenceCacheEntry);
+        // as if the value had been reclaimed: the hit becomes a miss
+        ((ReferenceCacheEntry<Integer, String>) entry).release();
+        Assert.assertEquals(VALUE + 1, cache.get(1));
+        Assert.assertEquals(1, removed.size());
+        Assert.assertEquals(RemovalCause.COLLECTED, removed.get(0).getCause());
+        Assert.assertEquals(Integer.valueOf(1), removed.get(0).getKey());
+        Assert.assertEquals(0, cache.stats().getEvictionCount());
+    }
+
+    @Test
+    public void testCompression() throws Exception {
+        Cache<Integer, String> built = new NWayCacheBuilder<Integer, String>()
+                .compression(new StringSerializer(), 64, 16)
+                .build(key -> Strings.repeat(VALUE + key, 20));
+        Assert.assertEquals(Strings.repeat(VALUE + 1, 20), built.get(1));
+        Assert.assertEquals(Strings.repeat(VALUE + 1, 20), built.get(1));
+        built.put(2, VALUE);
+        Assert.assertEquals(VALUE, built.get(2));
+        Assert.assertEquals(2, built.stats().getHitCount());
+        Assert.assertTrue(built.stats().getCompressionRatio() > 5);
+    }
+
+    @Test
+    public void testWriteThrough() throws Exception {
+        Map<Integer, String> store = new HashMap<>();
+        Cache<Integer, String> built = new NWayCacheBuilder<Integer, String>()
+                .writeThrough(new MapWriter(store))
+                .build(store::get);
+        built.put(1, VALUE);
+        Assert.assertEquals(VALUE, store.get(1));
+        built.remove(1);
+        Assert.assertTrue(store.isEmpty());
+        store.put(2, VALUE);
+        Assert.assertEquals(VALUE, built.get(2));
+        built.remove(2);
+        Assert.assertTrue(store.isEmpty());
+    }
+
+    @Test
+    public void testWriteThroughFailure() throws Exception {
+        Cache<Integer, String> built = new NWayCacheBuilder<Integer, String>()
+                .writeThrough(new MapWriter(null))
+                .build(loader);
+        try {
+            built.put(1, VALUE);
+            Assert.fail("Exception expected");
+        } catch (CacheWriterException e) {
+            Assert.assertTrue(e.getCause() instanceof NullPointerException);
+        }
+        // not modified: the value is loaded
+        Assert.assertEquals(VALUE + 1, built.get(1));
+        Assert.assertEquals(1, built.stats().getMissCount());
+    }
+
+    @Test
+    public void testWriteBehind() throws Exception {
+        Map<Integer, String> store = new HashMap<>();
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            Cache<Integer, String> built = new NWayCacheBuilder<Integer, String>()
+                    .blocks(1)
+                    .nWay(1)
+                    .writeBehind(new MapWriter(store), scheduler, TimeUnit.HOURS.toMillis(1), 100)
+                    .build(key -> store.getOrDefault(key, VALUE));
+            built.put(1, "a");
+            built.put(1, "b");
+            built.remove(2);
+            Assert.assertTrue(store.isEmpty());
+            // evicted: the miss flushes the change before loading
+            built.put(3, "c");
+            Assert.assertEquals("b", built.get(1));
+            Assert.assertEquals("b", store.get(1));
+            built.flush();
+            Assert.assertEquals("c", store.get(3));
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testStaleWhileError() throws Exception {
+        List<Integer> loads = new ArrayList<>();
+        boolean[] fail = {false};
+        Cache<Integer, String> built = new NWayCacheBuilder<Integer, String>()
+                .blocks(1)
+                .nWay(1)
+                .staleWhileError(10, 60000, 60000)
+                .build(key -> {
+                    loads.add(key);
+                    if (fail[0]) {
+                        throw new IllegalStateException("Database not available");
+                    }
+                    return VALUE + key;
+                });
+        Assert.assertEquals(VALUE + 1, built.get(1));
+        // evicted
+        built.put(2, VALUE);
+        fail[0] = true;
+        Assert.assertEquals(VALUE + 1, built.get(1));
+        // backing off: the loader is not called
+        Assert.assertEquals(VALUE + 1, built.get(1));
+        Assert.assertEquals(2, loads.size());
+        Assert.assertEquals(2, built.stats().getStaleHitCount());
+        built.remove(1);
+        try {
+            built.get(1);
+            Assert.fail("Exception expected");
+        } catch (CacheLoaderException e) {
+            Assert.assertEquals(3, loads.size());
+        }
+    }
+
+    @Test
+    public void testLoaderTimeout() throws Exception {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            Cache<Integer, String> built = new NWayCacheBuilder<Integer, String>()
+                    .loaderTimeout(50, executor)
+                    .maxConcurrentLoads(4, LoadOverflow.FAIL)
+                    .build(key -> {
+                        if (key == 1) {
+                            Thread.sleep(10000);
+                        }
+                        return VALUE + key;
+                    });
+            try {
+                built.get(1);
+                Assert.fail("Exception expected");
+            } catch (CacheLoaderException e) {
+                Assert.assertTrue(e.getCause() instanceof TimeoutException);
+            }
+            Assert.assertEquals(VALUE + 2, built.get(2));
+            Assert.assertEquals(1, built.stats().getLoadTimeoutCount());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testMissBatching() throws Exception {
+        List<Integer> batches = new ArrayList<>();
+        Cache<Integer, String> built = new NWayCacheBuilder<Integer, String>()
+                .missBatching(TimeUnit.SECONDS.toMillis(30), 3)
+                .build(new CacheLoader<Integer, String>() {
+                    @Override
+                    public String load(Integer key) {
+                        return VALUE + key;
+                    }
+
+                    @Override
+                    public synchronized Map<Integer, String> loadAll(Collection<Integer> keys) throws Exception {
+                        batches.add(keys.size());
+                        return CacheLoader.super.loadAll(keys);
+                    }
+                });
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            List<Future<String>> values = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                int key = i;
+                values.add(executor.submit(() -> built.get(key)));
+            }
+            for (int i = 0; i < 3; i++) {
+                Assert.assertEquals(VALUE + i, values.get(i).get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        Assert.assertEquals(Collections.singletonList(3), batches);
+        Assert.assertEquals(VALUE + 1, built.get(1));
+        Assert.assertEquals(3, built.stats().getMissCount());
+    }
+
+    @Test
+    public void testEarlyRefresh() throws Exception {
+        int[] loads = {0};
+        Cache<Integer, String> built = new NWayCacheBuilder<Integer, String>()
+                .earlyRefresh(50, 1, Runnable::run)
+                .build(key -> VALUE + key + "-" + ++loads[0]);
+        Assert.assertEquals(VALUE + "1-1", built.get(1));
+        Assert.assertEquals(VALUE + "1-1", built.get(1));
+        Thread.sleep(60);
+        // the hit returns the current value and refreshes the entry
+        Assert.assertEquals(VALUE + "1-1", built.get(1));
+        Assert.assertEquals(VALUE + "1-2", built.get(1));
+        Assert.assertEquals(2, loads[0]);
+        Assert.assertEquals(1, built.stats().getMissCount());
+    }
+
+    @Test
+    public void testEarlyRefreshConcurrentPut() throws Exception {
+        int[] loads = {0};
+        List<Runnable> refreshes = new ArrayList<>();
+        Cache<Integer, String> built = new NWayCacheBuilder<Integer, String>()
+                .earlyRefresh(50, 1, refreshes::add)
+                .build(key -> VALUE + key + "-" + ++loads[0]);
+        Assert.assertEquals(VALUE + "1-1", built.get(1));
+        Thread.sleep(60);
+        Assert.assertEquals(VALUE + "1-1", built.get(1));
+        Assert.assertEquals(1, refreshes.size());
+        // the put made while the refresh is loading is not overwritten
+        built.put(1, "Test");
+        refreshes.get(0).run();
+        Assert.assertEquals(2, loads[0]);
+        Assert.assertEquals("Test", built.get(1));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testSoftValuesOffHeap() throws Exception {
+        new NWayCacheBuilder<Integer, String>()
+                .offHeap(new StringSerializer(), 1024)
+                .softValues()
+                .build(loader);
+    }
+
+    @Test
+    public void testEvictionCountOnlyEvictions() throws Exception {
+        cache = new NWayCache<>(1, 2, 4);
+        LRUAlgorithm<Integer, String> eviction = new LRUAlgorithm<>();
+        eviction.setEntriesToDelete(1);
+        cache.setEvictionPolicy(eviction);
+        List<RemovalNotification<Integer, String>> removed = new ArrayList<>();
+        cache.addRemovalListener(removed::add);
+        cache.put(1, "a");
+        cache.put(1, "b");
+        cache.put(1, "c");
+        cache.remove(1);
+        cache.put(1, "d");
+        // the replaced and removed entries leave the block without a second notification
+        Assert.assertEquals(3, removed.size());
+        Assert.assertEquals(RemovalCause.REPLACED, removed.get(0).getCause());
+        Assert.assertEquals(RemovalCause.REPLACED, removed.get(1).getCause());
+        Assert.assertEquals(RemovalCause.USER, removed.get(2).getCause());
+        Assert.assertEquals(0, cache.stats().getEvictionCount());
+
+        cache.put(2, "e");
+        cache.put(3, "f");
+        Assert.assertEquals(4, removed.size());
+        Assert.assertEquals(Integer.valueOf(1), removed.get(3).getKey());
+        Assert.assertEquals(RemovalCause.EVICTION, removed.get(3).getCause());
+        Assert.assertEquals(1, cache.stats().getEvictionCount());
+    }
+
+    @Test
+    public void testLegacyEvictionNotified() throws Exception {
+        cache = new NWayCache<>(1, 2, 4);
+        cache.setEviction(block -> block.get(0).setStatus(CacheEntryStatus.DELETED));
+        cache.setCacheLoader(loader);
+        List<RemovalNotification<Integer, String>> removed = new ArrayList<>();
+        cache.addRemovalListener(removed::add);
+        cache.get(1);
+        cache.get(2);
+        cache.get(3);
+        Assert.assertEquals(1, removed.size());
+        Assert.assertEquals(Integer.valueOf(1), removed.get(0).getKey());
+        Assert.assertEquals(RemovalCause.EVICTION, removed.get(0).getCause());
+        Assert.assertEquals(1, cache.stats().getEvictionCount());
+        Assert.assertEquals(0, cache.stats().getOverflowCount());
+        Assert.assertFalse(cache.exist(1));
+    }
+
+    @Test
+    public void testBlockingListenerUsesTheBlock() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            cache = new NWayCache<>(1, 4, 4);
+            LRUAlgorithm<Integer, String> eviction = new LRUAlgorithm<>();
+            eviction.setEntriesToDelete(3);
+            cache.setEvictionPolicy(eviction);
+            cache.setNotificationDispatcher(new NotificationDispatcher(executor, 1, NotificationOverflow.BLOCK,
+                    cache.statsCounter));
+            List<Integer> removed = Collections.synchronizedList(new ArrayList<>());
+            // the listener reads the block of the evicted entries
+            cache.addRemovalListener(removal -> {
+                cache.exist(removal.getKey());
+                removed.add(removal.getKey());
+            });
+            for (int i = 0; i < 4; i++) {
+                cache.put(i, VALUE + i);
+            }
+            // 3 evictions with a queue of 1: the thread waits without owning the lock of the block
+            executor.submit(() -> cache.put(4, VALUE + 4)).get(5, TimeUnit.SECONDS);
+            for (int i = 0; i < 50 && removed.size() < 3; i++) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(3, removed.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testWeight() throws Exception {
+        cache = new NWayCache<>(1, 4, 4);
+        LRUAlgorithm<Integer, String> eviction = new LRUAlgorithm<>();
+        eviction.setEntriesToDelete(1);
+        cache.setEvictionPolicy(eviction);
+        cache.setWeigher((key, value) -> value.length(), 20);
+        List<RemovalNotification<Integer, String>> removed = new ArrayList<>();
+        cache.addRemovalListener(removed::add);
+        cache.put(0, "aaaaaaaa");
+        cache.put(1, "bbbbbbbb");
+        Assert.assertEquals(16, cache.getTotalWeight());
+        // the block has free slots but not enough weight
+        cache.put(2, "cccccccc");
+        Assert.assertFalse(cache.exist(0));
+        Assert.assertEquals(16, cache.getTotalWeight());
+        // the policy is called until the entry fits
+        cache.put(3, "dddddddddddddddddd");
+        Assert.assertFalse(cache.exist(1));
+        Assert.assertFalse(cache.exist(2));
+        Assert.assertTrue(cache.exist(3));
+        Assert.assertEquals(18, cache.getTotalWeight());
+        Assert.assertEquals(0, cache.stats().getOverflowCount());
+        // heavier than the block
+        cache.put(4, "eeeeeeeeeeeeeeeeeeeee");
+        Assert.assertFalse(cache.exist(4));
+        Assert.assertTrue(cache.exist(3));
+        Assert.assertEquals(4, removed.size());
+        Assert.assertEquals(Integer.valueOf(4), removed.get(3).getKey());
+        Assert.assertEquals(RemovalCause.EVICTION, removed.get(3).getCause());
+        // the removed entries leave the block on the next insert
+        cache.remove(3);
+        cache.put(5, "f");
+        Assert.assertEquals(1, cache.getTotalWeight());
+    }
+
+    @Test
+    public void testAdaptiveCapacity() throws Exception {
+        cache = new NWayCache<>(1, 16, 16);
+        LRUAlgorithm<Integer, String> eviction = new LRUAlgorithm<>();
+        eviction.setEntriesToDelete(1);
+        cache.setEvictionPolicy(eviction);
+        cache.setWeigher((key, value) -> value.length(), 1000);
+        cache.setExpectedWeight(250);
+        Assert.assertEquals(4, cache.getCapacity());
+        // lighter than expected: the block holds more entries, up to nWay
+        String light = Strings.repeat("a", 50);
+        for (int i = 0; i < 300; i++) {
+            cache.put(i, light);
+        }
+        Assert.assertEquals(16, cache.getCapacity());
+        Assert.assertEquals(800, cache.getTotalWeight());
+        // heavier than expected: the block holds less entries
+        String heavy = Strings.repeat("b", 400);
+        for (int i = 0; i < 300; i++) {
+            cache.put(i, heavy);
+        }
+        Assert.assertEquals(3, cache.getCapacity());
+        Assert.assertEquals(800, cache.getTotalWeight());
+        Assert.assertEquals(0, cache.stats().getOverflowCount());
+    }
+
+    @Test
+    public void testMaximumMemory() throws Exception {
+        NWayCache<Integer, String> built = (NWayCache<Integer, String>) new NWayCacheBuilder<Integer, String>()
+                .nWay(4)
+                .maximumMemory(100_000, 250 - NWayCacheBuilder.ENTRY_OVERHEAD)
+                .build(loader);
+        Assert.assertEquals(100, built.getNumBlocks());
+        Assert.assertEquals(4, built.getCapacity());
+        Assert.assertNull(built.getWeigher());
+
+        built = (NWayCache<Integer, String>) new NWayCacheBuilder<Integer, String>()
+                .nWay(4)
+                .maximumMemory(100_000, 250 - NWayCacheBuilder.ENTRY_OVERHEAD, (key, value) -> value.length())
+                .build(loader);
+        Assert.assertEquals(100, built.getNumBlocks());
+        Assert.assertEquals(4, built.getCapacity());
+        Assert.assertEquals(VALUE.length() + NWayCacheBuilder.ENTRY_OVERHEAD, built.getWeigher().weigh(1, VALUE));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testMaximumMemoryAndWeight() throws Exception {
+        new NWayCacheBuilder<Integer, String>()
+                .maximumWeight((key, value) -> value.length(), 1000)
+                .maximumMemory(100_000, 100)
+                .build(loader);
+    }
+
+    @Test
+    public void testTwoChoicePlacement() throws Exception {
+        cache.setTwoChoicePlacement(true);
+        cache.setCacheLoader(loader);
+        // 0, 8 and 16 have the same first block
+        cache.get(0);
+        cache.get(8);
+        cache.get(16);
+        Assert.assertTrue(cache.exist(0));
+        Assert.assertTrue(cache.exist(8));
+        Assert.assertTrue(cache.exist(16));
+        Assert.assertNotSame(cache.findBag(16), cache.findAlternateBag(16));
+        Assert.assertEquals(VALUE + 16, cache.get(16));
+
+        cache.put(16, "Test");
+        Assert.assertEquals("Test", cache.get(16));
+        cache.remove(16);
+        Assert.assertFalse(cache.exist(16));
+    }
+
+    @Test
+    public void testTwoChoicePlacementOneBlock() throws Exception {
+        cache = new NWayCache<>(1, NWAY, NWAY * 2);
+        cache.setTwoChoicePlacement(true);
+        Assert.assertNull(cache.findAlternateBag(0));
+    }
+
+    @Test
+    public void testResize() throws Exception {
+        List<Runnable> migrations = new ArrayList<>();
+        cache.setMigrationExecutor(migrations::add);
+        List<Integer> loaded = new ArrayList<>();
+        cache.setCacheLoader(key -> {
+            loaded.add(key);
+            return VALUE + key;
+        });
+        for (int i = 0; i < BUCKETS * NWAY; i++) {
+            cache.get(i);
+        }
+        cache.resize(BUCKETS * 2);
+        Assert.assertEquals(BUCKETS * 2, cache.getNumBlocks());
+        Assert.assertTrue(cache.isMigrating());
+        // the old block is migrated when it is used
+        Assert.assertEquals(VALUE + 3, cache.get(3));
+        cache.put(5, "Test");
+        Assert.assertEquals(BUCKETS * NWAY, loaded.size());
+        // background migration
+        Assert.assertEquals(1, migrations.size());
+        migrations.get(0).run();
+        Assert.assertFalse(cache.isMigrating());
+        for (int i = 0; i < BUCKETS * NWAY; i++) {
+            Assert.assertTrue(cache.exist(i));
+        }
+        Assert.assertEquals("Test", cache.get(5));
+        Assert.assertEquals(BUCKETS * NWAY, loaded.size());
+
+        // the new blocks are used
+        for (int i = BUCKETS * NWAY; i < BUCKETS * NWAY * 2; i++) {
+            cache.get(i);
+        }
+        for (int i = 0; i < BUCKETS * NWAY * 2; i++) {
+            Assert.assertTrue(cache.exist(i));
+        }
+    }
+
+    @Test
+    public void testResizeShrink() throws Exception {
+        cache.setMigrationExecutor(Runnable::run);
+        cache.setCacheLoader(loader);
+        for (int i = 0; i < BUCKETS * NWAY; i++) {
+            cache.get(i);
+        }
+        cache.resize(BUCKETS / 2);
+        Assert.assertFalse(cache.isMigrating());
+        Assert.assertEquals(BUCKETS / 2, cache.getNumBlocks());
+        int found = 0;
+        for (int i = 0; i < BUCKETS * NWAY; i++) {
+            found += cache.exist(i) ? 1 : 0;
+        }
+        Assert.assertEquals(BUCKETS / 2 * NWAY, found);
+    }
+
+    @Test
+    public void testResizeConcurrentRemove() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            NWayCache<Integer, String> cache = new NWayCache<>(1, 4, 4);
+            cache.setEvictionPolicy(new LRUAlgorithm<>());
+            cache.setMigrationExecutor(executor);
+            AtomicBoolean armed = new AtomicBoolean();
+            CountDownLatch moving = new CountDownLatch(1);
+            CountDownLatch removed = new CountDownLatch(1);
+            // the weigher is called when the migration moves the entry in the new blocks
+            cache.setWeigher((key, value) -> {
+                if (armed.getAndSet(false)) {
+                    moving.countDown();
+                    try {
+                        removed.await(200, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return 1;
+            }, 100);
+            cache.put(1, VALUE);
+            armed.set(true);
+            cache.resize(2);
+            Assert.assertTrue(moving.await(5, TimeUnit.SECONDS));
+            // the remove waits for the migration of the old block
+            cache.remove(1);
+            removed.countDown();
+            cache.migrateAll();
+            Assert.assertFalse(cache.exist(1));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testScanComparesHashes() throws Exception {
+        NWayCache<CountingKey, String> cache = new NWayCache<>(1, 8, 8);
+        cache.setEvictionPolicy(new LRUAlgorithm<>());
+        for (int i = 0; i < 8; i++) {
+            cache.put(new CountingKey(i), VALUE + i);
+        }
+        CountingKey.equalsCalls = 0;
+        Assert.assertFalse(cache.exist(new CountingKey(100)));
+        Assert.assertEquals(0, CountingKey.equalsCalls);
+        Assert.assertTrue(cache.exist(new CountingKey(5)));
+        Assert.assertEquals(1, CountingKey.equalsCalls);
+    }
+
+    @Test
+    public void testOffHeap() throws Exception {
+        // 4 chunks of 64 bytes
+        SlabAllocator allocator = new SlabAllocator(256, 256);
+        cache.setValueStorage(new OffHeapStorage<>(new StringSerializer(), allocator));
+        cache.setCacheLoader(loader);
+        List<RemovalNotification<Integer, String>> removed = new ArrayList<>();
+        cache.addRemovalListener(removed::add);
+        // 0, 8 and 16 are in the same block
+        cache.put(0, VALUE + 0);
+        String value = VALUE + 8;
+        cache.put(8, value);
+        cache.put(16, VALUE + 16);
+        Assert.assertFalse(cache.exist(0));
+        Assert.assertEquals(VALUE + 0, removed.get(0).getValue());
+        Assert.assertEquals(128, allocator.getUsedBytes());
+        // the value is deserialized on every hit
+        Assert.assertEquals(value, cache.get(8));
+        Assert.assertNotSame(value, cache.get(8));
+        // no more space: the value is returned without caching it
+        cache.put(1, VALUE + 1);
+        cache.put(2, VALUE + 2);
+        Assert.assertEquals(VALUE + 3, cache.get(3));
+        Assert.assertFalse(cache.exist(3));
+        Assert.assertEquals(256, allocator.getUsedBytes());
+        // the memory of a removed value is released immediately
+        cache.remove(1);
+        Assert.assertEquals(VALUE + 1, removed.get(removed.size() - 1).getValue());
+        Assert.assertEquals(192, allocator.getUsedBytes());
+        cache.put(3, VALUE + 3);
+        Assert.assertTrue(cache.exist(3));
+        Assert.assertEquals(VALUE + 3, cache.get(3));
+    }
+
+    @Test
+    public void testPersistent() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("cache.bin");
+        MappedStore<Integer, String> store = new MappedStore<>(file, BUCKETS, NWAY, 64, new IntegerSerializer(),
+                new StringSerializer());
+        Assert.assertEquals(0, cache.setMappedStore(store));
+        // 0, 8 and 16 are in the same block
+        cache.put(0, VALUE + 0);
+        cache.put(8, VALUE + 8);
+        cache.put(16, VALUE + 16);
+        cache.put(1, VALUE + 1);
+        cache.put(2, VALUE + 2);
+        cache.remove(1);
+        Assert.assertEquals(3, store.size());
+        store.close();
+
+        // restart
+        NWayCache<Integer, String> restarted = new NWayCache<>(BUCKETS, NWAY, NWAY * 2);
+        restarted.setEvictionPolicy(new LRUAlgorithm<>());
+        restarted.setCacheLoader(key -> {
+            throw new IllegalStateException("Loader called for " + key);
+        });
+        store = new MappedStore<>(file, BUCKETS, NWAY, 64, new IntegerSerializer(), new StringSerializer());
+        Assert.assertEquals(3, restarted.setMappedStore(store));
+        Assert.assertFalse(restarted.exist(0));
+        Assert.assertFalse(restarted.exist(1));
+        Assert.assertEquals(VALUE + 8, restarted.get(8));
+        Assert.assertEquals(VALUE + 16, restarted.get(16));
+        Assert.assertEquals(VALUE + 2, restarted.get(2));
+        try {
+            restarted.resize(BUCKETS * 2);
+            Assert.fail("Resize of a persistent cache");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testSnapshot() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("snapshot.bin");
+        cache.put(0, VALUE + 0);
+        cache.put(8, VALUE + 8);
+        cache.put(1, VALUE + 1);
+        cache.put(2, VALUE + 2);
+        cache.remove(2);
+        Assert.assertEquals(3, cache.snapshot(file, new IntegerSerializer(), new StringSerializer(), true));
+
+        NWayCache<Integer, String> restarted = new NWayCache<>(BUCKETS, NWAY, NWAY * 2);
+        restarted.setEvictionPolicy(new LRUAlgorithm<>());
+        restarted.setCacheLoader(key -> {
+            throw new IllegalStateException("Loader called for " + key);
+        });
+        // 16 is in the block of 0 and 8: the block is full and nothing is evicted
+        restarted.put(16, VALUE + 16);
+        restarted.put(1, "Other");
+        List<RemovalNotification<Integer, String>> removed = new ArrayList<>();
+        restarted.addRemovalListener(removed::add);
+        Assert.assertEquals(1, restarted.restore(file, new IntegerSerializer(), new StringSerializer()));
+        Assert.assertTrue(removed.isEmpty());
+        Assert.assertTrue(restarted.exist(0));
+        Assert.assertFalse(restarted.exist(8));
+        Assert.assertFalse(restarted.exist(2));
+        Assert.assertEquals(VALUE + 16, restarted.get(16));
+        Assert.assertEquals("Other", restarted.get(1));
+        Assert.assertEquals(VALUE + 0, restarted.get(0));
+    }
+
+    @Test
+    public void testSnapshotKeepsTimes() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("snapshot.bin");
+        cache.put(3, VALUE + 3);
+        CacheEntry<Integer, String> entry = cache.findEntryInAllBags(3).get(0);
+        Thread.sleep(5);
+        cache.snapshot(file, new IntegerSerializer(), new StringSerializer(), false);
+
+        NWayCache<Integer, String> restarted = new NWayCache<>(BUCKETS * 2, NWAY, NWAY * 2);
+        restarted.setEvictionPolicy(new LRUAlgorithm<>());
+        Assert.assertEquals(1, restarted.restore(file, new IntegerSerializer(), new StringSerializer()));
+        CacheEntry<Integer, String> restored = restarted.findEntryInAllBags(3).get(0);
+        Assert.assertEquals(entry.getCreationTime(), restored.getCreationTime());
+        Assert.assertEquals(entry.getAccessTime(), restored.getAccessTime());
+    }
+
+    private static class IntegerSerializer implements Serializer<Integer> {
+        @Override
+        public byte[] serialize(Integer value) {
+            return ByteBuffer.allocate(4).putInt(value).array();
+        }
+
+        @Override
+        public Integer deserialize(byte[] bytes) {
+            return ByteBuffer.wrap(bytes).getInt();
+        }
+    }
+
+    private static class MapWriter implements CacheWriter<Integer, String> {
+        private final Map<Integer, String> store;
+
+        private MapWriter(Map<Integer, String> store) {
+            this.store = store;
+        }
+
+        @Override
+        public synchronized void write(Integer key, String value) throws Exception {
+            store.put(key, value);
+        }
+
+        @Override
+        public synchronized void delete(Integer key) throws Exception {
+            store.remove(key);
+        }
+    }
+
+    private static class StringSerializer implements Serializer<String> {
+        @Override
+        public byte[] serialize(String value) {
+            return value.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String deserialize(byte[] bytes) {
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static class CountingKey {
+        private static int equalsCalls;
+        private final int id;
+
+        private CountingKey(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            equalsCalls++;
+            return o instanceof CountingKey && ((CountingKey) o).id == id;
+        }
+
+        @Override
+        public int hashCode() {
+            return id;
+        }
+    }
+
     private class MockLoader implements CacheLoader<Integer, String> {
         List<Integer> loaded = new ArrayList<>();
 
@@ -0,0 +1,89 @@
+package org.mirko.cache.nway;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Test class for {@link NotificationDispatcher}
+ * <br/><br/>Created by Mirko Bernardoni on 19/10/26.
+ *
+ * @author Mirko Bernardoni
+ * @version 1.0
+ * @since 1.0
+ */
+public class NotificationDispatcherTest {
+    private static final int QUEUE_SIZE = 100;
+
+    private List<Runnable> tasks;
+    private StatsCounter statsCounter;
+    private NotificationDispatcher dispatcher;
+
+    @Before
+    public void setUp() throws Exception {
+        tasks = new ArrayList<>();
+        statsCounter = new StatsCounter();
+        dispatcher = new NotificationDispatcher(tasks::add, QUEUE_SIZE, NotificationOverflow.DROP, statsCounter);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroQueueSize() {
+        new NotificationDispatcher(tasks::add, 0, NotificationOverflow.DROP, statsCounter);
+    }
+
+    @Test
+    public void testSingleDrainTask() {
+        List<Integer> delivered = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            int n = i;
+            dispatcher.dispatch(() -> delivered.add(n));
+        }
+        Assert.assertEquals(1, tasks.size());
+        Assert.assertTrue(delivered.isEmpty());
+        tasks.get(0).run();
+        Assert.assertEquals(10, delivered.size());
+        // delivered in order
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(i, (int) delivered.get(i));
+        }
+        Assert.assertEquals(0, dispatcher.pending());
+    }
+
+    @Test
+    public void testBatches() {
+        List<Integer> delivered = new ArrayList<>();
+        for (int i = 0; i < NotificationDispatcher.BATCH_SIZE + 1; i++) {
+            dispatcher.dispatch(() -> delivered.add(0));
+        }
+        tasks.get(0).run();
+        Assert.assertEquals(NotificationDispatcher.BATCH_SIZE, delivered.size());
+        // the task is submitted again for the rest
+        Assert.assertEquals(2, tasks.size());
+        tasks.get(1).run();
+        Assert.assertEquals(NotificationDispatcher.BATCH_SIZE + 1, delivered.size());
+    }
+
+    @Test
+    public void testDrop() {
+        for (int i = 0; i < QUEUE_SIZE + 5; i++) {
+            dispatcher.dispatch(() -> {
+            });
+        }
+        Assert.assertEquals(QUEUE_SIZE, dispatcher.pending());
+        Assert.assertEquals(5, statsCounter.snapshot().getDroppedNotificationCount());
+    }
+
+    @Test
+    public void testListenerException() {
+        List<Integer> delivered = new ArrayList<>();
+        dispatcher.dispatch(() -> {
+            throw new IllegalStateException("Listener error");
+        });
+        dispatcher.dispatch(() -> delivered.add(1));
+        tasks.get(0).run();
+        Assert.assertEquals(1, delivered.size());
+    }
+}
@@ -0,0 +1,133 @@
+package org.mirko.cache.nway;
+
+import org.easymock.EasyMock;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class for {@link SetDueling}
+ * <br/><br/>Created by Mirko Bernardoni on 19/10/26.
+ *
+ * @author Mirko Bernardoni
+ * @version 1.0
+ * @since 1.0
+ */
+public class SetDuelingTest {
+    private static final int BLOCKS = 16;
+    private static final int LEADERS = 2;
+
+    private EvictionPolicy<Integer, String> first;
+    private EvictionPolicy<Integer, String> second;
+    private SetDueling<Integer, String> setDueling;
+
+    @SuppressWarnings("unchecked")
+    @Before
+    public void setUp() throws Exception {
+        first = EasyMock.createNiceMock(EvictionPolicy.class);
+        second = EasyMock.createNiceMock(EvictionPolicy.class);
+        EasyMock.replay(first, second);
+        setDueling = new SetDueling<>(first, second, BLOCKS, LEADERS);
+    }
+
+    @Test
+    public void testLeaders() {
+        // stride = 8
+        Assert.assertTrue(setDueling.isFirstLeader(0));
+        Assert.assertTrue(setDueling.isFirstLeader(8));
+        Assert.assertTrue(setDueling.isSecondLeader(4));
+        Assert.assertTrue(setDueling.isSecondLeader(12));
+        Assert.assertFalse(setDueling.isFirstLeader(1));
+        Assert.assertFalse(setDueling.isSecondLeader(1));
+        Assert.assertEquals(first, setDueling.evictionFor(0));
+        Assert.assertEquals(second, setDueling.evictionFor(4));
+    }
+
+    @Test
+    public void testSameLeadersForEachAlgorithm() {
+        // stride = 16, the blocks 48 and 49 are followers
+        SetDueling<Integer, String> dueling = new SetDueling<>(first, second, 50, 3);
+        int firstLeaders = 0;
+        int secondLeaders = 0;
+        for (int i = 0; i < 50; i++) {
+            firstLeaders += dueling.isFirstLeader(i) ? 1 : 0;
+            secondLeaders += dueling.isSecondLeader(i) ? 1 : 0;
+        }
+        Assert.assertEquals(3, firstLeaders);
+        Assert.assertEquals(3, secondLeaders);
+        Assert.assertFalse(dueling.isFirstLeader(48));
+    }
+
+    @Test
+    public void testResize() {
+        setDueling.recordMiss(0);
+        setDueling.recordMiss(0);
+        SetDueling<Integer, String> resized = setDueling.resize(64);
+        // stride = 32, the selection is kept
+        Assert.assertTrue(resized.isFirstLeader(32));
+        Assert.assertTrue(resized.isSecondLeader(16));
+        Assert.assertFalse(resized.isFirstLeader(8));
+        Assert.assertFalse(resized.isFirstSelected());
+
+        // not enough blocks for all the leader sets
+        resized = setDueling.resize(2);
+        Assert.assertTrue(resized.isFirstLeader(0));
+        Assert.assertTrue(resized.isSecondLeader(1));
+        Assert.assertNull(setDueling.resize(1));
+    }
+
+    @Test
+    public void testFollowersStartWithFirst() {
+        Assert.assertTrue(setDueling.isFirstSelected());
+        Assert.assertEquals(first, setDueling.evictionFor(1));
+    }
+
+    @Test
+    public void testFollowersSwitchToSecond() {
+        setDueling.recordMiss(0);
+        setDueling.recordMiss(0);
+        Assert.assertFalse(setDueling.isFirstSelected());
+        Assert.assertEquals(second, setDueling.evictionFor(1));
+        // leaders never switch
+        Assert.assertEquals(first, setDueling.evictionFor(0));
+    }
+
+    @Test
+    public void testFollowersSwitchBack() {
+        setDueling.recordMiss(0);
+        setDueling.recordMiss(0);
+        setDueling.recordMiss(4);
+        setDueling.recordMiss(4);
+        Assert.assertTrue(setDueling.isFirstSelected());
+    }
+
+    @Test
+    public void testFollowerMissIgnored() {
+        for (int i = 0; i < 10; i++) {
+            setDueling.recordMiss(1);
+        }
+        Assert.assertTrue(setDueling.isFirstSelected());
+    }
+
+    @Test
+    public void testSaturation() {
+        for (int i = 0; i < 5000; i++) {
+            setDueling.recordMiss(0);
+        }
+        // The counter is saturated: the same number of misses of the second leaders bring it back to the middle
+        for (int i = 0; i < (1 << SetDueling.SELECTOR_BITS) / 2 + 1; i++) {
+            setDueling.recordMiss(4);
+        }
+        Assert.assertTrue(setDueling.isFirstSelected());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testTooManyLeaders() {
+        new SetDueling<>(first, second, BLOCKS, BLOCKS);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullEviction() {
+        new SetDueling<>(first, null, BLOCKS, LEADERS);
+    }
+}
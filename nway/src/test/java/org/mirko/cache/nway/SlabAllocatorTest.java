@@ -0,0 +1,93 @@
+package org.mirko.cache.nway;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class for {@link SlabAllocator}
+ * <br/><br/>Created by Mirko Bernardoni on 19/10/26.
+ *
+ * @author Mirko Bernardoni
+ * @version 1.0
+ * @since 1.0
+ */
+public class SlabAllocatorTest {
+    private static final int SLAB_SIZE = 256;
+
+    private SlabAllocator allocator;
+
+    @Before
+    public void setUp() throws Exception {
+        allocator = new SlabAllocator(SLAB_SIZE * 2, SLAB_SIZE);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSlabSizeNotPowerOfTwo() {
+        new SlabAllocator(1000, 100);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMaxBytesSmallerThanSlab() {
+        new SlabAllocator(SLAB_SIZE - 1, SLAB_SIZE);
+    }
+
+    @Test
+    public void testSizeClasses() {
+        Assert.assertEquals(0, allocator.sizeClassOf(0));
+        Assert.assertEquals(0, allocator.sizeClassOf(64));
+        Assert.assertEquals(1, allocator.sizeClassOf(65));
+        Assert.assertEquals(2, allocator.sizeClassOf(SLAB_SIZE));
+        Assert.assertEquals(-1, allocator.sizeClassOf(SLAB_SIZE + 1));
+    }
+
+    @Test
+    public void testAllocateAndRead() {
+        SlabAllocator.Handle first = allocator.allocate(bytes(10, (byte) 1));
+        SlabAllocator.Handle second = allocator.allocate(bytes(100, (byte) 2));
+        Assert.assertArrayEquals(bytes(10, (byte) 1), allocator.read(first));
+        Assert.assertArrayEquals(bytes(100, (byte) 2), allocator.read(second));
+        // one slab for each size class used
+        Assert.assertEquals(SLAB_SIZE * 2, allocator.getReservedBytes());
+        Assert.assertEquals(64 + 128, allocator.getUsedBytes());
+    }
+
+    @Test
+    public void testFreedHandleIsNotRead() {
+        SlabAllocator.Handle first = allocator.allocate(bytes(10, (byte) 1));
+        allocator.free(first);
+        Assert.assertNull(allocator.read(first));
+        // the chunk is reused, the old handle still does not read it
+        SlabAllocator.Handle second = allocator.allocate(bytes(10, (byte) 2));
+        Assert.assertNull(allocator.read(first));
+        Assert.assertArrayEquals(bytes(10, (byte) 2), allocator.read(second));
+        // a second free of the old handle does not free the new value
+        allocator.free(first);
+        Assert.assertArrayEquals(bytes(10, (byte) 2), allocator.read(second));
+        Assert.assertEquals(SLAB_SIZE, allocator.getReservedBytes());
+    }
+
+    @Test
+    public void testMemoryLimit() {
+        for (int i = 0; i < SLAB_SIZE * 2 / 64; i++) {
+            Assert.assertNotNull(allocator.allocate(bytes(64, (byte) i)));
+        }
+        Assert.assertNull(allocator.allocate(bytes(64, (byte) 0)));
+        Assert.assertNull(allocator.allocate(bytes(SLAB_SIZE, (byte) 0)));
+        Assert.assertEquals(SLAB_SIZE * 2, allocator.getUsedBytes());
+    }
+
+    @Test
+    public void testTooBig() {
+        Assert.assertNull(allocator.allocate(bytes(SLAB_SIZE + 1, (byte) 0)));
+        Assert.assertEquals(0, allocator.getReservedBytes());
+    }
+
+    private static byte[] bytes(int length, byte value) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (value + i);
+        }
+        return data;
+    }
+}
@@ -0,0 +1,76 @@
+package org.mirko.cache.nway;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class for {@link StaleCache}
+ * <br/><br/>Created by Mirko Bernardoni on 19/10/26.
+ *
+ * @author Mirko Bernardoni
+ * @version 1.0
+ * @since 1.0
+ */
+public class StaleCacheTest {
+    private static final int CAPACITY = 2;
+    private static final long GRACE = 1000;
+    private static final long BACKOFF = 100;
+
+    private StaleCache<Integer, String> staleCache;
+
+    @Before
+    public void setUp() throws Exception {
+        staleCache = new StaleCache<>(CAPACITY, GRACE, BACKOFF);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroCapacity() {
+        new StaleCache<Integer, String>(0, GRACE, BACKOFF);
+    }
+
+    @Test
+    public void testLoadFailed() {
+        Assert.assertNull(staleCache.loadFailed(1, 0));
+        staleCache.offer(1, "a", 0);
+        Assert.assertNull(staleCache.backingOff(1, 0));
+        Assert.assertEquals("a", staleCache.loadFailed(1, 0));
+        Assert.assertEquals("a", staleCache.backingOff(1, BACKOFF - 1));
+        Assert.assertNull(staleCache.backingOff(1, BACKOFF));
+    }
+
+    @Test
+    public void testBackoffDoubled() {
+        staleCache.offer(1, "a", 0);
+        staleCache.loadFailed(1, 0);
+        staleCache.loadFailed(1, BACKOFF);
+        Assert.assertEquals("a", staleCache.backingOff(1, BACKOFF * 3 - 1));
+        Assert.assertNull(staleCache.backingOff(1, BACKOFF * 3));
+        // never over the grace period
+        for (int i = 0; i < 40; i++) {
+            staleCache.loadFailed(1, 0);
+        }
+        Assert.assertNull(staleCache.backingOff(1, GRACE));
+    }
+
+    @Test
+    public void testGracePeriod() {
+        staleCache.offer(1, "a", 0);
+        Assert.assertEquals("a", staleCache.loadFailed(1, GRACE));
+        Assert.assertNull(staleCache.loadFailed(1, GRACE + 1));
+        Assert.assertEquals(0, staleCache.size());
+    }
+
+    @Test
+    public void testOldestPushedOut() {
+        staleCache.offer(1, "a", 0);
+        staleCache.offer(2, "b", 0);
+        staleCache.offer(1, "c", 0);
+        staleCache.offer(3, "d", 0);
+        Assert.assertEquals(CAPACITY, staleCache.size());
+        Assert.assertNull(staleCache.loadFailed(2, 0));
+        Assert.assertEquals("c", staleCache.loadFailed(1, 0));
+        staleCache.invalidate(1);
+        Assert.assertNull(staleCache.loadFailed(1, 0));
+    }
+}
@@ -0,0 +1,68 @@
+package org.mirko.cache.nway;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class for {@link VictimCache}
+ * <br/><br/>Created by Mirko Bernardoni on 19/10/26.
+ *
+ * @author Mirko Bernardoni
+ * @version 1.0
+ * @since 1.0
+ */
+public class VictimCacheTest {
+    private static final int CAPACITY = 2;
+
+    private VictimCache<Integer, String> victimCache;
+
+    @Before
+    public void setUp() throws Exception {
+        victimCache = new VictimCache<>(CAPACITY);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroCapacity() {
+        new VictimCache<Integer, String>(0);
+    }
+
+    @Test
+    public void testOfferAndTake() {
+        CacheEntry<Integer, String> entry = entry(1);
+        Assert.assertNull(victimCache.offer(entry));
+        Assert.assertEquals(1, victimCache.size());
+        Assert.assertSame(entry, victimCache.take(1));
+        Assert.assertNull(victimCache.take(1));
+        Assert.assertEquals(0, victimCache.size());
+    }
+
+    @Test
+    public void testOldestPushedOut() {
+        CacheEntry<Integer, String> first = entry(1);
+        victimCache.offer(first);
+        victimCache.offer(entry(2));
+        Assert.assertSame(first, victimCache.offer(entry(3)));
+        Assert.assertEquals(CAPACITY, victimCache.size());
+        Assert.assertNull(victimCache.take(1));
+    }
+
+    @Test
+    public void testSameKeyReplaced() {
+        CacheEntry<Integer, String> first = entry(1);
+        victimCache.offer(first);
+        victimCache.offer(entry(2));
+        CacheEntry<Integer, String> second = entry(1);
+        Assert.assertSame(first, victimCache.offer(second));
+        Assert.assertEquals(CAPACITY, victimCache.size());
+        Assert.assertSame(second, victimCache.take(1));
+    }
+
+    private static CacheEntry<Integer, String> entry(int key) {
+        CacheEntryImpl<Integer, String> entry = new CacheEntryImpl<>();
+        entry.setKey(key);
+        entry.setValue("Value for " + key);
+        entry.setStatus(CacheEntryStatus.DELETED);
+        return entry;
+    }
+}
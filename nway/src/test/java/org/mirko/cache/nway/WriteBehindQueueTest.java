@@ -0,0 +1,160 @@
+package org.mirko.cache.nway;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test class for {@link WriteBehindQueue}
+ * <br/><br/>Created by Mirko Bernardoni on 19/10/26.
+ *
+ * @author Mirko Bernardoni
+ * @version 1.0
+ * @since 1.0
+ */
+public class WriteBehindQueueTest {
+    // long enough for flushing only by hand
+    private static final long DELAY = TimeUnit.HOURS.toMillis(1);
+
+    private ScheduledExecutorService scheduler;
+    private RecordingWriter writer;
+    private WriteBehindQueue<Integer, String> queue;
+
+    @Before
+    public void setUp() throws Exception {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        writer = new RecordingWriter();
+        queue = new WriteBehindQueue<>(writer, scheduler, DELAY, 10);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        scheduler.shutdownNow();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBatchSize() {
+        new WriteBehindQueue<>(writer, scheduler, DELAY, 0);
+    }
+
+    @Test
+    public void testCoalesce() {
+        queue.write(1, "a");
+        queue.write(1, "b");
+        queue.write(2, "c");
+        queue.delete(2);
+        queue.delete(3);
+        Assert.assertEquals(3, queue.pending());
+        queue.flush();
+        Assert.assertEquals(0, queue.pending());
+        Assert.assertEquals(1, writer.batches.size());
+        Assert.assertEquals("b", writer.batches.get(0).get(1));
+        Assert.assertEquals(2, writer.deletes.get(0).size());
+        Assert.assertEquals("b", writer.store.get(1));
+        Assert.assertFalse(writer.store.containsKey(2));
+    }
+
+    @Test
+    public void testBatches() {
+        // no flush when the batch is full: the submit is rejected
+        scheduler.shutdown();
+        for (int i = 0; i < 25; i++) {
+            queue.write(i, "v" + i);
+        }
+        queue.flush();
+        Assert.assertEquals(3, writer.batches.size());
+        Assert.assertEquals(10, writer.batches.get(0).size());
+        Assert.assertEquals(5, writer.batches.get(2).size());
+        Assert.assertEquals(25, writer.store.size());
+    }
+
+    @Test
+    public void testFlushWhenFull() throws Exception {
+        writer.latch = new CountDownLatch(1);
+        for (int i = 0; i < 10; i++) {
+            queue.write(i, "v" + i);
+        }
+        Assert.assertTrue(writer.latch.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(10, writer.store.size());
+    }
+
+    @Test
+    public void testFailure() {
+        queue.write(1, "a");
+        queue.delete(2);
+        writer.fail = true;
+        try {
+            queue.flush();
+            Assert.fail("Exception expected");
+        } catch (CacheWriterException e) {
+            Assert.assertEquals(2, queue.pending());
+        }
+        // the new change is not replaced by the failed one
+        queue.write(1, "b");
+        writer.fail = false;
+        queue.flush();
+        Assert.assertEquals("b", writer.store.get(1));
+        Assert.assertEquals(0, queue.pending());
+    }
+
+    @Test
+    public void testFlushKey() {
+        queue.write(1, "a");
+        queue.write(2, "b");
+        queue.flush(1);
+        queue.flush(3);
+        Assert.assertEquals("a", writer.store.get(1));
+        Assert.assertEquals(1, writer.store.size());
+        Assert.assertEquals(1, queue.pending());
+    }
+
+    private static class RecordingWriter implements CacheWriter<Integer, String> {
+        private final Map<Integer, String> store = new HashMap<>();
+        private final List<Map<Integer, String>> batches = new ArrayList<>();
+        private final List<Collection<Integer>> deletes = new ArrayList<>();
+        private volatile boolean fail;
+        private volatile CountDownLatch latch;
+
+        @Override
+        public synchronized void write(Integer key, String value) throws Exception {
+            if (fail) {
+                throw new Exception("Store not available");
+            }
+            store.put(key, value);
+        }
+
+        @Override
+        public synchronized void delete(Integer key) throws Exception {
+            if (fail) {
+                throw new Exception("Store not available");
+            }
+            store.remove(key);
+        }
+
+        @Override
+        public synchronized void writeAll(Map<Integer, String> entries) throws Exception {
+            CacheWriter.super.writeAll(entries);
+            batches.add(new HashMap<>(entries));
+            if (latch != null) {
+                latch.countDown();
+            }
+        }
+
+        @Override
+        public synchronized void deleteAll(Collection<Integer> keys) throws Exception {
+            CacheWriter.super.deleteAll(keys);
+            deletes.add(new ArrayList<>(keys));
+        }
+    }
+}
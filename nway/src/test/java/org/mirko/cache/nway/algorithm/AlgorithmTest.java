@@ -64,6 +64,7 @@ public abstract class AlgorithmTest {
         private Integer key;
         private String value;
         private long accessTime;
+        private int hitCount;
         private CacheEntryStatus status = CacheEntryStatus.ACTIVE;
 
         public long getCreationTime() {
@@ -98,6 +99,18 @@ public abstract class AlgorithmTest {
             this.accessTime = accessTime;
         }
 
+        public int getHitCount() {
+            return hitCount;
+        }
+
+        public void setHitCount(int hitCount) {
+            this.hitCount = hitCount;
+        }
+
+        public void resetHitCount() {
+            this.hitCount = 0;
+        }
+
         public CacheEntryStatus getStatus() {
             return status;
         }
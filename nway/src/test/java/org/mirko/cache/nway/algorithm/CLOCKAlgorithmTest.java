@@ -0,0 +1,117 @@
+package org.mirko.cache.nway.algorithm;
+
+import org.mirko.cache.nway.CacheEntryStatus;
+import org.mirko.cache.nway.CacheSetView;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class for {@link CLOCKAlgorithm}
+ * <br/><br/>Created by Mirko Bernardoni on 19/10/26.
+ *
+ * @author Mirko Bernardoni
+ * @version 1.0
+ * @since 1.0
+ */
+public class CLOCKAlgorithmTest extends AlgorithmTest {
+
+    private CLOCKAlgorithm<Integer, String> clock;
+
+    @SuppressWarnings("unchecked")
+    @Before
+    public void setup() {
+        super.setup();
+        clock = new CLOCKAlgorithm<>();
+    }
+
+    // No parameters for the CLOCK algorithm
+    @Test
+    @Override
+    public void testEvictionNoEntryNoToDelete() throws Exception {
+        clock.eviction(blocks);
+        Assert.assertEquals(0, blocks.size());
+    }
+
+    // No parameters for the CLOCK algorithm
+    @Test
+    @Override
+    public void testEvictionNoToDelete() throws Exception {
+        create10entries();
+        clock.eviction(blocks);
+        Assert.assertEquals(CacheEntryStatus.DELETED, blocks.get(0).getStatus());
+    }
+
+    @Override
+    public void testEvictionNoEntry() throws Exception {
+        CacheSetView<Integer, String> set = createSet();
+        Assert.assertEquals(0, clock.selectVictims(set, new int[0]));
+    }
+
+    @Override
+    public void testEvictionDeleteOne() throws Exception {
+        create10entries();
+        CacheSetView<Integer, String> set = createSet();
+        int[] victims = new int[10];
+        Assert.assertEquals(1, clock.selectVictims(set, victims));
+        Assert.assertEquals(0, victims[0]);
+    }
+
+    @Override
+    public void testEvictionDeleteThree() throws Exception {
+        create10entries();
+        CacheSetView<Integer, String> set = createSet();
+        clock.onHit(set, 0);
+        clock.onHit(set, 1);
+        clock.onHit(set, 2);
+        int[] victims = new int[10];
+        Assert.assertEquals(1, clock.selectVictims(set, victims));
+        Assert.assertEquals(3, victims[0]);
+    }
+
+    @Override
+    public void testEvictionDeleteMore() throws Exception {
+        create10entries();
+        CacheSetView<Integer, String> set = createSet();
+        for (int i = 0; i < 10; i++) {
+            clock.onHit(set, i);
+        }
+        // all entries referenced: after a full round the hand is back to the first entry
+        int[] victims = new int[10];
+        Assert.assertEquals(1, clock.selectVictims(set, victims));
+        Assert.assertEquals(0, victims[0]);
+    }
+
+    @Override
+    public void testEvictionDeleteAll() throws Exception {
+        create10entries();
+        for (int i = 0; i < 10; i++) {
+            clock.eviction(blocks);
+        }
+        blocks.forEach(e -> Assert.assertEquals(CacheEntryStatus.DELETED, e.getStatus()));
+    }
+
+    @Test
+    public void testEvictionHandMoves() throws Exception {
+        create10entries();
+        CacheSetView<Integer, String> set = createSet();
+        clock.onHit(set, 0);
+        int[] victims = new int[10];
+        Assert.assertEquals(1, clock.selectVictims(set, victims));
+        Assert.assertEquals(1, victims[0]);
+        // the victim is removed: the hand points to the next entry
+        clock.onRemove(set, 1);
+        blocks.remove(1);
+        clock.onHit(set, 1);
+        Assert.assertEquals(1, clock.selectVictims(set, victims));
+        Assert.assertEquals(2, victims[0]);
+    }
+
+    private CacheSetView<Integer, String> createSet() {
+        BlockView<Integer, String> set = new BlockView<>(blocks, clock.createSetState(10));
+        for (int i = 0; i < blocks.size(); i++) {
+            clock.onInsert(set, i);
+        }
+        return set;
+    }
+}
@@ -0,0 +1,105 @@
+package org.mirko.cache.nway.algorithm;
+
+import org.mirko.cache.nway.CacheEntryStatus;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class for {@link LFUAlgorithm}
+ * <br/><br/>Created by Mirko Bernardoni on 19/10/26.
+ *
+ * @author Mirko Bernardoni
+ * @version 1.0
+ * @since 1.0
+ */
+public class LFUAlgorithmTest extends AlgorithmTest {
+
+    private LFUAlgorithm<Integer, String> lfu;
+
+    @SuppressWarnings("unchecked")
+    @Before
+    public void setup() {
+        super.setup();
+        lfu = new LFUAlgorithm<>();
+    }
+
+    @Override
+    public void testEvictionNoEntryNoToDelete() throws Exception {
+        lfu.eviction(blocks);
+    }
+
+    @Override
+    public void testEvictionNoToDelete() throws Exception {
+        create10entries();
+        lfu.eviction(blocks);
+    }
+
+    @Override
+    public void testEvictionNoEntry() throws Exception {
+        lfu.setEntriesToDelete(1);
+        lfu.eviction(blocks);
+        Assert.assertEquals(0, blocks.size());
+    }
+
+    @Override
+    public void testEvictionDeleteOne() throws Exception {
+        lfu.setEntriesToDelete(1);
+        create10entries();
+        for (int i = 0; i < 10; i++) {
+            ((Entry) blocks.get(i)).setHitCount(i == 4 ? 0 : 5);
+        }
+        lfu.eviction(blocks);
+        Assert.assertEquals(10, blocks.size());
+        Assert.assertEquals(CacheEntryStatus.DELETED, blocks.get(4).getStatus());
+        Assert.assertEquals(CacheEntryStatus.ACTIVE, blocks.get(0).getStatus());
+        Assert.assertEquals(CacheEntryStatus.ACTIVE, blocks.get(9).getStatus());
+    }
+
+    @Override
+    public void testEvictionDeleteThree() throws Exception {
+        lfu.setEntriesToDelete(3);
+        create10entries();
+        for (int i = 0; i < 10; i++) {
+            ((Entry) blocks.get(i)).setHitCount(10 - i);
+        }
+        lfu.eviction(blocks);
+
+        Assert.assertEquals(10, blocks.size());
+        Assert.assertEquals(CacheEntryStatus.DELETED, blocks.get(9).getStatus());
+        Assert.assertEquals(CacheEntryStatus.DELETED, blocks.get(8).getStatus());
+        Assert.assertEquals(CacheEntryStatus.DELETED, blocks.get(7).getStatus());
+        Assert.assertEquals(CacheEntryStatus.ACTIVE, blocks.get(6).getStatus());
+        Assert.assertEquals(CacheEntryStatus.ACTIVE, blocks.get(0).getStatus());
+    }
+
+    @Override
+    public void testEvictionDeleteMore() throws Exception {
+        lfu.setEntriesToDelete(100);
+        create10entries();
+        lfu.eviction(blocks);
+        blocks.forEach(e -> Assert.assertEquals(CacheEntryStatus.DELETED, e.getStatus()));
+    }
+
+    @Override
+    public void testEvictionDeleteAll() throws Exception {
+        lfu.setEntriesToDelete(10);
+        create10entries();
+        lfu.eviction(blocks);
+
+        blocks.forEach(e -> Assert.assertEquals(CacheEntryStatus.DELETED, e.getStatus()));
+    }
+
+    @Test
+    public void testEvictionSameHitsOlderAccess() {
+        lfu.setEntriesToDelete(1);
+        create10entries();
+        for (int i = 0; i < 10; i++) {
+            ((Entry) blocks.get(i)).setAccessTime(i == 6 ? 1 : 100);
+        }
+        lfu.eviction(blocks);
+
+        Assert.assertEquals(CacheEntryStatus.DELETED, blocks.get(6).getStatus());
+        Assert.assertEquals(CacheEntryStatus.ACTIVE, blocks.get(0).getStatus());
+    }
+}
@@ -3,6 +3,7 @@ package org.mirko.cache.nway.algorithm;
 import org.mirko.cache.nway.CacheEntryStatus;
 import org.junit.Assert;
 import org.junit.Before;
+import org.junit.Test;
 
 /**
  * Test class for {@link LRUAlgorithm}
@@ -83,4 +84,15 @@ public class LRUAlgorithmTest extends AlgorithmTest {
         blocks.forEach(e -> Assert.assertEquals(CacheEntryStatus.DELETED, e.getStatus()));
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testSelectVictimsSkipDeleted() throws Exception {
+        lru.setEntriesToDelete(2);
+        create10entries();
+        blocks.get(0).setStatus(CacheEntryStatus.DELETED);
+        int[] victims = new int[blocks.size()];
+        Assert.assertEquals(2, lru.selectVictims(new BlockView<>(blocks), victims));
+        Assert.assertEquals(1, victims[0]);
+        Assert.assertEquals(2, victims[1]);
+    }
+
+}
@@ -100,6 +100,19 @@ public class LRUExpiredAlgorithmTest extends AlgorithmTest {
         Assert.assertEquals(CacheEntryStatus.ACTIVE, blocks.get(9).getStatus());
     }
 
+    @Test
+    public void testEvictionAtLeastOneLeastRecentlyUsed() {
+        create10entries(FUTURE);
+        ((MockEntry) (blocks.get(3))).setDelta(FUTURE - 1000); // least recently used
+        ((MockEntry) (blocks.get(7))).setDelta(FUTURE + 1000); // most recently used
+        lru.setExpiration(100);
+        lru.eviction(blocks);
+
+        // Nothing expired: the entry with the minimum access time is deleted
+        Assert.assertEquals(CacheEntryStatus.DELETED, blocks.get(3).getStatus());
+        Assert.assertEquals(1, blocks.stream().filter(e -> e.getStatus() == CacheEntryStatus.DELETED).count());
+    }
+
     protected void create10entries(long delta) {
         for (int i = 0; i < 10; i++) {
             MockEntry entry = new MockEntry();
@@ -0,0 +1,181 @@
+package org.mirko.cache.nway.algorithm;
+
+import org.mirko.cache.nway.CacheEntryStatus;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class for {@link SLRUAlgorithm}
+ * <br/><br/>Created by Mirko Bernardoni on 19/10/26.
+ *
+ * @author Mirko Bernardoni
+ * @version 1.0
+ * @since 1.0
+ */
+public class SLRUAlgorithmTest extends AlgorithmTest {
+
+    private SLRUAlgorithm<Integer, String> slru;
+
+    @SuppressWarnings("unchecked")
+    @Before
+    public void setup() {
+        super.setup();
+        slru = new SLRUAlgorithm<>();
+    }
+
+    @Override
+    public void testEvictionNoEntryNoToDelete() throws Exception {
+        slru.eviction(blocks);
+    }
+
+    @Override
+    public void testEvictionNoToDelete() throws Exception {
+        create10entries();
+        slru.eviction(blocks);
+    }
+
+    @Override
+    public void testEvictionNoEntry() throws Exception {
+        slru.setProtectedFraction(0.5);
+        slru.eviction(blocks);
+        Assert.assertEquals(0, blocks.size());
+    }
+
+    @Override
+    public void testEvictionDeleteOne() throws Exception {
+        slru.setProtectedFraction(0.5);
+        create10entries();
+        slru.eviction(blocks);
+        Assert.assertEquals(10, blocks.size());
+        Assert.assertEquals(CacheEntryStatus.DELETED, blocks.get(0).getStatus());
+        Assert.assertEquals(CacheEntryStatus.ACTIVE, blocks.get(1).getStatus());
+        Assert.assertEquals(CacheEntryStatus.ACTIVE, blocks.get(9).getStatus());
+    }
+
+    @Override
+    public void testEvictionDeleteThree() throws Exception {
+        slru.setProtectedFraction(0.5);
+        create10entries();
+        slru.eviction(blocks);
+        slru.eviction(blocks);
+        slru.eviction(blocks);
+
+        Assert.assertEquals(10, blocks.size());
+        Assert.assertEquals(CacheEntryStatus.DELETED, blocks.get(0).getStatus());
+        Assert.assertEquals(CacheEntryStatus.DELETED, blocks.get(1).getStatus());
+        Assert.assertEquals(CacheEntryStatus.DELETED, blocks.get(2).getStatus());
+        Assert.assertEquals(CacheEntryStatus.ACTIVE, blocks.get(3).getStatus());
+        Assert.assertEquals(CacheEntryStatus.ACTIVE, blocks.get(9).getStatus());
+    }
+
+    @Override
+    public void testEvictionDeleteMore() throws Exception {
+        slru.setProtectedFraction(0.5);
+        create10entries();
+        for (int i = 0; i < 100; i++) {
+            slru.eviction(blocks);
+        }
+        blocks.forEach(e -> Assert.assertEquals(CacheEntryStatus.DELETED, e.getStatus()));
+    }
+
+    @Override
+    public void testEvictionDeleteAll() throws Exception {
+        slru.setProtectedFraction(0.5);
+        create10entries();
+        for (int i = 0; i < 10; i++) {
+            slru.eviction(blocks);
+        }
+
+        blocks.forEach(e -> Assert.assertEquals(CacheEntryStatus.DELETED, e.getStatus()));
+    }
+
+    @Test
+    public void testEvictionProbationFirst() {
+        slru.setProtectedFraction(0.5);
+        create10entries();
+        for (int i = 0; i < 5; i++) {
+            ((Entry) blocks.get(i)).setHitCount(1);
+            ((Entry) blocks.get(i)).setAccessTime(i);
+        }
+        for (int i = 5; i < 10; i++) {
+            ((Entry) blocks.get(i)).setAccessTime(100 + i);
+        }
+        slru.eviction(blocks);
+
+        // The oldest entries are protected then the oldest new entry is evicted
+        Assert.assertEquals(CacheEntryStatus.DELETED, blocks.get(5).getStatus());
+        for (int i = 0; i < 5; i++) {
+            Assert.assertEquals(CacheEntryStatus.ACTIVE, blocks.get(i).getStatus());
+        }
+    }
+
+    @Test
+    public void testEvictionProtectedDemotion() {
+        slru.setProtectedFraction(0.2);
+        create10entries();
+        for (int i = 0; i < 5; i++) {
+            ((Entry) blocks.get(i)).setHitCount(3);
+            ((Entry) blocks.get(i)).setAccessTime(i);
+        }
+        for (int i = 5; i < 10; i++) {
+            ((Entry) blocks.get(i)).setAccessTime(100 + i);
+        }
+        slru.eviction(blocks);
+
+        // Only 2 entries fit in the protected segment, the least recently used is demoted but not evicted
+        Assert.assertEquals(CacheEntryStatus.DELETED, blocks.get(5).getStatus());
+        Assert.assertEquals(CacheEntryStatus.ACTIVE, blocks.get(0).getStatus());
+        Assert.assertEquals(0, blocks.get(0).getHitCount());
+        for (int i = 1; i < 5; i++) {
+            Assert.assertEquals(CacheEntryStatus.ACTIVE, blocks.get(i).getStatus());
+            Assert.assertEquals(3, blocks.get(i).getHitCount());
+        }
+    }
+
+    @Test
+    public void testEvictionScanFullProtected() {
+        slru.setProtectedFraction(0.5);
+        create10entries();
+        for (int i = 0; i < 5; i++) {
+            ((Entry) blocks.get(i)).setHitCount(2);
+            ((Entry) blocks.get(i)).setAccessTime(i);
+        }
+        for (int i = 5; i < 10; i++) {
+            ((Entry) blocks.get(i)).setAccessTime(100 + i);
+        }
+
+        // A scan of 20 new keys: every new key evicts an entry of the scan, the working set is never touched
+        for (int i = 0; i < 20; i++) {
+            slru.eviction(blocks);
+            Assert.assertEquals(9, blocks.stream().filter(e -> e.getStatus() == CacheEntryStatus.ACTIVE).count());
+            blocks.removeIf(e -> e.getStatus() == CacheEntryStatus.DELETED);
+            Entry entry = new Entry();
+            entry.setAccessTime(200 + i);
+            blocks.add(entry);
+        }
+        for (int i = 0; i < 5; i++) {
+            Assert.assertSame(blocksBefore.get(i), blocks.get(i));
+            Assert.assertEquals(2, blocks.get(i).getHitCount());
+        }
+    }
+
+    @Test
+    public void testEvictionOnlyProtected() {
+        slru.setProtectedFraction(0.5);
+        create10entries();
+        for (int i = 0; i < 10; i++) {
+            ((Entry) blocks.get(i)).setHitCount(1);
+            ((Entry) blocks.get(i)).setAccessTime(10 - i);
+        }
+        slru.eviction(blocks);
+
+        Assert.assertEquals(CacheEntryStatus.DELETED, blocks.get(9).getStatus());
+        Assert.assertEquals(CacheEntryStatus.ACTIVE, blocks.get(0).getStatus());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetProtectedFractionOne() {
+        slru.setProtectedFraction(1);
+    }
+}